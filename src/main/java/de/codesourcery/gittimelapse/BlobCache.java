@@ -0,0 +1,587 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.PackFile;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectDatabase;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+
+/**
+ * Two-tier cache for file contents, keyed by blob ID.
+ *
+ * <p>The first tier keeps blobs on the heap and evicts the least recently used ones once
+ * its byte budget is exceeded. Evicted blobs are deflated and spilled to the second tier, a memory-mapped
+ * temporary file. Once the second tier is full, it is emptied as a whole and filled up again.</p>
+ *
+ * <p>Since the cache is keyed by blob ID, revisions with identical content (reverts etc.) share a single entry.
+ * Returned arrays are shared and must not be modified.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class BlobCache
+{
+	public static final long DEFAULT_HEAP_BYTES = 64 * 1024 * 1024;
+	public static final long DEFAULT_SPILL_BYTES = 256 * 1024 * 1024;
+
+	private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private final RepositorySession session;
+	private final LruCache<ObjectId, byte[]> heap;
+	private final SpillFile spillFile;
+
+	// guarded by this
+	private long loads;
+
+	/**
+	 * Outcome of {@link BlobCache#preload(ObjectId[])}.
+	 */
+	public static final class PreloadStats
+	{
+		/** number of blobs loaded from the repository */
+		public final int blobs;
+		/** number of blobs that were cached already */
+		public final int cached;
+		/** number of blobs skipped because the cache's byte budget was used up or they were too large */
+		public final int skipped;
+		/** total size of the loaded blobs */
+		public final long bytes;
+		public final long nanos;
+
+		private PreloadStats(int blobs,int cached,int skipped,long bytes,long nanos)
+		{
+			this.blobs = blobs;
+			this.cached = cached;
+			this.skipped = skipped;
+			this.bytes = bytes;
+			this.nanos = nanos;
+		}
+
+		public double getMegabytesPerSecond() {
+			return nanos == 0 ? 0 : ( bytes / ( 1024d * 1024d ) ) / ( nanos / 1e9 );
+		}
+
+		public double getBlobsPerSecond() {
+			return nanos == 0 ? 0 : blobs / ( nanos / 1e9 );
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format( "%d blobs , %.1f MB in %d ms (%.1f MB/s , %.0f blobs/s) , %d already cached , %d skipped" ,
+					blobs , bytes / ( 1024d * 1024d ) , nanos / 1000000 , getMegabytesPerSecond() , getBlobsPerSecond() , cached , skipped );
+		}
+	}
+
+	/**
+	 * Second tier, deflated blobs in an append-only memory-mapped file.
+	 */
+	private static final class SpillFile
+	{
+		private long maxBytes;
+
+		private File file;
+		private FileChannel channel;
+		private boolean failed;
+		private boolean closed;
+
+		private final List<MappedByteBuffer> segments = new ArrayList<>();
+		private long writePosition;
+
+		// entry is { file offset , compressed length , uncompressed length }
+		private final Map<ObjectId,long[]> index = new HashMap<>();
+
+		private long hits;
+		private long writes;
+		private long evictions;
+
+		private final Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+		private final Inflater inflater = new Inflater();
+		private byte[] buffer = new byte[ 64 * 1024 ];
+
+		public SpillFile(long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		public synchronized void setMaxBytes(long maxBytes)
+		{
+			if ( maxBytes != this.maxBytes ) 
+			{
+				// segment size might change
+				reset();
+				segments.clear();
+				this.maxBytes = maxBytes;
+			}
+		}
+
+		public synchronized void write(ObjectId blobId,byte[] data)
+		{
+			if ( failed || closed || maxBytes == 0 || index.containsKey( blobId ) ) {
+				return;
+			}
+			final int segmentSize = (int) Math.min( SEGMENT_SIZE , maxBytes );
+			final int length = deflate( data );
+			if ( length > segmentSize ) {
+				return;
+			}
+
+			long offset = writePosition;
+			if ( offset % segmentSize + length > segmentSize ) { // entries never span segments
+				offset += segmentSize - offset % segmentSize;
+			}
+			if ( offset + length > maxBytes )
+			{
+				reset();
+				offset = 0;
+			}
+
+			try
+			{
+				final ByteBuffer segment = getSegment( (int) ( offset / segmentSize ) , segmentSize );
+				segment.position( (int) ( offset % segmentSize ) );
+				segment.put( buffer , 0 , length );
+			}
+			catch(IOException e)
+			{
+				System.err.println("Failed to write blob cache spill file "+file+" , second tier disabled: "+e.getMessage());
+				failed = true;
+				return;
+			}
+			index.put( blobId.copy() , new long[] { offset , length , data.length } );
+			writePosition = offset + length;
+			writes++;
+		}
+
+		public synchronized boolean contains(ObjectId blobId) {
+			return index.containsKey( blobId );
+		}
+
+		public synchronized long getMaxBytes() {
+			return maxBytes;
+		}
+
+		public synchronized byte[] read(ObjectId blobId)
+		{
+			final long[] entry = index.get( blobId );
+			if ( entry == null ) {
+				return null;
+			}
+			final int segmentSize = (int) Math.min( SEGMENT_SIZE , maxBytes );
+			final int length = (int) entry[1];
+			if ( buffer.length < length ) {
+				buffer = new byte[ length ];
+			}
+			final ByteBuffer segment = segments.get( (int) ( entry[0] / segmentSize ) ).duplicate();
+			segment.position( (int) ( entry[0] % segmentSize ) );
+			segment.get( buffer , 0 , length );
+
+			final byte[] result = new byte[ (int) entry[2] ];
+			inflater.reset();
+			inflater.setInput( buffer , 0 , length );
+			try
+			{
+				int size = 0;
+				while ( size < result.length && ! inflater.finished() ) 
+				{
+					final int inflated = inflater.inflate( result , size , result.length - size );
+					if ( inflated == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) ) {
+						break;
+					}
+					size += inflated;
+				}
+				if ( size != result.length ) {
+					throw new DataFormatException("Truncated entry");
+				}
+			}
+			catch (DataFormatException e)
+			{
+				index.remove( blobId );
+				return null;
+			}
+			hits++;
+			return result;
+		}
+
+		private int deflate(byte[] data)
+		{
+			deflater.reset();
+			deflater.setInput( data );
+			deflater.finish();
+			int length = 0;
+			while ( ! deflater.finished() )
+			{
+				if ( length == buffer.length ) {
+					buffer = Arrays.copyOf( buffer , buffer.length * 2 );
+				}
+				length += deflater.deflate( buffer , length , buffer.length - length );
+			}
+			return length;
+		}
+
+		private ByteBuffer getSegment(int segmentNo,int segmentSize) throws IOException
+		{
+			if ( channel == null )
+			{
+				file = File.createTempFile( "git-timelapse-blobs" , ".tmp" );
+				file.deleteOnExit();
+				channel = new RandomAccessFile( file , "rw" ).getChannel();
+			}
+			// mapped buffers cannot be unmapped explicitly, so segments are kept and re-used after a reset
+			while ( segments.size() <= segmentNo ) {
+				segments.add( channel.map( FileChannel.MapMode.READ_WRITE , (long) segments.size() * segmentSize , segmentSize ) );
+			}
+			return segments.get( segmentNo ).duplicate();
+		}
+
+		private void reset()
+		{
+			evictions += index.size();
+			index.clear();
+			writePosition = 0;
+		}
+
+		/**
+		 * Drops all entries, closes and deletes the file. Blobs written afterwards are discarded.
+		 */
+		public synchronized void close()
+		{
+			if ( closed ) {
+				return;
+			}
+			closed = true;
+			index.clear();
+			segments.clear();
+			writePosition = 0;
+			deflater.end();
+			inflater.end();
+			if ( channel != null )
+			{
+				try {
+					channel.close();
+				} 
+				catch (IOException e) {
+					System.err.println("Failed to close blob cache spill file "+file+": "+e.getMessage());
+				}
+				channel = null;
+				// fails while the mapped segments have not been garbage collected on some platforms, deleteOnExit() takes care of it then
+				file.delete();
+			}
+		}
+
+		@Override
+		public synchronized String toString() {
+			return index.size()+" entries , "+(writePosition/1024)+" of "+(maxBytes/1024)+" KB , "+hits+" hits , "+writes+" writes , "+evictions+" evictions";
+		}
+	}
+
+	public BlobCache(RepositorySession session)
+	{
+		this( session , DEFAULT_HEAP_BYTES , DEFAULT_SPILL_BYTES );
+	}
+
+	/**
+	 * Create instance.
+	 *
+	 * @param session session whose readers load blobs from the repository
+	 * @param heapBytes byte budget of the first tier
+	 * @param spillBytes byte budget of the second tier, 0 disables the second tier
+	 */
+	public BlobCache(RepositorySession session,long heapBytes,long spillBytes)
+	{
+		if (session == null) {
+			throw new IllegalArgumentException("session must not be NULL");
+		}
+		if ( spillBytes < 0 ) {
+			throw new IllegalArgumentException("Byte budget must be >= 0");
+		}
+		this.session = session;
+		this.spillFile = new SpillFile( spillBytes );
+		this.heap = new LruCache<ObjectId, byte[]>( heapBytes )
+		{
+			@Override
+			protected long sizeOf(byte[] value) {
+				return value.length;
+			}
+
+			// runs outside the heap tier's lock, a concurrent lookup of this blob may miss both tiers until the write is done
+			@Override
+			protected void evicted(ObjectId key, byte[] value) {
+				spillFile.write( key , value );
+			}
+		};
+	}
+
+	/**
+	 * Returns a blob's content, loading it from the repository if it is not cached.
+	 *
+	 * @param blobId
+	 * @return content, must not be modified. Empty if the blob ID is {@link ObjectId#zeroId()}
+	 * @throws IOException
+	 */
+	public byte[] get(ObjectId blobId) throws IOException
+	{
+		if ( ObjectId.zeroId().equals( blobId ) ) {
+			return EMPTY;
+		}
+		byte[] result = heap.get( blobId );
+		if ( result != null ) {
+			return result;
+		}
+		result = spillFile.read( blobId );
+		if ( result == null )
+		{
+			result = session.getReader().open( blobId , Constants.OBJ_BLOB ).getBytes();
+			synchronized( this ) {
+				loads++;
+			}
+		}
+		heap.put( blobId.copy() , result );
+		return result;
+	}
+
+	/**
+	 * Loads blobs that are not cached yet into the cache, in the order they are stored in the repository.
+	 *
+	 * <p>Revisions of a file are mostly stored as delta chains whose bases come before the deltas in a pack.
+	 * Reading them in slider order makes JGit inflate the same bases over and over again, reading them
+	 * in a single pass ordered by pack and offset lets the delta base cache do its job. Blobs not found in any
+	 * pack (loose objects) are loaded last, in the given order. Finding pack offsets relies on JGit internals,
+	 * all blobs are loaded in the given order if those are unavailable.</p>
+	 *
+	 * <p>Stops loading once the combined byte budget of both tiers is used up, blobs too large
+	 * to be loaded into memory are skipped.</p>
+	 *
+	 * @param blobIds blob IDs, may contain duplicates and {@link ObjectId#zeroId()}
+	 * @return statistics
+	 * @throws IOException
+	 */
+	public PreloadStats preload(ObjectId[] blobIds) throws IOException
+	{
+		long time = -System.nanoTime();
+
+		final Set<ObjectId> unique = new HashSet<>();
+		final List<ObjectId> toLoad = new ArrayList<>();
+		int cached = 0;
+		for ( ObjectId blobId : blobIds )
+		{
+			if ( ObjectId.zeroId().equals( blobId ) || ! unique.add( blobId ) ) {
+				continue;
+			}
+			if ( heap.peek( blobId ) != null || spillFile.contains( blobId ) ) {
+				cached++;
+			} else {
+				toLoad.add( blobId );
+			}
+		}
+
+		final ObjectId[] sorted = sortByPackOffset( toLoad );
+		final long budget = heap.getMaxBytes() + spillFile.getMaxBytes();
+		final ObjectReader reader = session.getReader();
+		int loaded = 0;
+		long bytes = 0;
+		for ( ObjectId blobId : sorted )
+		{
+			if ( bytes >= budget ) {
+				break;
+			}
+			final byte[] data;
+			try {
+				data = reader.open( blobId , Constants.OBJ_BLOB ).getBytes();
+			}
+			catch(LargeObjectException e) {
+				continue;
+			}
+			heap.put( blobId.copy() , data );
+			loaded++;
+			bytes += data.length;
+		}
+		synchronized( this ) {
+			loads += loaded;
+		}
+		time += System.nanoTime();
+		return new PreloadStats( loaded , cached , sorted.length - loaded , bytes , time );
+	}
+
+	/**
+	 * Sorts objects by the pack that holds them and their offset inside the pack, if possible.
+	 *
+	 * <p>Looking up pack offsets relies on JGit internals, the objects are returned in the given order if
+	 * those are not available.</p>
+	 */
+	private ObjectId[] sortByPackOffset(List<ObjectId> ids) throws IOException
+	{
+		final ObjectId[] result = ids.toArray( new ObjectId[ ids.size() ] );
+		try {
+			PackOrder.sort( session.getRepository().getObjectDatabase() , result );
+		}
+		catch(LinkageError | RuntimeException e)
+		{
+			if ( Main.DEBUG_MODE ) {
+				System.err.println("Failed to sort blobs by pack offset, loading them unsorted: "+e);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Access to JGit internals, only loaded when sorting blobs so a JGit release without them doesn't break the cache.
+	 */
+	private static final class PackOrder
+	{
+		/**
+		 * Sorts objects in place, loose objects go last.
+		 *
+		 * <p>Takes one index lookup per object and pack in the worst case. Blobs of a file's history tend to be in the same pack,
+		 * so the pack that held the previous object is searched first.</p>
+		 */
+		public static void sort(ObjectDatabase database,ObjectId[] ids) throws IOException
+		{
+			if ( ! ( database instanceof ObjectDirectory ) ) {
+				return;
+			}
+
+			// { pack number , offset }
+			final Map<ObjectId,long[]> positions = new HashMap<>();
+			final long[] loose = { Long.MAX_VALUE , Long.MAX_VALUE };
+			final List<PackFile> packs = new ArrayList<>( ( (ObjectDirectory) database ).getPacks() );
+			int lastHit = 0;
+			for ( ObjectId id : ids )
+			{
+				long[] position = loose;
+				for ( int i = 0 ; i < packs.size() ; i++ )
+				{
+					final int pack = ( lastHit + i ) % packs.size();
+					final long offset = packs.get( pack ).getIndex().findOffset( id );
+					if ( offset != -1 )
+					{
+						position = new long[] { pack , offset };
+						lastHit = pack;
+						break;
+					}
+				}
+				positions.put( id , position );
+			}
+
+			// stable, so loose objects keep their order
+			Arrays.sort( ids , new Comparator<ObjectId>()
+			{
+				@Override
+				public int compare(ObjectId o1, ObjectId o2)
+				{
+					final long[] p1 = positions.get( o1 );
+					final long[] p2 = positions.get( o2 );
+					if ( p1[0] != p2[0] ) {
+						return p1[0] < p2[0] ? -1 : 1;
+					}
+					return p1[1] < p2[1] ? -1 : ( p1[1] == p2[1] ? 0 : 1 );
+				}
+			});
+		}
+	}
+
+	/**
+	 * Empties the cache and releases the second tier's file.
+	 *
+	 * <p>Blobs are loaded from the repository and kept in the first tier afterwards, the second tier
+	 * stays disabled.</p>
+	 */
+	public void close()
+	{
+		spillFile.close();
+		heap.clear();
+	}
+
+	/**
+	 * Sets the byte budget of the first tier.
+	 */
+	public void setMaxHeapBytes(long maxBytes) {
+		heap.setMaxBytes( maxBytes );
+	}
+
+	/**
+	 * Sets the byte budget of the second tier, 0 disables the second tier.
+	 */
+	public void setMaxSpillBytes(long maxBytes)
+	{
+		if ( maxBytes < 0 ) {
+			throw new IllegalArgumentException("Byte budget must be >= 0");
+		}
+		spillFile.setMaxBytes( maxBytes );
+	}
+
+	public long getHeapHits() {
+		return heap.getHits();
+	}
+
+	/**
+	 * Returns the number of evictions from the first tier.
+	 */
+	public long getHeapEvictions() {
+		return heap.getEvictions();
+	}
+
+	public long getSpillHits() {
+		synchronized( spillFile ) {
+			return spillFile.hits;
+		}
+	}
+
+	/**
+	 * Returns the number of blobs dropped from the second tier.
+	 */
+	public long getSpillEvictions() {
+		synchronized( spillFile ) {
+			return spillFile.evictions;
+		}
+	}
+
+	/**
+	 * Returns the number of blobs that had to be loaded from the repository.
+	 */
+	public synchronized long getMisses() {
+		return loads;
+	}
+
+	@Override
+	public String toString() {
+		return "heap: "+heap+" | spill file: "+spillFile+" | loaded from repository: "+getMisses();
+	}
+}
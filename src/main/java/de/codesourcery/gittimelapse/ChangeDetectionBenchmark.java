@@ -0,0 +1,125 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+
+/**
+ * Compares the run-time of {@link PathChangeDetector} against the full-tree diff
+ * done by {@link GitHelper#commitChangesFile(String, PathFilter, RevCommit)}.
+ *
+ * <p>Both implementations are run against every commit reachable from <code>HEAD</code>,
+ * commits they disagree about are reported.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class ChangeDetectionBenchmark
+{
+	private static final int MAX_REPORTED_MISMATCHES = 20;
+
+	private final GitHelper helper;
+
+	public ChangeDetectionBenchmark(GitHelper helper)
+	{
+		if (helper == null) {
+			throw new IllegalArgumentException("helper must not be NULL");
+		}
+		this.helper = helper;
+	}
+
+	public void run(File file,int rounds) throws IOException
+	{
+		final String path = helper.stripRepoBaseDir( file );
+		final PathFilter filter = helper.createPathFilter( path );
+
+		long fullDiffTime = 0;
+		long detectorTime = 0;
+		int commitCount = 0;
+		int changeCount = 0;
+		int mismatchCount = 0;
+
+		for ( int round = 1 ; round <= rounds ; round++ )
+		{
+			final RevWalk walk = new RevWalk( helper.getRepository() );
+			try
+			{
+				final ObjectId head = helper.getRepository().resolve("HEAD");
+				if ( head == null ) {
+					throw new RuntimeException("Failed to resolve HEAD");
+				}
+				walk.setRetainBody( false );
+				walk.markStart( walk.parseCommit( head ) );
+
+				final PathChangeDetector detector = new PathChangeDetector( walk.getObjectReader() , path );
+
+				commitCount = changeCount = mismatchCount = 0;
+				long roundFullDiff = 0;
+				long roundDetector = 0;
+				for ( RevCommit commit : walk )
+				{
+					long time = -System.nanoTime();
+					final boolean expected = helper.commitChangesFile( path , filter , commit );
+					time += System.nanoTime();
+					roundFullDiff += time;
+
+					time = -System.nanoTime();
+					final boolean actual = detector.isChanged( walk , commit );
+					time += System.nanoTime();
+					roundDetector += time;
+
+					if ( expected != actual ) 
+					{
+						if ( round == 1 && mismatchCount < MAX_REPORTED_MISMATCHES ) {
+							System.err.println("Change detection mismatch for commit "+commit.getName()+" , expected: "+expected+" , got: "+actual);
+						}
+						mismatchCount++;
+					}
+					commitCount++;
+					if ( actual ) {
+						changeCount++;
+					}
+				}
+				System.out.println("Round "+round+": full tree diff "+millis( roundFullDiff )+" ms , path-scoped "+millis( roundDetector )+" ms");
+				if ( round > 1 || rounds == 1 ) { // first round is warm-up
+					fullDiffTime += roundFullDiff;
+					detectorTime += roundDetector;
+				}
+			} finally {
+				walk.dispose();
+			}
+		}
+
+		System.out.println("Commits: "+commitCount+" , changing "+path+": "+changeCount);
+		if ( mismatchCount > 0 ) {
+			System.err.println("Mismatches: "+mismatchCount+" (per round)");
+		}
+		System.out.println("Full tree diff: "+millis( fullDiffTime )+" ms");
+		System.out.println("Path-scoped   : "+millis( detectorTime )+" ms");
+		if ( detectorTime > 0 ) {
+			System.out.println("Speed-up      : "+String.format("%.1f", fullDiffTime / (double) detectorTime )+"x");
+		}
+	}
+
+	private static long millis(long nanos) {
+		return nanos / 1000000;
+	}
+}
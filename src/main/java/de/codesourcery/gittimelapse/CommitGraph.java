@@ -0,0 +1,248 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import java.util.Arrays;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * Immutable, compact representation of the commit graph reachable from a tip commit.
+ *
+ * <p>All data is kept in primitive arrays indexed by commit number. Commits are numbered in the order
+ * they were added to the {@link Builder} (which is the order a {@link org.eclipse.jgit.revwalk.RevWalk} returned them in,
+ * newest commit first). Object IDs are stored as five consecutive <code>int</code>s each.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class CommitGraph
+{
+	private static final int ID_WORDS = 5;
+
+	private final ObjectId tip;
+	private final int size;
+
+	private final int[] ids;
+	private final int[] trees;
+	private final int[] commitTimes;
+
+	// parents of commit #i are parents[ parentStart[i] ] ... parents[ parentStart[i+1]-1 ]
+	private final int[] parentStart;
+	private final int[] parents;
+
+	// open-addressing hash table mapping commit IDs to (index+1), 0 marks an empty slot
+	private final int[] idTable;
+	private final int idTableMask;
+
+	/**
+	 * Collects commits while walking the history.
+	 *
+	 * <p>Parents may be added after their children, they are resolved when {@link #build(ObjectId)} is called.</p>
+	 */
+	public static final class Builder
+	{
+		private int size;
+		private int[] ids = new int[ 1024 * ID_WORDS ];
+		private int[] trees = new int[ 1024 * ID_WORDS ];
+		private int[] commitTimes = new int[ 1024 ];
+		private int[] parentStart = new int[ 1025 ];
+		private int[] parentIds = new int[ 1024 * ID_WORDS ];
+		private int parentIdsSize;
+
+		/**
+		 * Adds a commit.
+		 *
+		 * @param commit commit with parsed headers
+		 */
+		public void add(RevCommit commit)
+		{
+			ensureCapacity( size + 1 );
+			commit.copyRawTo( ids , size * ID_WORDS );
+			commit.getTree().copyRawTo( trees , size * ID_WORDS );
+			commitTimes[ size ] = commit.getCommitTime();
+
+			final int parentCount = commit.getParentCount();
+			if ( parentIdsSize + parentCount * ID_WORDS > parentIds.length ) {
+				parentIds = Arrays.copyOf( parentIds , Math.max( parentIds.length * 2 , parentIdsSize + parentCount * ID_WORDS ) );
+			}
+			for ( int i = 0 ; i < parentCount ; i++ )
+			{
+				commit.getParent(i).copyRawTo( parentIds , parentIdsSize );
+				parentIdsSize += ID_WORDS;
+			}
+			size++;
+			parentStart[ size ] = parentIdsSize / ID_WORDS;
+		}
+
+		private void ensureCapacity(int newSize)
+		{
+			if ( newSize <= commitTimes.length ) {
+				return;
+			}
+			final int newCapacity = Math.max( newSize , commitTimes.length * 2 );
+			ids = Arrays.copyOf( ids , newCapacity * ID_WORDS );
+			trees = Arrays.copyOf( trees , newCapacity * ID_WORDS );
+			commitTimes = Arrays.copyOf( commitTimes , newCapacity );
+			parentStart = Arrays.copyOf( parentStart , newCapacity + 1 );
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Creates the commit graph.
+		 *
+		 * <p>Parents that have not been added to this builder (for example because the repository is shallow)
+		 * are dropped.</p>
+		 *
+		 * @param tip the commit the history walk started at
+		 * @return
+		 */
+		public CommitGraph build(ObjectId tip) {
+			return new CommitGraph( this , tip );
+		}
+	}
+
+	private CommitGraph(Builder builder,ObjectId tip)
+	{
+		this.tip = tip.copy();
+		this.size = builder.size;
+		this.ids = Arrays.copyOf( builder.ids , size * ID_WORDS );
+		this.trees = Arrays.copyOf( builder.trees , size * ID_WORDS );
+		this.commitTimes = Arrays.copyOf( builder.commitTimes , size );
+
+		int tableSize = 16;
+		while ( tableSize < size * 2 ) {
+			tableSize <<= 1;
+		}
+		this.idTable = new int[ tableSize ];
+		this.idTableMask = tableSize - 1;
+		for ( int i = 0 ; i < size ; i++ )
+		{
+			int slot = ids[ i * ID_WORDS + 1 ] & idTableMask;
+			while ( idTable[slot] != 0 ) {
+				slot = ( slot + 1 ) & idTableMask;
+			}
+			idTable[slot] = i + 1;
+		}
+
+		// resolve parent IDs to indices
+		this.parentStart = new int[ size + 1 ];
+		int[] resolved = new int[ builder.parentIdsSize / ID_WORDS ];
+		int count = 0;
+		for ( int i = 0 ; i < size ; i++ )
+		{
+			parentStart[i] = count;
+			for ( int p = builder.parentStart[i] ; p < builder.parentStart[i+1] ; p++ )
+			{
+				final int idx = indexOf( builder.parentIds , p * ID_WORDS );
+				if ( idx != -1 ) {
+					resolved[ count++ ] = idx;
+				}
+			}
+		}
+		parentStart[ size ] = count;
+		this.parents = count == resolved.length ? resolved : Arrays.copyOf( resolved , count );
+	}
+
+	private int indexOf(int[] words,int offset)
+	{
+		int slot = words[ offset + 1 ] & idTableMask;
+		while ( true )
+		{
+			final int entry = idTable[slot];
+			if ( entry == 0 ) {
+				return -1;
+			}
+			final int base = ( entry - 1 ) * ID_WORDS;
+			if ( ids[ base ] == words[ offset ] && ids[ base + 1 ] == words[ offset + 1 ] && ids[ base + 2 ] == words[ offset + 2 ] &&
+				 ids[ base + 3 ] == words[ offset + 3 ] && ids[ base + 4 ] == words[ offset + 4 ] )
+			{
+				return entry - 1;
+			}
+			slot = ( slot + 1 ) & idTableMask;
+		}
+	}
+
+	/**
+	 * Returns the index of a commit.
+	 *
+	 * @param commit
+	 * @return index or -1 if the commit is not part of this graph
+	 */
+	public int indexOf(AnyObjectId commit)
+	{
+		final int[] words = new int[ ID_WORDS ];
+		commit.copyRawTo( words , 0 );
+		return indexOf( words , 0 );
+	}
+
+	/**
+	 * Returns the commit the history walk started at.
+	 */
+	public ObjectId getTip() {
+		return tip;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public ObjectId getId(int index)
+	{
+		final MutableObjectId result = new MutableObjectId();
+		getId( index , result );
+		return result.toObjectId();
+	}
+
+	public void getId(int index,MutableObjectId result) {
+		result.fromRaw( ids , index * ID_WORDS );
+	}
+
+	public void getTree(int index,MutableObjectId result) {
+		result.fromRaw( trees , index * ID_WORDS );
+	}
+
+	/**
+	 * Returns the commit time in seconds since the epoch.
+	 */
+	public int getCommitTime(int index) {
+		return commitTimes[ index ];
+	}
+
+	public int getParentCount(int index) {
+		return parentStart[ index + 1 ] - parentStart[ index ];
+	}
+
+	public int getParent(int index,int parentNo) {
+		return parents[ parentStart[ index ] + parentNo ];
+	}
+
+	/**
+	 * Returns the approx. number of bytes used by this graph.
+	 */
+	public long getMemoryUsage()
+	{
+		return 4L * ( ids.length + trees.length + commitTimes.length +
+				parentStart.length + parents.length + idTable.length );
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Cache for finished side-by-side diffs, keyed by the blob IDs of both revisions and the display mode.
+ *
+ * <p>Least recently used diffs are evicted once the cached diffs exceed the byte budget,
+ * see {@link SideBySideDiff#getMemoryUsage()}.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class DiffCache extends LruCache<DiffCache.Key, SideBySideDiff>
+{
+	public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+	protected static final class Key
+	{
+		private final ObjectId previousBlob;
+		private final ObjectId currentBlob;
+		private final boolean align;
+
+		public Key(ObjectId previousBlob, ObjectId currentBlob, boolean align)
+		{
+			this.previousBlob = previousBlob.copy();
+			this.currentBlob = currentBlob.copy();
+			this.align = align;
+		}
+
+		@Override
+		public int hashCode() {
+			return ( previousBlob.hashCode() * 31 + currentBlob.hashCode() ) * 31 + ( align ? 1 : 0 );
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if ( ! ( obj instanceof Key ) ) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return align == other.align && previousBlob.equals( other.previousBlob ) && currentBlob.equals( other.currentBlob );
+		}
+	}
+
+	public DiffCache() {
+		this( DEFAULT_MAX_BYTES );
+	}
+
+	public DiffCache(long maxBytes) {
+		super( maxBytes );
+	}
+
+	@Override
+	protected long sizeOf(SideBySideDiff value) {
+		return value.getMemoryUsage();
+	}
+
+	/**
+	 * Looks up a diff.
+	 *
+	 * @param previousBlob
+	 * @param currentBlob
+	 * @param align whether the diff was created in aligned mode
+	 * @return diff or <code>null</code>
+	 */
+	public SideBySideDiff get(ObjectId previousBlob,ObjectId currentBlob,boolean align) {
+		return get( new Key( previousBlob , currentBlob , align ) );
+	}
+
+	/**
+	 * Looks up a diff without counting a hit or miss.
+	 *
+	 * @see LruCache#peek(Object)
+	 */
+	public SideBySideDiff peek(ObjectId previousBlob,ObjectId currentBlob,boolean align) {
+		return peek( new Key( previousBlob , currentBlob , align ) );
+	}
+
+	public void put(ObjectId previousBlob,ObjectId currentBlob,boolean align,SideBySideDiff diff) {
+		put( new Key( previousBlob , currentBlob , align ) , diff );
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.Shape;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Element;
+import javax.swing.text.ParagraphView;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.Style;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyleContext;
+import javax.swing.text.StyledEditorKit;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+
+import de.codesourcery.gittimelapse.SideBySideDiff.Pane;
+import de.codesourcery.gittimelapse.TextFile.ChangeType;
+
+/**
+ * Styled document displaying one side of a diff in a {@link javax.swing.JTextPane}, one paragraph per row.
+ *
+ * <p>The whole element structure is built in a single batch from {@link ElementSpec}s instead of inserting text and
+ * applying character attributes line by line, so building a document costs one pass over the rows and fires a single event.
+ * Documents are meant to be built off the EDT and then swapped into the text pane.</p>
+ *
+ * <p>Rows are coloured through paragraph attributes, a text pane using a {@link RowEditorKit} paints their background
+ * across its whole width, so padding rows don't need any content besides the line break.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class DiffDocument extends DefaultStyledDocument
+{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Editor kit for text panes displaying {@link DiffDocument}s, paints the background colour of each paragraph.
+	 */
+	public static final class RowEditorKit extends StyledEditorKit
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final ViewFactory factory = new ViewFactory()
+		{
+			@Override
+			public View create(Element elem)
+			{
+				if ( AbstractDocument.ParagraphElementName.equals( elem.getName() ) ) {
+					return new RowView( elem );
+				}
+				return RowEditorKit.super.getViewFactory().create( elem );
+			}
+		};
+
+		@Override
+		public ViewFactory getViewFactory() {
+			return factory;
+		}
+	}
+
+	private static final class RowView extends ParagraphView
+	{
+		public RowView(Element elem) {
+			super( elem );
+		}
+
+		@Override
+		public void paint(Graphics g, Shape a)
+		{
+			final AttributeSet attributes = getAttributes();
+			if ( attributes.isDefined( StyleConstants.Background ) )
+			{
+				final Rectangle bounds = a.getBounds();
+				final Color color = g.getColor();
+				g.setColor( StyleConstants.getBackground( attributes ) );
+				g.fillRect( bounds.x , bounds.y , bounds.width , bounds.height );
+				g.setColor( color );
+			}
+			super.paint( g , a );
+		}
+	}
+
+	private DiffDocument() {
+	}
+
+	/**
+	 * Creates a document.
+	 *
+	 * @param pane pane to display
+	 * @param font font to display the text with
+	 * @param addedLineStyle paragraph attributes of rows displayed as {@link ChangeType#ADDED}
+	 * @param deletedLineStyle paragraph attributes of rows displayed as {@link ChangeType#DELETED}
+	 * @return document holding one paragraph per row of the pane
+	 */
+	public static DiffDocument create(Pane pane,Font font,AttributeSet addedLineStyle,AttributeSet deletedLineStyle)
+	{
+		final DiffDocument document = new DiffDocument();
+
+		// JTextPane applies its font to the default style of its document
+		final Style defaultStyle = document.getStyle( StyleContext.DEFAULT_STYLE );
+		StyleConstants.setFontFamily( defaultStyle , font.getFamily() );
+		StyleConstants.setFontSize( defaultStyle , font.getSize() );
+
+		final AttributeSet unchangedLineStyle = createParagraphStyle( SimpleAttributeSet.EMPTY , defaultStyle );
+		final AttributeSet addedParagraphStyle = createParagraphStyle( addedLineStyle , defaultStyle );
+		final AttributeSet deletedParagraphStyle = createParagraphStyle( deletedLineStyle , defaultStyle );
+
+		final TextFile text = pane.getText();
+		final String content = text.toString();
+		final int rows = pane.getRowCount();
+
+		// first spec describes the root element
+		final ElementSpec[] specs = new ElementSpec[ 1 + rows * 3 ];
+		specs[0] = new ElementSpec( document.getDefaultRootElement().getAttributes() , ElementSpec.StartTagType );
+		for ( int row = 0 , spec = 1 ; row < rows ; row++ )
+		{
+			// some JDKs copy the whole array passed to ElementSpec, so each row gets its own
+			final char[] chars;
+			final int line = pane.getLine( row );
+			if ( line == -1 ) {
+				chars = new char[] { '\n' };
+			}
+			else
+			{
+				final int lineStart = text.getLineStartOffset( line );
+				final int lineEnd = text.getLineEndOffset( line );
+				final boolean missingNewline = lineEnd == lineStart || content.charAt( lineEnd - 1 ) != '\n';
+				chars = new char[ lineEnd - lineStart + ( missingNewline ? 1 : 0 ) ];
+				content.getChars( lineStart , lineEnd , chars , 0 );
+				if ( missingNewline ) {
+					chars[ chars.length - 1 ] = '\n';
+				}
+			}
+
+			final AttributeSet style;
+			switch( pane.getRowType( row ) )
+			{
+			case ADDED:
+				style = addedParagraphStyle;
+				break;
+			case DELETED:
+				style = deletedParagraphStyle;
+				break;
+			default:
+				style = unchangedLineStyle;
+			}
+			specs[ spec++ ] = new ElementSpec( style , ElementSpec.StartTagType );
+			specs[ spec++ ] = new ElementSpec( SimpleAttributeSet.EMPTY , ElementSpec.ContentType , chars , 0 , chars.length );
+			specs[ spec++ ] = new ElementSpec( style , ElementSpec.EndTagType );
+		}
+		if ( rows > 0 ) {
+			document.create( specs );
+		}
+		return document;
+	}
+
+	private static AttributeSet createParagraphStyle(AttributeSet style,Style defaultStyle)
+	{
+		final SimpleAttributeSet result = new SimpleAttributeSet( style );
+		result.setResolveParent( defaultStyle );
+		return result;
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Computes line-based differences between two revisions of a file.
+ *
+ * <p>The edit list is computed directly from the two revisions' content,
+ * no unified diff is generated. The diff algorithm is taken from the repository's
+ * <code>diff.algorithm</code> setting, just like <code>git diff</code> does.</p>
+ *
+ * <p>If an {@link EditScriptStore} is used, edit scripts are looked up there before
+ * being computed and stored after being computed.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class DiffEngine
+{
+	private final DiffAlgorithm algorithm;
+	private final RawTextComparator comparator = RawTextComparator.DEFAULT;
+	private final EditScriptStore store;
+
+	public DiffEngine(Repository repository) {
+		this( repository , null );
+	}
+
+	/**
+	 * Create instance.
+	 *
+	 * @param repository
+	 * @param store store to use, may be <code>null</code>. Must have been created for the repository's diff algorithm,
+	 * see {@link #getConfiguredAlgorithm(Repository)}
+	 */
+	public DiffEngine(Repository repository,EditScriptStore store)
+	{
+		if (repository == null) {
+			throw new IllegalArgumentException("repository must not be NULL");
+		}
+		final SupportedAlgorithm type = getConfiguredAlgorithm( repository );
+		if ( store != null && store.getAlgorithm() != type ) {
+			throw new IllegalArgumentException("Store holds edit scripts created by "+store.getAlgorithm()+" but repository uses "+type);
+		}
+		this.algorithm = DiffAlgorithm.getAlgorithm( type );
+		this.store = store;
+	}
+
+	/**
+	 * Returns the diff algorithm configured for a repository.
+	 */
+	public static SupportedAlgorithm getConfiguredAlgorithm(Repository repository) 
+	{
+		return repository.getConfig().getEnum( ConfigConstants.CONFIG_DIFF_SECTION , null ,
+				ConfigConstants.CONFIG_KEY_ALGORITHM , SupportedAlgorithm.HISTOGRAM );
+	}
+
+	/**
+	 * Returns whether edit scripts get persisted in an {@link EditScriptStore}.
+	 */
+	public boolean hasStore() {
+		return store != null;
+	}
+
+	/**
+	 * Returns whether the {@link EditScriptStore} has an edit script for a pair of blobs.
+	 */
+	public boolean isStored(ObjectId previousBlob,ObjectId currentBlob) {
+		return store != null && store.contains( previousBlob , currentBlob );
+	}
+
+	/**
+	 * Computes the edits that turn one blob into another, using the {@link EditScriptStore} (if any).
+	 *
+	 * @param previousBlob
+	 * @param previous content of <code>previousBlob</code>
+	 * @param currentBlob
+	 * @param current content of <code>currentBlob</code>
+	 * @return
+	 * @see #diff(byte[], byte[])
+	 */
+	public EditList diff(ObjectId previousBlob,byte[] previous,ObjectId currentBlob,byte[] current)
+	{
+		if ( store == null ) {
+			return diff( previous , current );
+		}
+		EditList result = store.get( previousBlob , currentBlob );
+		if ( result == null ) 
+		{
+			result = diff( previous , current );
+			store.put( previousBlob , currentBlob , result );
+		}
+		return result;
+	}
+
+	/**
+	 * Computes the edits that turn one revision into another.
+	 *
+	 * @param previous
+	 * @param current
+	 * @return edits sorted ascending by line number, regions <code>A</code> refer to the previous
+	 * revision and regions <code>B</code> to the current one
+	 */
+	public EditList diff(byte[] previous,byte[] current) {
+		return diff( new RawText( previous ) , new RawText( current ) );
+	}
+
+	public EditList diff(RawText previous,RawText current) {
+		return algorithm.diff( comparator , previous , current );
+	}
+}
@@ -0,0 +1,293 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Computes side-by-side diffs of adjacent revisions in the background and stores them in a {@link DiffCache}.
+ *
+ * <p>Revisions are processed in order of their distance from the revision currently being displayed (the <i>focus</i>),
+ * so revisions next to the slider position are ready before the user gets there. Whenever the focus moves,
+ * the remaining work is re-prioritized around the new position.</p>
+ *
+ * <p>Side-by-side diffs are only created until the diffs around the focus fill three quarters of the cache's budget, creating
+ * more would only evict the ones that are most likely to be needed next. If the {@link DiffEngine} has an {@link EditScriptStore},
+ * the remaining revisions are still diffed so their edit scripts get persisted, but no side-by-side diffs are cached for them.</p>
+ *
+ * <p>Worker threads run at minimum priority so they don't compete with rendering the revision being displayed.
+ * Instances are thread-safe.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class DiffPrecomputer
+{
+	private final GitHelper gitHelper;
+	private final DiffEngine diffEngine;
+	private final DiffCache diffCache;
+	private final Thread[] workers;
+
+	// guarded by this
+
+	// blob IDs of all revisions, oldest first ; task #i is the diff of revisions i-1 and i
+	private ObjectId[] blobs = new ObjectId[0];
+	private int focus;
+	private boolean align;
+
+	// incremented whenever the revisions or the focus change
+	private long epoch;
+	// tasks handed out since the focus changed
+	private final BitSet scheduled = new BitSet();
+	// all tasks closer to the focus than this distance have been handed out
+	private int distance;
+	// memory used by the diffs of all finished tasks since the focus changed
+	private long bytesNearFocus;
+	private boolean stopped;
+
+	private long computed;
+
+	private static final class Task
+	{
+		public final long epoch;
+		public final ObjectId previousBlob;
+		public final ObjectId currentBlob;
+		public final boolean align;
+		// only compute the edit script, so it gets persisted
+		public final boolean scriptOnly;
+
+		public Task(long epoch, ObjectId previousBlob, ObjectId currentBlob, boolean align, boolean scriptOnly)
+		{
+			this.epoch = epoch;
+			this.previousBlob = previousBlob;
+			this.currentBlob = currentBlob;
+			this.align = align;
+			this.scriptOnly = scriptOnly;
+		}
+	}
+
+	/**
+	 * Create instance.
+	 *
+	 * @param gitHelper used to read blobs
+	 * @param diffEngine
+	 * @param diffCache cache to fill
+	 * @param threads number of worker threads
+	 */
+	public DiffPrecomputer(GitHelper gitHelper, DiffEngine diffEngine, DiffCache diffCache,int threads)
+	{
+		if ( gitHelper == null || diffEngine == null || diffCache == null ) {
+			throw new IllegalArgumentException("gitHelper, diffEngine and diffCache must not be NULL");
+		}
+		if ( threads < 1 ) {
+			throw new IllegalArgumentException("Need at least one thread");
+		}
+		this.gitHelper = gitHelper;
+		this.diffEngine = diffEngine;
+		this.diffCache = diffCache;
+		this.workers = new Thread[ threads ];
+		for ( int i = 0 ; i < threads ; i++ )
+		{
+			workers[i] = new Thread( "diff-precomputer-"+i )
+			{
+				@Override
+				public void run() 
+				{
+					try {
+						work();
+					} 
+					finally {
+						DiffPrecomputer.this.gitHelper.getSession().releaseThread();
+					}
+				}
+			};
+			workers[i].setDaemon( true );
+			workers[i].setPriority( Thread.MIN_PRIORITY );
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Sets the revisions to precompute diffs for.
+	 *
+	 * @param blobIds blob IDs of all revisions, oldest first (see {@link GitHelper.CommitList#getBlobIds()}). The array
+	 * must not be modified afterwards.
+	 */
+	public synchronized void setRevisions(ObjectId[] blobIds)
+	{
+		if ( blobIds == null ) {
+			throw new IllegalArgumentException("blob IDs must not be NULL");
+		}
+		this.blobs = blobIds;
+		this.focus = Math.min( focus , Math.max( 0 , blobIds.length - 1 ) );
+		reset();
+	}
+
+	/**
+	 * Re-prioritizes the remaining work around a revision.
+	 *
+	 * @param index index of the revision being displayed, oldest revision has index 0
+	 * @param align whether diffs are displayed in aligned mode
+	 */
+	public synchronized void setFocus(int index,boolean align)
+	{
+		if ( index != this.focus || align != this.align )
+		{
+			this.focus = index;
+			this.align = align;
+			reset();
+		}
+	}
+
+	private void reset()
+	{
+		epoch++;
+		scheduled.clear();
+		distance = 0;
+		bytesNearFocus = 0;
+		notifyAll();
+	}
+
+	/**
+	 * Stops all worker threads and waits for them to finish the diff they are working on.
+	 */
+	public void shutdown()
+	{
+		synchronized( this ) 
+		{
+			stopped = true;
+			notifyAll();
+		}
+		try 
+		{
+			for ( Thread worker : workers ) {
+				worker.join();
+			}
+		} 
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the number of diffs computed so far.
+	 */
+	public synchronized long getComputedCount() {
+		return computed;
+	}
+
+	private void work()
+	{
+		Task task;
+		while ( ( task = nextTask() ) != null )
+		{
+			try
+			{
+				SideBySideDiff diff = diffCache.peek( task.previousBlob , task.currentBlob , task.align );
+				boolean created = false;
+				if ( diff == null && ( gitHelper.isLargeBlob( task.previousBlob ) || gitHelper.isLargeBlob( task.currentBlob ) ) ) {
+					finished( task , 0 , false ); // not diffed, see GitHelper#LARGE_BLOB_BYTES
+					continue;
+				}
+				if ( task.scriptOnly )
+				{
+					if ( diff == null && ! diffEngine.isStored( task.previousBlob , task.currentBlob ) ) 
+					{
+						diffEngine.diff( task.previousBlob , gitHelper.readBlob( task.previousBlob ) , task.currentBlob , gitHelper.readBlob( task.currentBlob ) );
+						created = true;
+					}
+					finished( task , 0 , created );
+					continue;
+				}
+				if ( diff == null )
+				{
+					final byte[] previousFile = gitHelper.readBlob( task.previousBlob );
+					final byte[] currentFile = gitHelper.readBlob( task.currentBlob );
+					final EditList edits = diffEngine.diff( task.previousBlob , previousFile , task.currentBlob , currentFile );
+					diff = SideBySideDiff.create( previousFile , currentFile , edits , task.align );
+					diffCache.put( task.previousBlob , task.currentBlob , task.align , diff );
+					created = true;
+				}
+				finished( task , diff.getMemoryUsage() , created );
+			}
+			catch (IOException | RuntimeException e)
+			{
+				System.err.println("Failed to precompute diff of "+task.previousBlob.getName()+" and "+task.currentBlob.getName()+": "+e.getMessage());
+				if ( Main.DEBUG_MODE ) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private synchronized void finished(Task task,long bytes,boolean created)
+	{
+		if ( created ) {
+			computed++;
+		}
+		if ( task.epoch == epoch ) {
+			bytesNearFocus += bytes;
+		}
+	}
+
+	/*
+	 * Blocks until there is work to do, returns NULL once stopped.
+	 */
+	private synchronized Task nextTask()
+	{
+		while ( ! stopped )
+		{
+			final boolean budgetUsed = bytesNearFocus >= diffCache.getMaxBytes() / 4 * 3;
+			if ( ! budgetUsed || diffEngine.hasStore() )
+			{
+				final int maxDistance = Math.max( focus , blobs.length - 1 - focus );
+				for ( ; distance <= maxDistance ; distance++ )
+				{
+					if ( schedule( focus + distance ) ) {
+						return createTask( focus + distance , budgetUsed );
+					}
+					if ( schedule( focus - distance ) ) {
+						return createTask( focus - distance , budgetUsed );
+					}
+				}
+			}
+			try {
+				wait();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+		return null;
+	}
+
+	private boolean schedule(int index)
+	{
+		if ( index < 1 || index >= blobs.length || scheduled.get( index ) ) {
+			return false;
+		}
+		scheduled.set( index );
+		return true;
+	}
+
+	private Task createTask(int index,boolean scriptOnly) {
+		return new Task( epoch , blobs[ index - 1 ] , blobs[ index ] , align , scriptOnly );
+	}
+}
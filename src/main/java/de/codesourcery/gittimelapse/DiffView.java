@@ -0,0 +1,339 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.Toolkit;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+import javax.swing.AbstractAction;
+import javax.swing.JComponent;
+import javax.swing.JViewport;
+import javax.swing.KeyStroke;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+
+import de.codesourcery.gittimelapse.SideBySideDiff.Pane;
+import de.codesourcery.gittimelapse.TextFile.ChangeType;
+
+/**
+ * Read-only view of one side of a diff that only paints the visible rows.
+ *
+ * <p>Unlike a {@link javax.swing.JTextPane}, this view does not need a document holding the whole text, rows are
+ * read from the {@link Pane}'s line index while painting. Padding rows are painted as an empty row with the background
+ * color of the change type they stand for. Meant to be used inside a {@link javax.swing.JScrollPane},
+ * {@link #getLineNumbers()} provides a matching row header.</p>
+ *
+ * <p>Can also display a {@link LargeBlob} (one row per line, without changes), paging its lines in from the
+ * scratch file while painting.</p>
+ *
+ * <p>Text can be selected with the mouse in whole rows and copied to the clipboard.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class DiffView extends JComponent implements Scrollable
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final int TEXT_MARGIN = 2;
+
+	private final Color addedColor;
+	private final Color deletedColor;
+	private final Color selectionColor = new Color( 184 , 207 , 229 );
+
+	private final LineNumberGutter lineNumbers = new LineNumberGutter( this , 3 );
+
+	private Pane pane;
+	private LargeBlob largeBlob;
+	// in columns, width of the widest line with tabs expanded
+	private int preferredWidth;
+
+	// selected rows are [ min(selectionAnchor,selectionLead) , max(selectionAnchor,selectionLead) ] , -1 if nothing is selected
+	private int selectionAnchor = -1;
+	private int selectionLead = -1;
+
+	public DiffView(Color addedColor,Color deletedColor)
+	{
+		this.addedColor = addedColor;
+		this.deletedColor = deletedColor;
+		setOpaque( true );
+		setBackground( Color.WHITE );
+		setForeground( Color.BLACK );
+		setFocusable( true );
+
+		final MouseAdapter mouseListener = new MouseAdapter()
+		{
+			@Override
+			public void mousePressed(MouseEvent e)
+			{
+				requestFocusInWindow();
+				final int row = getRowAt( e.getY() );
+				if ( ! e.isShiftDown() || selectionAnchor == -1 ) {
+					selectionAnchor = row;
+				}
+				selectionLead = row;
+				repaint();
+			}
+
+			@Override
+			public void mouseDragged(MouseEvent e)
+			{
+				selectionLead = getRowAt( e.getY() );
+				scrollRectToVisible( new Rectangle( e.getX() , e.getY() , 1 , 1 ) );
+				repaint();
+			}
+		};
+		addMouseListener( mouseListener );
+		addMouseMotionListener( mouseListener );
+
+		// getMenuShortcutKeyMaskEx() replacing it needs Java 10, this project targets Java 7
+		@SuppressWarnings("deprecation")
+		final int shortcutMask = Toolkit.getDefaultToolkit().getMenuShortcutKeyMask();
+		getInputMap().put( KeyStroke.getKeyStroke( KeyEvent.VK_C , shortcutMask ) , "copy" );
+		getInputMap().put( KeyStroke.getKeyStroke( KeyEvent.VK_INSERT , InputEvent.CTRL_DOWN_MASK ) , "copy" );
+		getActionMap().put( "copy" , new AbstractAction()
+		{
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				copySelection();
+			}
+		});
+	}
+
+	/**
+	 * Displays a pane.
+	 *
+	 * @param pane pane to display, <code>null</code> clears this view
+	 */
+	public void setPane(Pane pane)
+	{
+		this.pane = pane;
+		this.largeBlob = null;
+		this.preferredWidth = pane != null ? pane.getText().getMaxColumns() : 0;
+		selectionAnchor = selectionLead = -1;
+		revalidate();
+		repaint();
+		lineNumbers.setPane( pane );
+	}
+
+	/**
+	 * Displays a large blob.
+	 *
+	 * @param blob blob to display, <code>null</code> clears this view
+	 */
+	public void setLargeBlob(LargeBlob blob)
+	{
+		this.pane = null;
+		this.largeBlob = blob;
+		this.preferredWidth = blob != null ? blob.getMaxColumns() : 0;
+		selectionAnchor = selectionLead = -1;
+		revalidate();
+		repaint();
+		lineNumbers.setLineCount( blob != null ? blob.getLineCount() : 0 );
+	}
+
+	public Pane getPane() {
+		return pane;
+	}
+
+	public LargeBlob getLargeBlob() {
+		return largeBlob;
+	}
+
+	/**
+	 * Returns the number of rows.
+	 */
+	public int getRowCount() {
+		return pane != null ? pane.getRowCount() : largeBlob != null ? largeBlob.getLineCount() : 0;
+	}
+
+	/*
+	 * Returns the text of a row, NULL for padding rows.
+	 */
+	private String getRowText(int row)
+	{
+		if ( largeBlob != null ) {
+			return largeBlob.getLine( row );
+		}
+		final int line = pane.getLine( row );
+		return line != -1 ? pane.getText().getLine( line ) : null;
+	}
+
+	public LineNumberGutter getLineNumbers() {
+		return lineNumbers;
+	}
+
+	public int getRowHeight() {
+		return getFontMetrics( getFont() ).getHeight();
+	}
+
+	/**
+	 * Returns the row at a vertical position.
+	 *
+	 * @param y
+	 * @return row, clamped to the valid range
+	 */
+	public int getRowAt(int y)
+	{
+		return Math.max( 0 , Math.min( getRowCount() - 1 , y / getRowHeight() ) );
+	}
+
+	/**
+	 * Returns the first (partially) visible row.
+	 */
+	public int getFirstVisibleRow() {
+		return getRowAt( getVisibleRect().y );
+	}
+
+	public void scrollRowToVisible(int row)
+	{
+		final int rowHeight = getRowHeight();
+		scrollRectToVisible( new Rectangle( 0 , row * rowHeight , 1 , rowHeight ) );
+	}
+
+	/**
+	 * Copies the text of all selected rows to the system clipboard, padding rows are skipped.
+	 */
+	public void copySelection()
+	{
+		if ( getRowCount() == 0 || selectionAnchor == -1 ) {
+			return;
+		}
+		final StringBuilder builder = new StringBuilder();
+		final int last = Math.max( selectionAnchor , selectionLead );
+		for ( int row = Math.min( selectionAnchor , selectionLead ) ; row <= last ; row++ )
+		{
+			final String text = getRowText( row );
+			if ( text != null ) {
+				builder.append( text ).append( '\n' );
+			}
+		}
+		final StringSelection selection = new StringSelection( builder.toString() );
+		Toolkit.getDefaultToolkit().getSystemClipboard().setContents( selection , selection );
+	}
+
+	@Override
+	public Dimension getPreferredSize()
+	{
+		final FontMetrics metrics = getFontMetrics( getFont() );
+		final int rows = getRowCount();
+		return new Dimension( 2 * TEXT_MARGIN + preferredWidth * metrics.charWidth( 'm' ) , rows * metrics.getHeight() );
+	}
+
+	@Override
+	protected void paintComponent(Graphics g)
+	{
+		final Rectangle clip = g.getClipBounds();
+		g.setColor( getBackground() );
+		g.fillRect( clip.x , clip.y , clip.width , clip.height );
+		final int rows = getRowCount();
+		if ( rows == 0 ) {
+			return;
+		}
+
+		g.setFont( getFont() );
+		final FontMetrics metrics = g.getFontMetrics();
+		final int rowHeight = metrics.getHeight();
+		final int selectionStart = Math.min( selectionAnchor , selectionLead );
+		final int selectionEnd = Math.max( selectionAnchor , selectionLead );
+		final int lastRow = Math.min( rows - 1 , ( clip.y + clip.height ) / rowHeight );
+		for ( int row = Math.max( 0 , clip.y / rowHeight ) ; row <= lastRow ; row++ )
+		{
+			final int y = row * rowHeight;
+			final Color background;
+			if ( selectionAnchor != -1 && row >= selectionStart && row <= selectionEnd ) {
+				background = selectionColor;
+			} else {
+				final ChangeType type = pane != null ? pane.getRowType( row ) : ChangeType.NO_CHANGE;
+				background = type == ChangeType.ADDED ? addedColor : type == ChangeType.DELETED ? deletedColor : null;
+			}
+			if ( background != null ) {
+				g.setColor( background );
+				g.fillRect( clip.x , y , clip.width , rowHeight );
+			}
+
+			final String rowText = getRowText( row );
+			if ( rowText != null )
+			{
+				final String text = expandTabs( rowText );
+				g.setColor( getForeground() );
+				g.drawString( text , TEXT_MARGIN , y + metrics.getAscent() );
+			}
+		}
+	}
+
+	private static String expandTabs(String line)
+	{
+		if ( line.indexOf( '\t' ) == -1 ) {
+			return line;
+		}
+		final StringBuilder result = new StringBuilder( line.length() + 16 );
+		for ( int i = 0 ; i < line.length() ; i++ )
+		{
+			final char c = line.charAt( i );
+			if ( c == '\t' ) {
+				do {
+					result.append( ' ' );
+				} while ( result.length() % TextFile.TAB_SIZE != 0 );
+			} else {
+				result.append( c );
+			}
+		}
+		return result.toString();
+	}
+
+	@Override
+	public Dimension getPreferredScrollableViewportSize() {
+		return getPreferredSize();
+	}
+
+	@Override
+	public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction)
+	{
+		if ( orientation == SwingConstants.VERTICAL ) {
+			return getRowHeight();
+		}
+		return getFontMetrics( getFont() ).charWidth( 'm' );
+	}
+
+	@Override
+	public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction)
+	{
+		if ( orientation == SwingConstants.VERTICAL ) {
+			return Math.max( getRowHeight() , visibleRect.height - getRowHeight() );
+		}
+		return visibleRect.width;
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportWidth() {
+		return getParent() instanceof JViewport && getParent().getWidth() > getPreferredSize().width;
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportHeight() {
+		return getParent() instanceof JViewport && getParent().getHeight() > getPreferredSize().height;
+	}
+}
@@ -0,0 +1,554 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Persistent store of edit scripts, keyed by the blob IDs of both revisions.
+ *
+ * <p>Edit scripts are appended to a log file in <code>.git/git-timelapse</code> (one file per diff algorithm), so
+ * they survive restarts and are shared by all files that have the same pair of blobs in their history.
+ * Each edit is stored as four varints, line numbers are delta-encoded relative to the preceding edit.
+ * The file is memory-mapped for reading.</p>
+ *
+ * <p>Every entry carries a CRC32 checksum that is verified when the store is opened and when the entry is read,
+ * corrupted entries are skipped and the edit script gets recomputed and appended again. A file with an unknown format
+ * version is discarded, an incomplete entry at its end (e.g. after a crash) is cut off when the store is opened. An entry whose
+ * blob IDs don't match the ones it was looked up by is treated as corrupted as well. Several processes may append to the
+ * same file, appends are serialized through a file lock.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class EditScriptStore
+{
+	public static final long DEFAULT_MAX_BYTES = 256 * 1024 * 1024;
+
+	private static final int MAGIC = 0x47544c45; // 'GTLE'
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 8;
+	// int payload length , 20 bytes previous blob , 20 bytes current blob
+	private static final int ENTRY_HEADER_SIZE = 4 + 2 * Constants.OBJECT_ID_LENGTH;
+	// int CRC32 of everything before it
+	private static final int ENTRY_TRAILER_SIZE = 4;
+
+	private final File file;
+	private final SupportedAlgorithm algorithm;
+
+	// guarded by this
+	private long maxBytes = DEFAULT_MAX_BYTES;
+	private boolean opened;
+	private boolean failed;
+	private boolean closed;
+	private FileChannel channel;
+	private MappedByteBuffer mapped;
+	private final Map<Key,Long> index = new HashMap<>();
+	private final byte[] crcBuffer = new byte[ 8192 ];
+
+	private long hits;
+	private long misses;
+	private long writes;
+	private long corrupted;
+
+	private static final class Key
+	{
+		private final ObjectId previousBlob;
+		private final ObjectId currentBlob;
+
+		public Key(AnyObjectId previousBlob, AnyObjectId currentBlob)
+		{
+			this.previousBlob = previousBlob.copy();
+			this.currentBlob = currentBlob.copy();
+		}
+
+		@Override
+		public int hashCode() {
+			return previousBlob.hashCode() * 31 + currentBlob.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if ( ! ( obj instanceof Key ) ) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return previousBlob.equals( other.previousBlob ) && currentBlob.equals( other.currentBlob );
+		}
+	}
+
+	/**
+	 * Create instance.
+	 *
+	 * @param repository repository whose <code>.git</code> directory holds the store
+	 * @param algorithm diff algorithm the stored edit scripts were computed with
+	 */
+	public EditScriptStore(Repository repository,SupportedAlgorithm algorithm)
+	{
+		if (repository == null) {
+			throw new IllegalArgumentException("repository must not be NULL");
+		}
+		if (algorithm == null) {
+			throw new IllegalArgumentException("algorithm must not be NULL");
+		}
+		this.algorithm = algorithm;
+		final File dir = new File( repository.getDirectory() , "git-timelapse" );
+		this.file = new File( dir , "edit-scripts-"+algorithm.name().toLowerCase( Locale.ROOT ) );
+	}
+
+	public SupportedAlgorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * Sets the maximum size of the store, no more edit scripts are added once it is reached.
+	 *
+	 * <p>A file exceeding this size is discarded when the store is opened.</p>
+	 */
+	public synchronized void setMaxBytes(long maxBytes)
+	{
+		if ( maxBytes < HEADER_SIZE || maxBytes > Integer.MAX_VALUE ) {
+			throw new IllegalArgumentException("Maximum size must be in range "+HEADER_SIZE+" ... "+Integer.MAX_VALUE);
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Looks up an edit script.
+	 *
+	 * @param previousBlob
+	 * @param currentBlob
+	 * @return edits as returned by {@link DiffEngine#diff(byte[], byte[])} or <code>null</code> if the
+	 * store has no (valid) entry for this pair of blobs
+	 */
+	public synchronized EditList get(AnyObjectId previousBlob,AnyObjectId currentBlob)
+	{
+		if ( ! open() ) {
+			return null;
+		}
+		final Key key = new Key( previousBlob , currentBlob );
+		final Long offset = index.get( key );
+		if ( offset == null ) {
+			misses++;
+			return null;
+		}
+		try
+		{
+			final EditList result = read( offset , key );
+			if ( result != null ) {
+				hits++;
+				return result;
+			}
+		}
+		catch(IOException e) {
+			fail( e );
+			return null;
+		}
+		System.err.println("Edit script store "+file+": Dropping corrupted entry at offset "+offset);
+		index.remove( key );
+		corrupted++;
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Returns whether the store has an entry for a pair of blobs, without checking that it is valid.
+	 */
+	public synchronized boolean contains(AnyObjectId previousBlob,AnyObjectId currentBlob) {
+		return open() && index.containsKey( new Key( previousBlob , currentBlob ) );
+	}
+
+	/**
+	 * Adds an edit script, unless the store already has one for this pair of blobs.
+	 *
+	 * @param previousBlob
+	 * @param currentBlob
+	 * @param edits
+	 */
+	public synchronized void put(AnyObjectId previousBlob,AnyObjectId currentBlob,EditList edits)
+	{
+		if ( ! open() ) {
+			return;
+		}
+		final Key key = new Key( previousBlob , currentBlob );
+		if ( index.containsKey( key ) ) {
+			return;
+		}
+
+		final ByteBuffer entry = encode( key , edits );
+		try
+		{
+			final FileLock lock = channel.lock();
+			try
+			{
+				// other processes may have appended entries as well
+				final long offset = channel.size();
+				if ( offset + entry.remaining() > maxBytes ) {
+					return;
+				}
+				while ( entry.hasRemaining() ) {
+					channel.write( entry , offset + entry.position() );
+				}
+				index.put( key , offset );
+				writes++;
+			}
+			finally {
+				lock.release();
+			}
+		}
+		catch(IOException e) {
+			fail( e );
+		}
+	}
+
+	private boolean open()
+	{
+		if ( closed ) {
+			return false;
+		}
+		if ( opened || failed ) {
+			return ! failed;
+		}
+		opened = true;
+		try
+		{
+			file.getParentFile().mkdirs();
+			channel = new RandomAccessFile( file , "rw" ).getChannel();
+			final FileLock lock = channel.lock();
+			try
+			{
+				final long size = channel.size();
+				if ( size > maxBytes ) {
+					reset( "exceeds maximum size" );
+				} else if ( size < HEADER_SIZE ) {
+					reset( null );
+				} else if ( ! checkHeader() ) {
+					reset( "has unsupported format" );
+				} else {
+					loadIndex();
+				}
+			}
+			finally {
+				lock.release();
+			}
+			return true;
+		}
+		catch(IOException e)
+		{
+			fail( e );
+			return false;
+		}
+	}
+
+	private boolean checkHeader() throws IOException
+	{
+		final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+		while ( header.hasRemaining() && channel.read( header , header.position() ) != -1 ) {
+		}
+		header.flip();
+		return header.remaining() == HEADER_SIZE && header.getInt() == MAGIC && header.getInt() == VERSION;
+	}
+
+	private void reset(String reason) throws IOException
+	{
+		if ( reason != null ) {
+			System.err.println("Edit script store "+file+" "+reason+", discarding it");
+		}
+		index.clear();
+		channel.truncate( 0 );
+		final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+		header.putInt( MAGIC ).putInt( VERSION ).flip();
+		while ( header.hasRemaining() ) {
+			channel.write( header , header.position() );
+		}
+		mapped = null;
+	}
+
+	/*
+	 * Builds the index from all entries with a valid checksum. Corrupted entries are skipped, entries following them
+	 * are found by searching for the next valid one. Needs to hold the file lock.
+	 */
+	private void loadIndex() throws IOException
+	{
+		remap();
+		final int size = mapped.limit();
+		final byte[] id = new byte[ Constants.OBJECT_ID_LENGTH ];
+		// end of the last valid entry
+		int end = HEADER_SIZE;
+		int offset = HEADER_SIZE;
+		while ( offset + ENTRY_HEADER_SIZE + ENTRY_TRAILER_SIZE <= size )
+		{
+			final int entryLength = getValidEntryLength( offset , size );
+			if ( entryLength == -1 ) 
+			{
+				offset++;
+				continue;
+			}
+			if ( offset != end ) 
+			{
+				System.err.println("Edit script store "+file+": Skipping "+(offset-end)+" corrupted bytes at offset "+end);
+				corrupted++;
+			}
+			mapped.position( offset + 4 );
+			mapped.get( id );
+			final ObjectId previousBlob = ObjectId.fromRaw( id );
+			mapped.get( id );
+			final ObjectId currentBlob = ObjectId.fromRaw( id );
+			index.put( new Key( previousBlob , currentBlob ) , (long) offset );
+			offset += entryLength;
+			end = offset;
+		}
+
+		if ( end != size )
+		{
+			// no valid entry follows, most likely an incomplete entry written by a process that died
+			System.err.println("Edit script store "+file+": Discarding "+(size-end)+" bytes of incomplete or corrupted entries at offset "+end);
+			channel.truncate( end );
+			remap();
+		}
+		if ( Main.DEBUG_MODE ) {
+			System.out.println("Edit script store "+file+": "+index.size()+" entries, "+(end/1024)+" KB");
+		}
+	}
+
+	/*
+	 * Returns the length of the entry at an offset or -1 if there is no entry with a valid checksum.
+	 */
+	private int getValidEntryLength(int offset,int size)
+	{
+		final int payloadLength = mapped.getInt( offset );
+		if ( payloadLength < 1 || payloadLength > size - offset - ENTRY_HEADER_SIZE - ENTRY_TRAILER_SIZE ) {
+			return -1;
+		}
+
+		// cheap plausibility check first, so searching through corrupted bytes doesn't checksum most of the file over and over
+		final int payloadStart = offset + ENTRY_HEADER_SIZE;
+		int edits = 0;
+		int countLength = 0;
+		byte b;
+		do {
+			if ( countLength == 5 || countLength == payloadLength ) {
+				return -1;
+			}
+			b = mapped.get( payloadStart + countLength );
+			edits |= ( b & 0x7f ) << ( 7 * countLength++ );
+		} while ( ( b & 0x80 ) != 0 );
+		final long editBytes = payloadLength - countLength;
+		if ( edits < 0 || editBytes < 4L * edits || editBytes > 20L * edits ) {
+			return -1;
+		}
+
+		final int checksummedLength = ENTRY_HEADER_SIZE + payloadLength;
+		final CRC32 crc = new CRC32();
+		final ByteBuffer buffer = mapped.duplicate();
+		buffer.position( offset );
+		for ( int remaining = checksummedLength ; remaining > 0 ; )
+		{
+			final int len = Math.min( remaining , crcBuffer.length );
+			buffer.get( crcBuffer , 0 , len );
+			crc.update( crcBuffer , 0 , len );
+			remaining -= len;
+		}
+		return (int) crc.getValue() == mapped.getInt( offset + checksummedLength ) ? checksummedLength + ENTRY_TRAILER_SIZE : -1;
+	}
+
+	private static boolean hasValidChecksum(byte[] entry)
+	{
+		final CRC32 crc = new CRC32();
+		crc.update( entry , 0 , entry.length - ENTRY_TRAILER_SIZE );
+		return (int) crc.getValue() == ByteBuffer.wrap( entry , entry.length - ENTRY_TRAILER_SIZE , ENTRY_TRAILER_SIZE ).getInt();
+	}
+
+	private void remap() throws IOException {
+		mapped = channel.map( FileChannel.MapMode.READ_ONLY , 0 , channel.size() );
+	}
+
+	/*
+	 * Returns NULL if the entry is corrupted or belongs to other blobs.
+	 */
+	private EditList read(long offset,Key key) throws IOException
+	{
+		if ( mapped == null || offset + ENTRY_HEADER_SIZE > mapped.limit() ) {
+			remap(); // entry was appended after the file got mapped
+		}
+		if ( offset + ENTRY_HEADER_SIZE > mapped.limit() ) {
+			return null;
+		}
+		final int payloadLength = mapped.getInt( (int) offset );
+		final int entryLength = ENTRY_HEADER_SIZE + payloadLength + ENTRY_TRAILER_SIZE;
+		if ( payloadLength < 0 || offset + entryLength > mapped.limit() ) {
+			return null;
+		}
+		final byte[] entry = new byte[ entryLength ];
+		final ByteBuffer buffer = mapped.duplicate();
+		buffer.position( (int) offset );
+		buffer.get( entry );
+
+		if ( ! hasValidChecksum( entry ) || ! key.previousBlob.equals( ObjectId.fromRaw( entry , 4 ) ) ||
+				! key.currentBlob.equals( ObjectId.fromRaw( entry , 4 + Constants.OBJECT_ID_LENGTH ) ) ) 
+		{
+			return null;
+		}
+		return decode( entry , ENTRY_HEADER_SIZE , ENTRY_HEADER_SIZE + payloadLength );
+	}
+
+	/*
+	 * Entry format:
+	 *
+	 * int payload length
+	 * 20 bytes previous blob ID
+	 * 20 bytes current blob ID
+	 * -- payload --
+	 * varint edit count
+	 * per edit: varint beginA - endA of previous edit , varint lengthA , varint beginB - endB of previous edit , varint lengthB
+	 * -- end of payload --
+	 * int CRC32 of everything above
+	 */
+	private static ByteBuffer encode(Key key,EditList edits)
+	{
+		byte[] data = new byte[ ENTRY_HEADER_SIZE + 5 + edits.size() * 4 * 5 + ENTRY_TRAILER_SIZE ];
+		key.previousBlob.copyRawTo( data , 4 );
+		key.currentBlob.copyRawTo( data , 4 + Constants.OBJECT_ID_LENGTH );
+
+		int offset = writeVarInt( edits.size() , data , ENTRY_HEADER_SIZE );
+		int endA = 0;
+		int endB = 0;
+		for ( Edit edit : edits )
+		{
+			offset = writeVarInt( edit.getBeginA() - endA , data , offset );
+			offset = writeVarInt( edit.getLengthA() , data , offset );
+			offset = writeVarInt( edit.getBeginB() - endB , data , offset );
+			offset = writeVarInt( edit.getLengthB() , data , offset );
+			endA = edit.getEndA();
+			endB = edit.getEndB();
+		}
+		data = Arrays.copyOf( data , offset + ENTRY_TRAILER_SIZE );
+
+		final ByteBuffer buffer = ByteBuffer.wrap( data );
+		buffer.putInt( 0 , offset - ENTRY_HEADER_SIZE );
+		final CRC32 crc = new CRC32();
+		crc.update( data , 0 , offset );
+		buffer.putInt( offset , (int) crc.getValue() );
+		return buffer;
+	}
+
+	private static EditList decode(byte[] data,int offset,int end)
+	{
+		final int[] value = new int[1];
+		offset = readVarInt( data , offset , value );
+		final int count = value[0];
+		final EditList result = new EditList( count );
+		int endA = 0;
+		int endB = 0;
+		for ( int i = 0 ; i < count ; i++ )
+		{
+			offset = readVarInt( data , offset , value );
+			final int beginA = endA + value[0];
+			offset = readVarInt( data , offset , value );
+			endA = beginA + value[0];
+			offset = readVarInt( data , offset , value );
+			final int beginB = endB + value[0];
+			offset = readVarInt( data , offset , value );
+			endB = beginB + value[0];
+			result.add( new Edit( beginA , endA , beginB , endB ) );
+		}
+		return offset == end ? result : null;
+	}
+
+	private static int writeVarInt(int value,byte[] data,int offset)
+	{
+		while ( ( value & ~0x7f ) != 0 )
+		{
+			data[ offset++ ] = (byte) ( ( value & 0x7f ) | 0x80 );
+			value >>>= 7;
+		}
+		data[ offset++ ] = (byte) value;
+		return offset;
+	}
+
+	private static int readVarInt(byte[] data,int offset,int[] result)
+	{
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = data[ offset++ ];
+			value |= ( b & 0x7f ) << shift;
+			shift += 7;
+		} while ( ( b & 0x80 ) != 0 );
+		result[0] = value;
+		return offset;
+	}
+
+	/**
+	 * Closes the store's file. The store behaves like an empty one that doesn't accept new entries afterwards.
+	 */
+	public synchronized void close() 
+	{
+		closed = true;
+		release();
+	}
+
+	private void fail(IOException e)
+	{
+		System.err.println("Edit script store "+file+" failed, disabling it: "+e.getMessage());
+		failed = true;
+		release();
+	}
+
+	private void release()
+	{
+		index.clear();
+		mapped = null;
+		if ( channel != null )
+		{
+			try {
+				channel.close();
+			}
+			catch(IOException e) {
+				System.err.println("Failed to close edit script store "+file+": "+e.getMessage());
+			}
+			channel = null;
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return index.size()+" entries , "+hits+" hits , "+misses+" misses , "+writes+" writes , "+corrupted+" corrupted";
+	}
+}
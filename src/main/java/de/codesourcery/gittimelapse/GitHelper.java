@@ -15,41 +15,43 @@
  */
 package de.codesourcery.gittimelapse;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
 
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.diff.DiffEntry;
-import org.eclipse.jgit.diff.DiffEntry.ChangeType;
 import org.eclipse.jgit.diff.DiffFormatter;
-import org.eclipse.jgit.diff.RawTextComparator;
 import org.eclipse.jgit.errors.AmbiguousObjectException;
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.RevisionSyntaxException;
-import org.eclipse.jgit.errors.StopWalkException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
-import org.eclipse.jgit.treewalk.CanonicalTreeParser;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
-import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
-import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
-import de.codesourcery.gittimelapse.PathModel.PathChangeModel;
 
 /**
  * Some helper methods to make dealing with GIT plumbing easier.
@@ -59,13 +61,67 @@ import de.codesourcery.gittimelapse.PathModel.PathChangeModel;
 public class GitHelper 
 {
 	private final Repository repository;
+	private final RepositorySession session;
 	private final File gitDir;
 	private final File repoBaseDir;
 	private final File currentWorkingDir;
+
+	/**
+	 * Number of commits a {@link PathCheckTask} checks on the calling thread
+	 * instead of splitting the work any further.
+	 */
+	private static final int PARALLEL_SCAN_LEAF_SIZE = 64;
+
+	/**
+	 * Max. number of commits enumerated by the parallel history scan before
+	 * they are handed to the fork/join pool.
+	 */
+	private static final int PARALLEL_SCAN_MAX_CHUNK_SIZE = 8192;
+
+	/**
+	 * Blobs larger than this should not be loaded into memory as a whole, see {@link #openLargeBlob(ObjectId)}.
+	 */
+	public static final long LARGE_BLOB_BYTES = 16 * 1024 * 1024;
+
+	private volatile int scanThreads = Runtime.getRuntime().availableProcessors();
+
+	// guarded by this
+	private CommitGraph commitGraph;
+
+	private final BlobCache blobCache;
+
+	private volatile boolean preloadRevisions;
+
+	// NULL unless enabled through setUsePathIndex(boolean)
+	private volatile PathIndex pathIndex;
+
+	// NULL unless enabled through setUseEditScriptStore(boolean)
+	private volatile EditScriptStore editScriptStore;
 	
+	/**
+	 * Number of milliseconds after which commits found by {@link #findCommits(File, IProgressCallback)}
+	 * are passed to the {@link IProgressCallback}, even if the batch is not full yet.
+	 */
+	private static final long BATCH_INTERVAL_MILLIS = 250;
+
+	/**
+	 * Max. number of commits per batch passed to the {@link IProgressCallback}.
+	 */
+	private static final int MAX_BATCH_SIZE = 1000;
+
 	public interface IProgressCallback 
 	{
-		public void foundCommit(ObjectId commitId);
+		/**
+		 * Invoked by the thread running {@link GitHelper#findCommits(File, IProgressCallback)} 
+		 * each time a batch of commits that changed the file has been found.
+		 * 
+		 * <p>Since history is scanned backwards, all commits in a batch 
+		 * are older than the commits passed in previous batches.</p>
+		 * 
+		 * @param batch newly found commits, never empty
+		 * @see CommitList#addOlder(CommitList)
+		 */
+		public void foundCommits(CommitList batch);
 	}
 
 	public interface ICommitVisitor 
@@ -73,13 +129,42 @@ public class GitHelper
 		public boolean visit(RevCommit commit) throws IOException;
 	}
 
-	public interface ITreeVisitor {
-		public boolean visit(TreeWalk walker) throws IOException;
-	}
-
+	/**
+	 * Commits that changed a file, in chronological order (oldest commit has index 0).
+	 * 
+	 * <p>Commit and blob IDs are stored as five consecutive <code>int</code>s each, all other
+	 * data in parallel arrays. An open-addressing hash table maps commit IDs to indices.</p>
+	 * 
+	 * <p>Metadata needed to display a commit is captured while scanning the history so it can be displayed
+	 * without reading the commit again. Author and committer strings are shared between commits.</p>
+	 * 
+	 * <p>Instances are not thread-safe.</p>
+	 */
 	public final class CommitList implements Iterable<ObjectId>
 	{
-		private final List<ObjectId> commits = new ArrayList<>();
+		private static final int ID_WORDS = 5;
+
+		// all arrays are sorted newest commit first so that 
+		// older commits can be appended cheaply while the history is still being scanned
+		private int size;
+		private int[] commits = new int[ 16 * ID_WORDS ];
+		
+		// blob ID, raw file mode and size of the file in each commit,
+		// blob ID is ObjectId#zeroId() and mode is 0 if the commit deleted the file 
+		private int[] blobs = new int[ 16 * ID_WORDS ];
+		private int[] fileModes = new int[ 16 ];
+		private long[] fileSizes = new long[ 16 ];
+		// commit times in seconds since the epoch
+		private int[] commitTimes = new int[ 16 ];
+		// author and committer email addresses, first line of the commit message
+		private String[] authors = new String[ 16 ];
+		private String[] committers = new String[ 16 ];
+		private String[] messages = new String[ 16 ];
+
+		// open-addressing hash table mapping commit IDs to (array index+1), 0 marks an empty slot
+		private int[] idTable = new int[ 32 ];
+
+		private final int[] lookupWords = new int[ ID_WORDS ];
 
 		private final File file;
 
@@ -90,63 +175,168 @@ public class GitHelper
 			this.file=file;
 		}
 
+		/**
+		 * Returns the index of a commit.
+		 * 
+		 * @param current
+		 * @return index (oldest commit has index 0) or -1 if the commit is not part of this list
+		 */
 		public int indexOf(ObjectId current) 
 		{
 			if (current == null) {
 				throw new IllegalArgumentException("commit must not be NULL");
 			}
-			final int size = commits.size();
-			for ( int i = 0 ; i < size ; i++ ) {
-				if ( current.equals( commits.get(i) ) ) {
-					return i;
+			current.copyRawTo( lookupWords , 0 );
+			final int mask = idTable.length - 1;
+			int slot = lookupWords[1] & mask;
+			while ( true )
+			{
+				final int entry = idTable[slot];
+				if ( entry == 0 ) {
+					return -1;
+				}
+				final int base = ( entry - 1 ) * ID_WORDS;
+				if ( commits[ base ] == lookupWords[0] && commits[ base + 1 ] == lookupWords[1] && commits[ base + 2 ] == lookupWords[2] &&
+					 commits[ base + 3 ] == lookupWords[3] && commits[ base + 4 ] == lookupWords[4] )
+				{
+					return size - entry;
 				}
+				slot = ( slot + 1 ) & mask;
 			}
-			return -1;
 		}
 
-		protected void add(ObjectId id) {
+		/**
+		 * Adds a commit that is older than all commits currently in this list.
+		 */
+		protected void addOldest(ObjectId id,int commitTime,ObjectId blobId,int fileMode,long fileSize,String author,String committer,String message) {
 			if (id == null) {
 				throw new IllegalArgumentException("id must not be NULL");
 			}
-			this.commits.add(id);
+			if (blobId == null) {
+				throw new IllegalArgumentException("blobId must not be NULL");
+			}
+			ensureCapacity( size + 1 );
+			id.copyRawTo( commits , size * ID_WORDS );
+			blobId.copyRawTo( blobs , size * ID_WORDS );
+			fileModes[ size ] = fileMode;
+			fileSizes[ size ] = fileSize;
+			commitTimes[ size ] = commitTime;
+			authors[ size ] = author;
+			committers[ size ] = committer;
+			messages[ size ] = message;
+			size++;
+			insertIntoTable( size - 1 );
 		}
 		
-		public void reverse() {
-			Collections.reverse( commits );
+		/**
+		 * Adds commits that are older than all commits currently in this list.
+		 * 
+		 * @param older
+		 */
+		public void addOlder(CommitList older) 
+		{
+			if ( older == null ) {
+				throw new IllegalArgumentException("list must not be NULL");
+			}
+			if ( ! older.file.equals( this.file ) ) {
+				throw new IllegalArgumentException("Cannot merge commits for "+older.file+" into list for "+this.file);
+			}
+			final int oldSize = size;
+			ensureCapacity( size + older.size );
+			System.arraycopy( older.commits , 0 , commits , size * ID_WORDS , older.size * ID_WORDS );
+			System.arraycopy( older.blobs , 0 , blobs , size * ID_WORDS , older.size * ID_WORDS );
+			System.arraycopy( older.fileModes , 0 , fileModes , size , older.size );
+			System.arraycopy( older.fileSizes , 0 , fileSizes , size , older.size );
+			System.arraycopy( older.commitTimes , 0 , commitTimes , size , older.size );
+			System.arraycopy( older.authors , 0 , authors , size , older.size );
+			System.arraycopy( older.committers , 0 , committers , size , older.size );
+			System.arraycopy( older.messages , 0 , messages , size , older.size );
+			size += older.size;
+			for ( int i = oldSize ; i < size ; i++ ) {
+				insertIntoTable( i );
+			}
+		}
+
+		private void ensureCapacity(int newSize) 
+		{
+			if ( newSize > commitTimes.length ) 
+			{
+				final int newCapacity = Math.max( newSize , commitTimes.length * 2 );
+				commits = Arrays.copyOf( commits , newCapacity * ID_WORDS );
+				blobs = Arrays.copyOf( blobs , newCapacity * ID_WORDS );
+				fileModes = Arrays.copyOf( fileModes , newCapacity );
+				fileSizes = Arrays.copyOf( fileSizes , newCapacity );
+				commitTimes = Arrays.copyOf( commitTimes , newCapacity );
+				authors = Arrays.copyOf( authors , newCapacity );
+				committers = Arrays.copyOf( committers , newCapacity );
+				messages = Arrays.copyOf( messages , newCapacity );
+			}
+			if ( newSize * 2 > idTable.length ) 
+			{
+				int tableSize = idTable.length;
+				while ( tableSize < newSize * 2 ) {
+					tableSize <<= 1;
+				}
+				idTable = new int[ tableSize ];
+				for ( int i = 0 ; i < size ; i++ ) {
+					insertIntoTable( i );
+				}
+			}
+		}
+
+		private void insertIntoTable(int arrayIndex) 
+		{
+			final int mask = idTable.length - 1;
+			int slot = commits[ arrayIndex * ID_WORDS + 1 ] & mask;
+			while ( idTable[slot] != 0 ) {
+				slot = ( slot + 1 ) & mask;
+			}
+			idTable[slot] = arrayIndex + 1;
 		}
 
 		public ObjectId getPredecessor(ObjectId current) 
 		{
 			final int idx = indexOf(current);
-			return idx > 0 ? commits.get(idx-1) : null;
+			return idx > 0 ? getCommit(idx-1) : null;
 		}		
 
 		public void visitCommit(ObjectId commit, ICommitVisitor visitor) throws IOException {
 			GitHelper.this.visitSingleCommit( commit , visitor );
 		}
 
-		public Iterator<ObjectId> iterator() {
-			return commits.iterator();
-		}
-
-		public byte[] readFile(ObjectId commit) throws IOException 
+		public Iterator<ObjectId> iterator() 
 		{
-			long time = -System.currentTimeMillis();
-			try {
-			final ByteArrayOutputStream out = new ByteArrayOutputStream();
-			final String path = stripRepoBaseDir( this.file );
-			final PathFilter filter = createPathFilter( this.file );
-			final ICommitVisitor func = new ICommitVisitor() {
+			return new Iterator<ObjectId>() 
+			{
+				private final int count = size;
+				private int index = 0;
 
 				@Override
-				public boolean visit(RevCommit commit) throws IOException 
+				public boolean hasNext() {
+					return index < count;
+				}
+
+				@Override
+				public ObjectId next() 
 				{
-					GitHelper.this.readFile(path, filter, commit, out);
-					return false;
+					if ( ! hasNext() ) {
+						throw new NoSuchElementException();
+					}
+					return getCommit( index++ );
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException("remove()");
 				}
 			};
-			visitCommits( this.file , false , commit , func );
-			return out.toByteArray();
+		}
+
+		public byte[] readFile(ObjectId commit) throws IOException 
+		{
+			long time = -System.currentTimeMillis();
+			try {
+				return readBlob( getBlobId( commit ) );
 			} 
 			finally 
 			{
@@ -157,27 +347,490 @@ public class GitHelper
 			}
 		}
 
+		/**
+		 * Returns the ID of the file's blob in a given commit.
+		 * 
+		 * @param commit
+		 * @return blob ID or {@link ObjectId#zeroId()} if the commit deleted the file
+		 */
+		public ObjectId getBlobId(ObjectId commit) {
+			return ObjectId.fromRaw( blobs , internalIndex( checkedIndexOf( commit ) ) * ID_WORDS );
+		}
+
+		/**
+		 * Returns the IDs of the file's blobs in all commits.
+		 * 
+		 * @return blob IDs in chronological order (oldest commit first), see {@link #getBlobId(ObjectId)}
+		 */
+		public ObjectId[] getBlobIds() 
+		{
+			final ObjectId[] result = new ObjectId[ size ];
+			for ( int i = 0 ; i < result.length ; i++ ) {
+				result[i] = ObjectId.fromRaw( blobs , internalIndex( i ) * ID_WORDS );
+			}
+			return result;
+		}
+
+		/**
+		 * Returns the commit times of all commits.
+		 * 
+		 * @return commit times in seconds since the epoch, in chronological order (oldest commit first). Note that
+		 * commit times need not be monotonic, committers' clocks may be off.
+		 */
+		public int[] getCommitTimes() 
+		{
+			final int[] result = new int[ size ];
+			for ( int i = 0 ; i < result.length ; i++ ) {
+				result[i] = commitTimes[ internalIndex( i ) ];
+			}
+			return result;
+		}
+
+		/**
+		 * Returns the commit time of a commit.
+		 * 
+		 * @param index index of the commit, oldest commit has index 0
+		 * @return commit time in seconds since the epoch
+		 */
+		public int getCommitTime(int index) {
+			return commitTimes[ internalIndex( checkedIndex( index ) ) ];
+		}
+
+		/**
+		 * Returns the author's email address of a commit.
+		 * 
+		 * @param index index of the commit, oldest commit has index 0
+		 */
+		public String getAuthor(int index) {
+			return authors[ internalIndex( checkedIndex( index ) ) ];
+		}
+
+		/**
+		 * Returns the committer's email address of a commit.
+		 * 
+		 * @param index index of the commit, oldest commit has index 0
+		 */
+		public String getCommitter(int index) {
+			return committers[ internalIndex( checkedIndex( index ) ) ];
+		}
+
+		/**
+		 * Returns the first line of a commit's message.
+		 * 
+		 * @param index index of the commit, oldest commit has index 0
+		 */
+		public String getShortMessage(int index) {
+			return messages[ internalIndex( checkedIndex( index ) ) ];
+		}
+
+		/**
+		 * Returns the file's raw mode in a given commit.
+		 * 
+		 * @param commit
+		 * @return raw file mode or 0 if the commit deleted the file 
+		 */
+		public int getFileMode(ObjectId commit) {
+			return fileModes[ internalIndex( checkedIndexOf( commit ) ) ];
+		}
+
+		/**
+		 * Returns the file's size in a given commit.
+		 * 
+		 * @param commit
+		 * @return size in bytes
+		 */
+		public long getFileSize(ObjectId commit) {
+			return fileSizes[ internalIndex( checkedIndexOf( commit ) ) ];
+		}
+
+		private int checkedIndexOf(ObjectId commit) 
+		{
+			final int idx = indexOf( commit );
+			if ( idx == -1 ) {
+				throw new IllegalArgumentException("Commit "+commit.getName()+" is not part of this list");
+			}
+			return idx;
+		}
+
+		private int checkedIndex(int index) 
+		{
+			if ( index < 0 || index >= size ) {
+				throw new IndexOutOfBoundsException("No commit no. "+index);
+			}
+			return index;
+		}
+
+		private int internalIndex(int index) {
+			return size - 1 - index;
+		}
+
 		public boolean isEmpty() {
-			return commits.isEmpty();
+			return size == 0;
 		}
 
 		public int size() {
-			return commits.size();
+			return size;
 		}
 
 		public ObjectId getLatestCommit() {
-			return isEmpty() ? null : commits.get( commits.size()-1 );
+			return isEmpty() ? null : ObjectId.fromRaw( commits , 0 );
+		}
+
+		public ObjectId getCommit(int i) {
+			return ObjectId.fromRaw( commits , internalIndex( checkedIndex( i ) ) * ID_WORDS );
+		}
+
+		/**
+		 * Returns the approx. number of bytes used by this list, not counting the strings of the commit metadata.
+		 */
+		public long getMemoryUsage() 
+		{
+			return 4L * ( commits.length + blobs.length + fileModes.length + commitTimes.length + idTable.length ) + 8L * fileSizes.length +
+					4L * ( authors.length + committers.length + messages.length );
+		}
+	}
+
+	/**
+	 * Commits enumerated by the parallel history scan, along with
+	 * the results of checking whether they changed the file.
+	 * 
+	 * <p>Commits either come from a {@link RevWalk} or from a range of a {@link CommitGraph}.</p>
+	 */
+	private static final class CommitChunk 
+	{
+		public final CommitGraph graph;
+		public final int firstIndex;
+
+		public final RevCommit[] commits;
+		public final ObjectId[] trees;
+		public final ObjectId[][] parentTrees;
+		public int size;
+
+		public final boolean[] changed;
+		// see PathChangeDetector#getTreesameParent()
+		public final int[] treesameParents;
+		public final ObjectId[] blobIds;
+		public final int[] fileModes;
+		public final long[] fileSizes;
+
+		public CommitChunk(int capacity) 
+		{
+			graph = null;
+			firstIndex = 0;
+			commits = new RevCommit[capacity];
+			trees = new ObjectId[capacity];
+			parentTrees = new ObjectId[capacity][];
+			changed = new boolean[capacity];
+			treesameParents = new int[capacity];
+			blobIds = new ObjectId[capacity];
+			fileModes = new int[capacity];
+			fileSizes = new long[capacity];
+		}
+
+		public CommitChunk(CommitGraph graph,int firstIndex,int size) 
+		{
+			this.graph = graph;
+			this.firstIndex = firstIndex;
+			this.size = size;
+			commits = null;
+			trees = null;
+			parentTrees = null;
+			changed = new boolean[size];
+			treesameParents = new int[size];
+			blobIds = new ObjectId[size];
+			fileModes = new int[size];
+			fileSizes = new long[size];
+		}
+
+		public boolean isFull() {
+			return size == commits.length;
+		}
+
+		public void add(RevCommit commit) 
+		{
+			commits[size] = commit;
+			trees[size] = commit.getTree().copy();
+			final int parentCount = commit.getParentCount();
+			final ObjectId[] parents = new ObjectId[ parentCount ];
+			for ( int i = 0 ; i < parentCount ; i++ ) {
+				parents[i] = commit.getParent(i).getTree().copy();
+			}
+			parentTrees[size] = parents;
+			size++;
+		}
+
+		public ObjectId getCommitId(int i) {
+			return graph != null ? graph.getId( firstIndex + i ) : commits[i].getId();
+		}
+
+		public int getCommitTime(int i) {
+			return graph != null ? graph.getCommitTime( firstIndex + i ) : commits[i].getCommitTime();
+		}
+
+		/**
+		 * Adds commit #i to the collector if it changed the file.
+		 * 
+		 * @return the commit's treesame parent, see {@link PathChangeDetector#getTreesameParent()}
+		 */
+		public int publish(int i,BatchCollector collector) throws IOException 
+		{
+			if ( changed[i] ) {
+				collector.add( getCommitId( i ) , getCommitTime( i ) , blobIds[i] , fileModes[i] , fileSizes[i] );
+			}
+			return treesameParents[i];
+		}
+	}
+
+	/**
+	 * Simplifies the history of a file while walking it with a {@link RevWalk}, see {@link HistorySimplifier}.
+	 * 
+	 * <p>Commits of a chunk published by the parallel scan use the results computed by the pool, all other
+	 * commits are checked on the calling thread.</p>
+	 */
+	private final class RevWalkScan extends HistorySimplifier.RevWalkSimplifier 
+	{
+		private final RevWalk walk;
+		private final PathChangeDetector detector;
+		private final BatchCollector collector;
+
+		private CommitChunk chunk;
+		private int current;
+
+		public RevWalkScan(RevWalk walk,PathChangeDetector detector,BatchCollector collector) 
+		{
+			super( walk );
+			this.walk = walk;
+			this.detector = detector;
+			this.collector = collector;
+		}
+
+		public void publish(CommitChunk chunk) throws IOException 
+		{
+			this.chunk = chunk;
+			try 
+			{
+				for ( current = 0 ; current < chunk.size ; current++ ) {
+					add( chunk.commits[current] );
+				}
+			} finally {
+				this.chunk = null;
+			}
+			collector.flush();
 		}
 
-		public ObjectId getCommit(int i) 
+		@Override
+		protected int examine(RevCommit commit) throws IOException 
 		{
-			if ( i < 0 || i >= commits.size() ) {
-				throw new IndexOutOfBoundsException("No commit no. "+i);
+			if ( chunk != null && chunk.commits[current] == commit ) {
+				return chunk.publish( current , collector );
 			}
-			return commits.get(i);
+			if ( detector.introducesChange( walk , commit ) ) {
+				collector.add( commit.getId() , commit.getCommitTime() , detector , session.getReader() );
+			}
+			return detector.getTreesameParent();
+		}
+	}
+
+	/**
+	 * Simplifies the history of a file using a {@link CommitGraph}, see {@link HistorySimplifier}.
+	 * 
+	 * <p>Commits of a chunk published by the parallel scan use the results computed by the pool, all other
+	 * commits are checked on the calling thread.</p>
+	 */
+	private final class GraphScan extends HistorySimplifier.GraphSimplifier 
+	{
+		private final PathChangeDetector detector;
+		private final BatchCollector collector;
+
+		private CommitChunk chunk;
+		private int current;
+
+		public GraphScan(CommitGraph graph,PathChangeDetector detector,BatchCollector collector) 
+		{
+			super( graph );
+			this.detector = detector;
+			this.collector = collector;
+		}
+
+		public void publish(CommitChunk chunk) throws IOException 
+		{
+			this.chunk = chunk;
+			try 
+			{
+				for ( current = 0 ; current < chunk.size ; current++ ) {
+					add( chunk.firstIndex + current );
+				}
+			} finally {
+				this.chunk = null;
+			}
+			collector.flush();
+		}
+
+		@Override
+		protected int examine(Integer commit) throws IOException 
+		{
+			final int index = commit.intValue();
+			if ( chunk != null && chunk.firstIndex + current == index ) {
+				return chunk.publish( current , collector );
+			}
+			if ( detector.introducesChange( graph , index ) ) {
+				collector.add( graph.getId( index ) , graph.getCommitTime( index ) , detector , session.getReader() );
+			}
+			return detector.getTreesameParent();
 		}
 	}
 
+	/**
+	 * Passes commits found by a history scan to the {@link IProgressCallback} in batches.
+	 */
+	private final class BatchCollector 
+	{
+		private final CommitList result;
+		private final IProgressCallback callback;
+		private CommitList batch;
+		private long lastBatchTime;
+
+		// reads the commits' metadata, belongs to the session
+		private final ObjectReader reader;
+		// author and committer strings, so commits by the same person share one instance
+		private final Map<String,String> strings = new HashMap<>();
+
+		public BatchCollector(File localPath,IProgressCallback callback) 
+		{
+			this.result = new CommitList( localPath );
+			this.batch = new CommitList( localPath );
+			this.callback = callback;
+			this.reader = session.getReader();
+		}
+
+		/**
+		 * Adds a commit that is older than all previously added ones.
+		 * 
+		 * @param commit
+		 * @param commitTime commit time in seconds since the epoch
+		 * @param detector detector that just found the commit to change the file
+		 * @param reader reader used by the detector
+		 */
+		public void add(ObjectId commit,int commitTime,PathChangeDetector detector,ObjectReader reader) throws IOException 
+		{
+			// remember where the file's content is so that we never need to walk the history again 
+			final int mode = detector.getEntryMode();
+			final ObjectId blobId = detector.getEntryId().toObjectId();
+			final long size = mode == 0 ? 0 : reader.getObjectSize( blobId , Constants.OBJ_BLOB );
+			add( commit , commitTime , blobId , mode , size );
+		}
+
+		/**
+		 * Adds a commit that is older than all previously added ones.
+		 */
+		public void add(ObjectId commit,int commitTime,ObjectId blobId,int fileMode,long fileSize) throws IOException 
+		{
+			// the history walks don't retain commit bodies, only the few commits that changed the file get parsed
+			final RevCommit parsed = RevCommit.parse( reader.open( commit , Constants.OBJ_COMMIT ).getCachedBytes() );
+			batch.addOldest( commit , commitTime , blobId , fileMode , fileSize , 
+					intern( parsed.getAuthorIdent() ) , 
+					intern( parsed.getCommitterIdent() ) , 
+					parsed.getShortMessage() );
+			final long now = System.currentTimeMillis();
+			if ( result.isEmpty() || batch.size() >= MAX_BATCH_SIZE || (now - lastBatchTime) >= BATCH_INTERVAL_MILLIS ) 
+			{
+				flush();
+				lastBatchTime = now;
+			}
+		}
+
+		public void flush() 
+		{
+			if ( ! batch.isEmpty() ) 
+			{
+				result.addOlder( batch );
+				callback.foundCommits( batch );
+				batch = new CommitList( result.file );
+			}
+		}
+
+		private String intern(PersonIdent ident) 
+		{
+			final String s = ident != null ? ident.getEmailAddress() : "";
+			final String existing = strings.get( s );
+			if ( existing != null ) {
+				return existing;
+			}
+			strings.put( s , s );
+			return s;
+		}
+
+		public CommitList finish() 
+		{
+			flush();
+			return result;
+		}
+	}
+
+	/**
+	 * Checks a range of commits from a {@link CommitChunk}, splitting the range 
+	 * until it is small enough to be worked on directly.
+	 * 
+	 * <p>Leaf tasks use the {@link ObjectReader} of the pool thread they run on, see {@link #createScanPool()}.</p>
+	 */
+	private final class PathCheckTask extends RecursiveAction 
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final CommitChunk chunk;
+		private final String path;
+		private final int start;
+		private final int end;
+
+		public PathCheckTask(CommitChunk chunk, String path, int start, int end) 
+		{
+			this.chunk = chunk;
+			this.path = path;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() 
+		{
+			if ( end - start > PARALLEL_SCAN_LEAF_SIZE ) 
+			{
+				final int mid = (start + end ) >>> 1;
+				invokeAll( new PathCheckTask( chunk , path , start , mid ) , new PathCheckTask( chunk , path , mid , end ) );
+				return;
+			}
+
+			final ObjectReader reader = session.getReader();
+			try 
+			{
+				final PathChangeDetector detector = new PathChangeDetector( reader , path );
+				for ( int i = start ; i < end ; i++ ) 
+				{
+					final boolean changed = chunk.graph != null ? 
+							detector.introducesChange( chunk.graph , chunk.firstIndex + i ) :
+							detector.introducesChange( chunk.trees[i] , chunk.parentTrees[i] );
+					chunk.treesameParents[i] = detector.getTreesameParent();
+					if ( changed ) 
+					{
+						final int mode = detector.getEntryMode();
+						final ObjectId blobId = detector.getEntryId().toObjectId();
+						chunk.changed[i] = true;
+						chunk.blobIds[i] = blobId;
+						chunk.fileModes[i] = mode;
+						chunk.fileSizes[i] = mode == 0 ? 0 : reader.getObjectSize( blobId , Constants.OBJ_BLOB );
+					}
+				}
+			} 
+			catch (IOException e) {
+				throw new RuntimeException( e );
+			} 
+		}
+	}
+
+	public CommitList createCommitList(File file) {
+		return new CommitList( file );
+	}
+
 	public GitHelper(File currentWorkingDir) throws IOException 
 	{
 		if (currentWorkingDir == null) {
@@ -201,6 +854,8 @@ public class GitHelper
 		builder.setGitDir( gitDir );
 		builder.readEnvironment(); // scan environment GIT_* variables
 		repository = builder.build();		
+		session = new RepositorySession( repository );
+		blobCache = new BlobCache( session );
 	}
 
 	private File findGitDir(File directory) {
@@ -226,111 +881,429 @@ public class GitHelper
 
 	public void traverse(File localPath) throws RevisionSyntaxException, MissingObjectException, IncorrectObjectTypeException, AmbiguousObjectException, IOException, GitAPIException 
 	{
-		final RevWalk walk = new RevWalk( repository );
-		try {
-			final ObjectId head = repository.resolve("HEAD");
-			if ( head == null ) {
-				throw new RuntimeException("Failed to resolve HEAD ?");
+		final CommitGraph graph = getCommitGraph();
+		final ObjectReader reader = session.getReader();
+		final PathChangeDetector detector = new PathChangeDetector( reader , stripRepoBaseDir( localPath ) );
+		final MutableObjectId tree = new MutableObjectId();
+		for ( int i = 0 ; i < graph.size() ; i++ ) 
+		{
+			graph.getTree( i , tree );
+			if ( detector.findFile( tree ) != 0 ) {
+				reader.open( detector.getEntryId() , Constants.OBJ_BLOB ).getBytes();
+			}
+		}
+	}
+
+	/**
+	 * Returns the commit graph reachable from <code>HEAD</code>.
+	 * 
+	 * <p>The graph is built once and re-used until <code>HEAD</code> moves. Scanning the history 
+	 * using {@link #findCommits(File, IProgressCallback)} builds the graph as a side-effect.</p>
+	 *  
+	 * @return
+	 * @throws IOException
+	 */
+	public CommitGraph getCommitGraph() throws IOException 
+	{
+		final ObjectId head = resolveHead();
+		synchronized( this ) 
+		{
+			if ( commitGraph != null && commitGraph.getTip().equals( head ) ) {
+				return commitGraph;
 			}
+		}
 
-			final RevCommit startCommit = walk.parseCommit(head);
-			walk.markStart(startCommit);
+		long time = -System.currentTimeMillis();
+		final CommitGraph.Builder builder = new CommitGraph.Builder();
+		// walks the whole history, so not the session's walk. The reader belongs to the session and must not be released
+		final RevWalk walk = new RevWalk( session.getReader() );
+		walk.setRetainBody( false );
+		walk.markStart( walk.parseCommit( head ) );
+		for ( RevCommit commit : walk ) {
+			builder.add( commit );
+		}
+		final CommitGraph result = builder.build( head );
+		setCommitGraph( result );
 
-			// setup path filter
-			final String path = stripRepoBaseDir( localPath );
-			final PathFilter filter = createPathFilter(path);
+		if ( Main.DEBUG_MODE ) {
+			time += System.currentTimeMillis();
+			System.out.println("Built commit graph with "+result.size()+" commits in "+time+" ms");
+		}
+		return result;
+	}
 
-			for ( RevCommit currentCommit : walk ) 
-			{
-				readFile(path, filter, currentCommit);
-			}
-		} finally {
-			walk.dispose();
+	private synchronized CommitGraph getCachedCommitGraph(ObjectId head) {
+		return commitGraph != null && commitGraph.getTip().equals( head ) ? commitGraph : null;
+	}
+
+	private synchronized void setCommitGraph(CommitGraph graph) 
+	{
+		this.commitGraph = graph;
+		if ( Main.DEBUG_MODE ) {
+			System.out.println("Commit graph: "+graph.size()+" commits , "+(graph.getMemoryUsage()/1024)+" KB");
 		}
 	}
 
+	private ObjectId resolveHead() throws IOException 
+	{
+		final ObjectId head = repository.resolve("HEAD");
+		if ( head == null ) {
+			throw new RuntimeException("Failed to resolve HEAD");
+		}
+		return head;
+	}
+
+	/**
+	 * Scans the history of a file, starting at <code>HEAD</code>.
+	 * 
+	 * <p>Commits are passed to the callback in batches while the scan is still running, the first batch 
+	 * is passed as soon as the newest commit has been found.</p>
+	 * 
+	 * <p>The first scan builds the {@link CommitGraph} while walking the history, later 
+	 * scans use the graph and do not need to parse any commits.</p>
+	 * 
+	 * <p>Like <code>git log &lt;path&gt;</code>, merge commits that have the same version of the file as
+	 * one of their parents only lead to that parent. Changes on side branches that did not make it 
+	 * into the merge are not part of the file's history, see {@link HistorySimplifier}.</p>
+	 * 
+	 * @param localPath
+	 * @param callback
+	 * @return all commits that changed the file
+	 */
 	public CommitList findCommits(final File localPath,final IProgressCallback callback) throws RevisionSyntaxException, MissingObjectException, IncorrectObjectTypeException, AmbiguousObjectException, IOException, GitAPIException 
 	{
-		final CommitList result = new CommitList(localPath);
+		final ObjectId head = resolveHead();
+		final PathIndex index = pathIndex;
+		if ( index != null ) {
+			return findCommits( localPath , head , index , callback );
+		}
+		final CommitGraph graph = getCachedCommitGraph( head );
+		if ( graph != null ) 
+		{
+			if ( scanThreads > 1 ) {
+				return findCommitsParallel( localPath , graph , callback );
+			}
+			return findCommits( localPath , graph , callback );
+		}
+		if ( scanThreads > 1 ) {
+			return findCommitsParallel( localPath , head , callback );
+		}
+
+		final BatchCollector collector = new BatchCollector( localPath , callback );
+		final CommitGraph.Builder graphBuilder = new CommitGraph.Builder();
 
-		final String strippedPath = stripRepoBaseDir( localPath );
-		final PathFilter filter = createPathFilter( localPath );
+		// no tree filter here, RevWalk would need to buffer the whole history 
+		// before returning the first commit when rewriting parents
+		final ObjectReader reader = session.getReader();
+		final RevWalk walk = new RevWalk( reader );
+		walk.setRetainBody( false );
+		walk.markStart( walk.parseCommit( head ) );
+
+		final PathChangeDetector detector = new PathChangeDetector( reader , stripRepoBaseDir( localPath ) );
+		final RevWalkScan scan = new RevWalkScan( walk , detector , collector );
+		scan.start( walk.parseCommit( head ) );
+		for ( RevCommit commit : walk ) 
+		{
+			// the graph needs all commits, even after the file's history is complete
+			graphBuilder.add( commit );
+			if ( ! scan.isDone() ) {
+				scan.add( commit );
+			}
+		}
+		setCommitGraph( graphBuilder.build( head ) );
+		return collector.finish();
+	}		
+
+	protected CommitList findCommits(File localPath,CommitGraph graph,IProgressCallback callback) throws IOException 
+	{
+		final BatchCollector collector = new BatchCollector( localPath , callback );
+		final ObjectReader reader = session.getReader();
+		final PathChangeDetector detector = new PathChangeDetector( reader , stripRepoBaseDir( localPath ) );
+		final GraphScan scan = new GraphScan( graph , detector , collector );
+		scan.start( graph.indexOf( graph.getTip() ) );
+		final int size = graph.size();
+		for ( int i = 0 ; i < size && ! scan.isDone() ; i++ ) {
+			scan.add( i );
+		}
+		return collector.finish();
+	}
 
-		final ICommitVisitor func = new ICommitVisitor() {
+	/**
+	 * Scans the history of a file using the persistent {@link PathIndex}.
+	 * 
+	 * <p>The index is brought up-to-date first. Only commits the index lists for the file, merges 
+	 * and root commits need to be checked, the history simplification follows the first parent of all other
+	 * commits without reading them.</p>
+	 * 
+	 * <p>Commits are scanned newest indexed first. This is the order of a {@link RevWalk} for commits
+	 * indexed by the same update, commits indexed by a later update come first even if their
+	 * commit times are older (for example when merging an old branch). Parents are always scanned after
+	 * their children unless the committers' clocks were off.</p> 
+	 */
+	protected CommitList findCommits(File localPath,ObjectId head,PathIndex index,IProgressCallback callback) throws IOException 
+	{
+		final String path = stripRepoBaseDir( localPath );
+		final PathIndex.History history = index.getHistory( head , path );
 
+		final BatchCollector collector = new BatchCollector( localPath , callback );
+		final ObjectReader reader = session.getReader();
+		final RevWalk walk = new RevWalk( reader );
+		walk.setRetainBody( false );
+		final PathChangeDetector detector = new PathChangeDetector( reader , path );
+		final HistorySimplifier.IndexSimplifier scan = new HistorySimplifier.IndexSimplifier( history.size() ) 
+		{
 			@Override
-			public boolean visit(RevCommit commit) throws IOException 
+			protected int examine(Integer commitNo) throws IOException 
 			{
-				if ( commitChangesFile( strippedPath , filter , commit ) ) {
-					callback.foundCommit( commit.getId() );
-					result.add( commit.getId() );
+				final int no = commitNo.intValue();
+				// unchanged compared to the first parent, so the file was taken from it
+				if ( history.getParentCount( no ) > 0 && ! history.isChanged( no ) ) {
+					return 0;
 				}
-				return true;
+				final RevCommit commit = walk.parseCommit( history.getCommit( no ) );
+				if ( detector.introducesChange( walk , commit ) ) {
+					collector.add( commit.getId() , commit.getCommitTime() , detector , reader );
+				}
+				return detector.getTreesameParent();
+			}
+
+			@Override
+			protected int getParentCount(Integer commitNo) {
+				return history.getParentCount( commitNo );
+			}
+
+			@Override
+			protected Integer getParent(Integer commitNo, int parentNo) {
+				return history.getParent( commitNo , parentNo );
 			}
 		};
-		visitCommits( localPath , false , func );
-		
-		// reverse commits so they are in chronological order
-		result.reverse();
-		return result;
-	}		
+		scan.start( history.getTip() );
+		for ( int i = history.size() - 1 ; i >= 0 && ! scan.isDone() ; i-- ) {
+			scan.add( i );
+		}
+		return collector.finish();
+	}
 
-	protected void visitCommits(File localPath,boolean retainCommitBody,ObjectId startCommit, ICommitVisitor func) throws RevisionSyntaxException, AmbiguousObjectException, IncorrectObjectTypeException, IOException 
+	/**
+	 * Parallel version of {@link #findCommits(File, IProgressCallback)}.
+	 * 
+	 * <p>Commits are enumerated on the calling thread in chunks, each chunk is checked for changes
+	 * to the file on a fork/join pool while the next chunk is being enumerated. Results 
+	 * are merged in the order the commits were enumerated so the outcome is the same as for the
+	 * sequential scan.</p>
+	 * 
+	 * <p>The pool checks all commits of a chunk, including the ones the history simplification 
+	 * skips later. Once the file's history is complete no more chunks are checked.</p>
+	 */
+	protected CommitList findCommitsParallel(File localPath,ObjectId head,IProgressCallback callback) throws IOException 
 	{
-		if ( startCommit == null ) {
-			throw new RuntimeException("startCommit must not be NULL");
-		}		
+		final BatchCollector collector = new BatchCollector( localPath , callback );
+		final CommitGraph.Builder graphBuilder = new CommitGraph.Builder();
+		final String path = stripRepoBaseDir( localPath );
 
-		final RevWalk walk = new RevWalk( repository );
+		final ForkJoinPool pool = createScanPool();
+		final RevWalk walk = new RevWalk( session.getReader() );
 		try 
 		{
-			final String path = stripRepoBaseDir( localPath );
-			final PathFilter filter = createPathFilter(path);
-			TreeFilter group = PathFilterGroup.create( Collections.singleton( filter ) );
+			walk.setRetainBody( false );
+			walk.markStart( walk.parseCommit( head ) );
 
-			walk.setTreeFilter( group );
-			walk.setRevFilter( new RevFilter() {
+			final RevWalkScan scan = new RevWalkScan( walk , new PathChangeDetector( session.getReader() , path ) , collector );
+			scan.start( walk.parseCommit( head ) );
 
-				@Override
-				public boolean include(RevWalk walker, RevCommit cmit) throws StopWalkException, MissingObjectException, IncorrectObjectTypeException, IOException 
+			// start with small chunks so the newest revisions show up quickly
+			int chunkSize = PARALLEL_SCAN_LEAF_SIZE;
+			CommitChunk chunk = new CommitChunk( chunkSize );
+			ForkJoinTask<?> pendingTask = null;
+			CommitChunk pendingChunk = null;
+
+			RevCommit commit;
+			do 
+			{
+				commit = walk.next();
+				if ( commit != null ) 
 				{
-					return commitChangesFile( path , filter , cmit );
+					graphBuilder.add( commit );
+					// keep enumerating for the commit graph, but there is nothing left to check
+					if ( ! scan.isDone() ) {
+						chunk.add( commit );
+					}
 				}
+				if ( chunk.isFull() || ( commit == null && chunk.size > 0 ) ) 
+				{
+					final ForkJoinTask<?> task = pool.submit( new PathCheckTask( chunk , path , 0 , chunk.size ) );
+					if ( pendingTask != null ) {
+						join( pendingTask );
+						scan.publish( pendingChunk );
+					}
+					pendingTask = task;
+					pendingChunk = chunk;
 
-				@Override
-				public RevFilter clone() {
-					return this;
+					chunkSize = Math.min( chunkSize * 2 , PARALLEL_SCAN_MAX_CHUNK_SIZE );
+					chunk = new CommitChunk( chunkSize );
 				}
-			});
-			walk.setRetainBody(retainCommitBody);
+			} while ( commit != null );
 
-			final RevCommit startingCommit = walk.parseCommit(startCommit);
-			walk.markStart(startingCommit);
-			visitCommits( walk , func );
-		} finally {
-			walk.dispose();
+			if ( pendingTask != null ) {
+				join( pendingTask );
+				scan.publish( pendingChunk );
+			}
+		} 
+		finally {
+			pool.shutdownNow();
 		}
+		setCommitGraph( graphBuilder.build( head ) );
+		return collector.finish();
 	}
 
-	protected void visitCommits(File localPath,boolean retainCommitBody,ICommitVisitor func) throws RevisionSyntaxException, AmbiguousObjectException, IncorrectObjectTypeException, IOException 
+	/**
+	 * Parallel history scan using a commit graph instead of a {@link RevWalk}.
+	 */
+	protected CommitList findCommitsParallel(File localPath,CommitGraph graph,IProgressCallback callback) throws IOException 
 	{
-		final ObjectId head = repository.resolve("HEAD");
-		if ( head == null ) {
-			throw new RuntimeException("Failed to resolve HEAD");
+		final BatchCollector collector = new BatchCollector( localPath , callback );
+		final String path = stripRepoBaseDir( localPath );
+
+		final GraphScan scan = new GraphScan( graph , new PathChangeDetector( session.getReader() , path ) , collector );
+		scan.start( graph.indexOf( graph.getTip() ) );
+
+		final ForkJoinPool pool = createScanPool();
+		try 
+		{
+			int chunkSize = PARALLEL_SCAN_LEAF_SIZE;
+			int first = 0;
+			ForkJoinTask<?> pendingTask = null;
+			CommitChunk pendingChunk = null;
+			while ( ( first < graph.size() && ! scan.isDone() ) || pendingTask != null ) 
+			{
+				ForkJoinTask<?> task = null;
+				CommitChunk chunk = null;
+				if ( first < graph.size() && ! scan.isDone() ) 
+				{
+					final int count = Math.min( chunkSize , graph.size() - first );
+					chunk = new CommitChunk( graph , first , count );
+					task = pool.submit( new PathCheckTask( chunk , path , 0 , count ) );
+					first += count;
+					chunkSize = Math.min( chunkSize * 2 , PARALLEL_SCAN_MAX_CHUNK_SIZE );
+				}
+				if ( pendingTask != null ) {
+					join( pendingTask );
+					scan.publish( pendingChunk );
+				}
+				pendingTask = task;
+				pendingChunk = chunk;
+			}
+		} 
+		finally {
+			pool.shutdownNow();
 		}
-		visitCommits(localPath , retainCommitBody , head , func );
+		return collector.finish();
 	}
 
-	protected void visitCommits(RevWalk walk, ICommitVisitor func) throws RevisionSyntaxException, AmbiguousObjectException, IncorrectObjectTypeException, IOException 
+	/**
+	 * Creates the pool for a parallel history scan.
+	 * 
+	 * <p>Pool threads release their {@link RepositorySession} objects when they terminate.</p>
+	 */
+	private ForkJoinPool createScanPool() 
 	{
-		for ( RevCommit currentCommit : walk ) 
+		final ForkJoinWorkerThreadFactory factory = new ForkJoinWorkerThreadFactory() 
 		{
-			if ( ! func.visit( currentCommit ) ) {
-				return;
+			@Override
+			public ForkJoinWorkerThread newThread(ForkJoinPool pool) 
+			{
+				final ForkJoinWorkerThread thread = new ForkJoinWorkerThread( pool ) 
+				{
+					@Override
+					protected void onTermination(Throwable exception) 
+					{
+						session.releaseThread();
+						super.onTermination( exception );
+					}
+				};
+				thread.setName( "history-scan-"+thread.getPoolIndex() );
+				return thread;
+			}
+		};
+		return new ForkJoinPool( scanThreads , factory , null , false );
+	}
+
+	private static void join(ForkJoinTask<?> task) throws IOException 
+	{
+		try {
+			task.join();
+		} 
+		catch(RuntimeException e) 
+		{
+			for ( Throwable t = e.getCause() ; t != null ; t = t.getCause() ) 
+			{
+				if ( t instanceof IOException ) {
+					throw (IOException) t;
+				}
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Sets the number of threads used to scan the history.
+	 * 
+	 * @param threads number of threads, 1 disables scanning in parallel
+	 */
+	public void setScanThreads(int threads) 
+	{
+		if ( threads < 1 ) {
+			throw new IllegalArgumentException("Number of threads must be >= 1");
+		}
+		this.scanThreads = threads;
+	}
+
+	/**
+	 * Enables or disables the persistent {@link PathIndex}.
+	 * 
+	 * <p>When enabled, {@link #findCommits(File, IProgressCallback)} updates the index stored
+	 * inside the <code>.git</code> directory and looks up the file's commits there
+	 * instead of scanning the whole history.</p>
+	 * 
+	 * @param usePathIndex
+	 */
+	public void setUsePathIndex(boolean usePathIndex) 
+	{
+		if ( ! usePathIndex ) {
+			pathIndex = null;
+		} else if ( pathIndex == null ) {
+			pathIndex = new PathIndex( repository );
+		}
+	}
+
+	/**
+	 * Enables or disables the persistent {@link EditScriptStore}.
+	 * 
+	 * @param useStore
+	 * @see #getEditScriptStore()
+	 */
+	public void setUseEditScriptStore(boolean useStore) 
+	{
+		if ( ! useStore ) 
+		{
+			if ( editScriptStore != null ) {
+				editScriptStore.close();
 			}
+			editScriptStore = null;
+		} else if ( editScriptStore == null ) {
+			editScriptStore = new EditScriptStore( repository , DiffEngine.getConfiguredAlgorithm( repository ) );
 		}
 	}
 
+	/**
+	 * Returns the persistent store of edit scripts.
+	 * 
+	 * @return store or <code>null</code> if not enabled
+	 */
+	public EditScriptStore getEditScriptStore() {
+		return editScriptStore;
+	}
+
 	protected PathFilter createPathFilter(File file) 
 	{
 		return PathFilter.create( stripRepoBaseDir(file) );
@@ -358,88 +1331,94 @@ public class GitHelper
 		return path;
 	}
 
+	/**
+	 * Checks whether a commit changed a file by diffing the commit's full tree against its parent's.
+	 * 
+	 * <p>This is slow on big repositories and only kept around as a reference implementation
+	 * for {@link PathChangeDetector}, see {@link ChangeDetectionBenchmark}.</p>
+	 */
 	protected boolean commitChangesFile(String path, PathFilter filter,RevCommit currentCommit) throws MissingObjectException, IncorrectObjectTypeException, CorruptObjectException, IOException 
 	{
 		Set<String> filesInCommit = getFilesInCommit( currentCommit );
 		return filesInCommit.contains( stripRepoBaseDir( path ) );
 	}	
 
-	protected byte[] readFile(File file, ObjectId commit) throws MissingObjectException, IncorrectObjectTypeException,CorruptObjectException, IOException 
+	/**
+	 * Reads a file's content through the {@link BlobCache}.
+	 * 
+	 * <p>This method is thread-safe. Large blobs (see {@link #isLargeBlob(ObjectId)}) should be 
+	 * opened using {@link #openLargeBlob(ObjectId)} instead.</p>
+	 * 
+	 * @param blobId blob ID as returned by {@link CommitList#getBlobId(ObjectId)}
+	 * @return content (shared, must not be modified), empty if the blob ID is {@link ObjectId#zeroId()}
+	 * @throws IOException
+	 */
+	public byte[] readBlob(ObjectId blobId) throws IOException 
 	{
-		final ByteArrayOutputStream out = new ByteArrayOutputStream();
-		final ICommitVisitor func = new ICommitVisitor() {
-
-			@Override
-			public boolean visit(RevCommit commit) {
-				return false;
-			}
-		};
-		visitCommits(file,false,commit , func );
-		return out.toByteArray();
+		return blobCache.get( blobId );
 	}
 
-	protected byte[] readFile(String path, PathFilter filter, RevCommit current) throws MissingObjectException, IncorrectObjectTypeException,CorruptObjectException, IOException 
-	{
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		readFile(path,filter,current,out);
-		return out.toByteArray();
+	public BlobCache getBlobCache() {
+		return blobCache;
 	}
 
-	protected void readFile(String path, PathFilter filter, RevCommit current,final ByteArrayOutputStream buffer) throws MissingObjectException, IncorrectObjectTypeException,CorruptObjectException, IOException 
+	/**
+	 * Checks whether a blob is larger than {@link #LARGE_BLOB_BYTES}.
+	 * 
+	 * <p>This method is thread-safe.</p>
+	 */
+	public boolean isLargeBlob(ObjectId blobId) throws IOException 
 	{
-		final String strippedPath = stripRepoBaseDir( path );
-		final ITreeVisitor visitor = new ITreeVisitor() {
+		return ! ObjectId.zeroId().equals( blobId ) && 
+				session.getReader().getObjectSize( blobId , Constants.OBJ_BLOB ) > LARGE_BLOB_BYTES;
+	}
 
-			@Override
-			public boolean visit(TreeWalk treeWalk) throws MissingObjectException, IOException 
-			{
-				final CanonicalTreeParser parser = treeWalk.getTree( 0 , CanonicalTreeParser.class );
-				while ( ! parser.eof() ) 
-				{
-					if ( parser.getEntryPathString().equals( strippedPath ) ) {
-						ObjectLoader loader = repository.open(parser.getEntryObjectId() );
-						buffer.write( loader.getBytes() );						
-					}
-					parser.next(1);
-				}			
-				return true;
-			}
-		};
-		visitCommitTree( path , filter , current , visitor );
+	/**
+	 * Streams a blob into a memory-mapped scratch file, without loading it into memory.
+	 * 
+	 * <p>This method is thread-safe.</p>
+	 * 
+	 * @param blobId
+	 * @return blob, must be closed by the caller
+	 * @throws IOException
+	 */
+	public LargeBlob openLargeBlob(ObjectId blobId) throws IOException {
+		return LargeBlob.open( session.getReader() , blobId );
 	}
 
-	protected void visitCommitTree(String path, PathFilter filter, RevCommit current,ITreeVisitor treeVisitor) throws MissingObjectException, IncorrectObjectTypeException,CorruptObjectException, IOException 
+	/**
+	 * Loads the contents of all revisions of a file into the {@link BlobCache}, in the order they are stored in the repository.
+	 * 
+	 * <p>Revisions larger than {@link #LARGE_BLOB_BYTES} are skipped.</p>
+	 * 
+	 * @param commits
+	 * @return statistics
+	 * @see BlobCache#preload(ObjectId[])
+	 */
+	public BlobCache.PreloadStats preloadRevisions(CommitList commits) throws IOException 
 	{
-		final String cleanPath = stripRepoBaseDir( path );
-		int cleanPathSize = 0;
-		for ( int i = 0 ; i < cleanPath.length() ; i++ ) {
-			if ( cleanPath.charAt(i) == '/' ) {
-				cleanPathSize++;
+		final List<ObjectId> blobIds = new ArrayList<>();
+		for ( ObjectId commit : commits ) 
+		{
+			if ( commits.getFileSize( commit ) <= LARGE_BLOB_BYTES ) {
+				blobIds.add( commits.getBlobId( commit ) );
 			}
 		}
+		return blobCache.preload( blobIds.toArray( new ObjectId[ blobIds.size() ] ) );
+	}
 
-		final TreeWalk tree = new TreeWalk(repository);
-		try {
-			tree.setFilter( filter );
-			tree.setRecursive(true);
-			tree.addTree( current.getTree() );
+	/**
+	 * Sets whether all revisions of a file should be loaded into the {@link BlobCache} once its history has been scanned.
+	 * 
+	 * @param preloadRevisions
+	 * @see #preloadRevisions(CommitList)
+	 */
+	public void setPreloadRevisions(boolean preloadRevisions) {
+		this.preloadRevisions = preloadRevisions;
+	}
 
-			while( tree.next() ) 
-			{
-				if ( tree.getDepth() == cleanPathSize ) 
-				{
-					if ( ! treeVisitor.visit( tree ) ) 
-					{
-						return;
-					}
-				}
-				if ( tree.isSubtree() ) {
-					tree.enterSubtree();
-				}
-			}
-		} finally {
-			tree.release();
-		}
+	public boolean isPreloadRevisions() {
+		return preloadRevisions;
 	}
 
 	public void visitSingleCommit(ObjectId id, ICommitVisitor visitor) throws IOException {
@@ -448,71 +1427,70 @@ public class GitHelper
 			throw new RuntimeException("commit ID must not be NULL");
 		}		
 
-		final RevWalk walk = new RevWalk( repository );
-		try {
-			walk.setRetainBody(true);
-
-			final RevCommit startingCommit = walk.parseCommit(id);
-			walk.markStart(startingCommit);
-
-			RevCommit current=walk.next();
-			visitor.visit( current );
-		} finally {
-			walk.dispose();
-		}
+		final RevWalk walk = session.getRevWalk();
+		final RevCommit commit = walk.parseCommit( id );
+		walk.parseBody( commit );
+		visitor.visit( commit );
 	}
 
 	public Repository getRepository() {
 		return repository;
 	}	
 
+	/**
+	 * Returns the session that pools readers and walks for the threads using this helper.
+	 */
+	public RepositorySession getSession() {
+		return session;
+	}
+
+	/**
+	 * Releases the blob cache, the edit script store, the session and the repository. This helper must not be used any more afterwards.
+	 */
+	public void close() 
+	{
+		blobCache.close();
+		setUseEditScriptStore( false );
+		session.close();
+		repository.close();
+	}
+
+	/*
+	 * Returns the paths of all regular/executable files the commit added, removed or modified compared to its first parent.
+	 * Symlinks and submodules are not files, see PathChangeDetector#isFile(int)
+	 */
 	private Set<String> getFilesInCommit(RevCommit commit) throws IOException 
 	{
 		if ( commit == null ) {
 			throw new IllegalArgumentException("commit must not be NULL");
 		}
 		
-		List<PathChangeModel> list = new ArrayList<>();
-		
-		final RevWalk rw = new RevWalk(repository);
-		try {
-			if (commit.getParentCount() == 0) {
-				TreeWalk tw = new TreeWalk(repository);
-				tw.reset();
-				tw.setRecursive(true);
-				tw.addTree(commit.getTree());
-				while (tw.next()) {
-					list.add(new PathChangeModel(tw.getPathString(), tw.getPathString(), 0, tw
-							.getRawMode(0), tw.getObjectId(0).getName(), commit.getId().getName(),
-							ChangeType.ADD));
-				}
-				tw.release();
-			} 
-			else 
-			{
-				RevCommit parent = rw.parseCommit(commit.getParent(0).getId());
-				
-				final ByteArrayOutputStream out = new ByteArrayOutputStream();
-				final DiffFormatter df = new DiffFormatter(out);
-				df.setRepository(repository);
-				df.setDiffComparator(RawTextComparator.DEFAULT);
-				df.setDetectRenames(false);
-				
-				final List<DiffEntry> diffs = df.scan(parent.getTree(), commit.getTree());
-				for (DiffEntry diff : diffs) {
-					// create the path change model
-					PathChangeModel pcm = PathChangeModel.from(diff, commit.getName());
-					list.add(pcm);
+		final Set<String> result = new HashSet<>();
+		if (commit.getParentCount() == 0) {
+			TreeWalk tw = session.getTreeWalk();
+			tw.setRecursive(true);
+			tw.addTree(commit.getTree());
+			while (tw.next()) {
+				if ( PathChangeDetector.isFile( tw.getRawMode(0) ) ) {
+					result.add( tw.getPathString() );
 				}
 			}
-		} finally {
-			rw.dispose();
-		}
-		Set<String> result = new HashSet<>();
-		for ( PathChangeModel model : list ) 
+		} 
+		else 
 		{
-			if ( model.isFile() ) {
-				result.add( model.path );
+			RevCommit parent = session.getRevWalk().parseCommit(commit.getParent(0).getId());
+			
+			final DiffFormatter df = session.getDiffFormatter();
+			final List<DiffEntry> diffs = df.scan(parent.getTree(), commit.getTree());
+			for (DiffEntry diff : diffs) 
+			{
+				// a file replaced by a symlink is reported as a deletion plus an addition
+				if ( PathChangeDetector.isFile( diff.getOldMode().getBits() ) ) {
+					result.add( diff.getOldPath() );
+				}
+				if ( PathChangeDetector.isFile( diff.getNewMode().getBits() ) ) {
+					result.add( diff.getNewPath() );
+				}
 			}
 		}
 		return result;
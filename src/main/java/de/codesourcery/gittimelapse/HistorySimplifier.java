@@ -0,0 +1,246 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Applies git's default history simplification for a single file to the commits of a history scan.
+ *
+ * <p>Starting at the tip, a merge commit that has the same version of the file as one of its parents
+ * (see {@link PathChangeDetector#getTreesameParent()}) only leads to that parent. Side branches whose changes
+ * to the file were discarded by the merge are never reached and are not part of the file's history, just like
+ * <code>git log &lt;path&gt;</code> does not show them. All other commits lead to all of their parents.</p>
+ *
+ * <p>Commits need to be added in the order a {@link RevWalk} returns them, which is after all of their children
+ * unless the committers' clocks were off. Only commits that have been reached are examined, commits that have
+ * not been reached (yet) when they are added are held back until a child added later reaches them.</p>
+ *
+ * <p>Instances are <b>not</b> thread-safe.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @param <C> commit type
+ */
+public abstract class HistorySimplifier<C>
+{
+	// reached but not added yet
+	private int pending;
+
+	private final List<C> stack = new ArrayList<>();
+
+	/**
+	 * Sets the tip, this needs to be called before adding any commits.
+	 */
+	public final void start(C tip)
+	{
+		setReached( tip );
+		pending = 1;
+	}
+
+	/**
+	 * Adds the next commit returned by the history walk.
+	 *
+	 * <p>The commit is examined right away if it has been reached, along with any
+	 * held back commits that it reaches.</p>
+	 */
+	public final void add(C commit) throws IOException
+	{
+		setAdded( commit );
+		if ( isReached( commit ) )
+		{
+			pending--;
+			stack.add( commit );
+			while ( ! stack.isEmpty() ) {
+				examineAndReachParents( stack.remove( stack.size() - 1 ) );
+			}
+		}
+	}
+
+	private void examineAndReachParents(C commit) throws IOException
+	{
+		final int treesameParent = examine( commit );
+		if ( treesameParent != -1 ) {
+			reach( getParent( commit , treesameParent ) );
+		}
+		else
+		{
+			final int count = getParentCount( commit );
+			for ( int i = 0 ; i < count ; i++ ) {
+				reach( getParent( commit , i ) );
+			}
+		}
+	}
+
+	private void reach(C parent)
+	{
+		if ( isReached( parent ) ) {
+			return;
+		}
+		setReached( parent );
+		if ( isAdded( parent ) ) {
+			stack.add( parent ); // held back, the walk returned it before this child
+		} else {
+			pending++;
+		}
+	}
+
+	/**
+	 * Returns whether all commits that can still be reached have been added.
+	 *
+	 * <p>Commits added from now on are not part of the file's history, they do not need to be added at all.</p>
+	 */
+	public final boolean isDone() {
+		return pending == 0;
+	}
+
+	/**
+	 * Examines a commit that is part of the file's history.
+	 *
+	 * <p>Commits are examined in the order they are added, except for held back commits which
+	 * are examined once they are reached.</p>
+	 *
+	 * @param commit
+	 * @return the number of the parent the commit has the same version of the file as (the first one if there
+	 * are several), -1 if the file differs from all parents
+	 * @see PathChangeDetector#getTreesameParent()
+	 */
+	protected abstract int examine(C commit) throws IOException;
+
+	protected abstract int getParentCount(C commit);
+
+	protected abstract C getParent(C commit,int parentNo);
+
+	protected abstract boolean isReached(C commit);
+
+	protected abstract void setReached(C commit);
+
+	protected abstract boolean isAdded(C commit);
+
+	protected abstract void setAdded(C commit);
+
+	/**
+	 * Simplifies the commits returned by a {@link RevWalk}, keeping track of them using {@link RevFlag}s.
+	 *
+	 * <p>The walk needs to parse the commits' headers.</p>
+	 */
+	public static abstract class RevWalkSimplifier extends HistorySimplifier<RevCommit>
+	{
+		private final RevFlag reached;
+		private final RevFlag added;
+
+		protected RevWalkSimplifier(RevWalk walk)
+		{
+			reached = walk.newFlag( "reached" );
+			added = walk.newFlag( "added" );
+		}
+
+		@Override
+		protected final int getParentCount(RevCommit commit) {
+			return commit.getParentCount();
+		}
+
+		@Override
+		protected final RevCommit getParent(RevCommit commit, int parentNo) {
+			return commit.getParent( parentNo );
+		}
+
+		@Override
+		protected final boolean isReached(RevCommit commit) {
+			return commit.has( reached );
+		}
+
+		@Override
+		protected final void setReached(RevCommit commit) {
+			commit.add( reached );
+		}
+
+		@Override
+		protected final boolean isAdded(RevCommit commit) {
+			return commit.has( added );
+		}
+
+		@Override
+		protected final void setAdded(RevCommit commit) {
+			commit.add( added );
+		}
+	}
+
+	/**
+	 * Simplifies commits that are identified by their index in some list of commits, keeping track of them using bit sets.
+	 */
+	public static abstract class IndexSimplifier extends HistorySimplifier<Integer>
+	{
+		private final BitSet reached;
+		private final BitSet added;
+
+		protected IndexSimplifier(int size)
+		{
+			this.reached = new BitSet( size );
+			this.added = new BitSet( size );
+		}
+
+		@Override
+		protected final boolean isReached(Integer commit) {
+			return reached.get( commit );
+		}
+
+		@Override
+		protected final void setReached(Integer commit) {
+			reached.set( commit );
+		}
+
+		@Override
+		protected final boolean isAdded(Integer commit) {
+			return added.get( commit );
+		}
+
+		@Override
+		protected final void setAdded(Integer commit) {
+			added.set( commit );
+		}
+	}
+
+	/**
+	 * Simplifies the commits of a {@link CommitGraph}, they need to be added in index order starting at the tip.
+	 */
+	public static abstract class GraphSimplifier extends IndexSimplifier
+	{
+		protected final CommitGraph graph;
+
+		protected GraphSimplifier(CommitGraph graph)
+		{
+			super( graph.size() );
+			this.graph = graph;
+		}
+
+		@Override
+		protected final int getParentCount(Integer commit) {
+			return graph.getParentCount( commit );
+		}
+
+		@Override
+		protected final Integer getParent(Integer commit, int parentNo) {
+			return graph.getParent( commit , parentNo );
+		}
+	}
+}
@@ -0,0 +1,325 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * A blob too large to be held on the heap, streamed into a memory-mapped scratch file.
+ *
+ * <p>Only the start offset of every {@value #LINES_PER_CHECKPOINT}th line is kept on the heap, lines are
+ * located by scanning forward from the closest checkpoint when they are requested. Lines are counted the same
+ * way as by {@link TextFile}, a trailing line feed does not start a new line.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class LargeBlob
+{
+	/**
+	 * Lines longer than this are truncated by {@link #getLine(int)}.
+	 */
+	public static final int MAX_LINE_BYTES = 64 * 1024;
+
+	private static final int LINES_PER_CHECKPOINT = 256;
+
+	// a single mapping can't be larger than 2 GB
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_MASK = ( 1L << SEGMENT_SHIFT ) - 1;
+
+	// scratch files that could not be deleted while still mapped, retried on shutdown
+	private static final List<File> PENDING_DELETES = new ArrayList<>();
+	private static Thread deleteHook;
+
+	private final ObjectId blobId;
+	private final File file;
+	private final long size;
+	// guarded by this ; NULL once closed
+	private MappedByteBuffer[] segments;
+
+	private final int lineCount;
+	// start offset of line #i * LINES_PER_CHECKPOINT
+	private final long[] checkpoints;
+	private final int maxColumns;
+
+	// guarded by this ; line following the last line returned, so consecutive lines are found without scanning
+	private int nextLine = -1;
+	private long nextLineStart;
+
+	private LargeBlob(ObjectId blobId,File file,long size,MappedByteBuffer[] segments,int lineCount,long[] checkpoints,int maxColumns)
+	{
+		this.blobId = blobId;
+		this.file = file;
+		this.size = size;
+		this.segments = segments;
+		this.lineCount = lineCount;
+		this.checkpoints = checkpoints;
+		this.maxColumns = maxColumns;
+	}
+
+	/**
+	 * Streams a blob into a scratch file and indexes its lines.
+	 *
+	 * @param reader reader to read the blob with
+	 * @param blobId
+	 * @return
+	 * @throws IOException
+	 */
+	public static LargeBlob open(ObjectReader reader,ObjectId blobId) throws IOException
+	{
+		final ObjectLoader loader = reader.open( blobId , Constants.OBJ_BLOB );
+		final long size = loader.getSize();
+
+		final File file = File.createTempFile( "git-timelapse-blob" , ".tmp" );
+		file.deleteOnExit();
+		boolean success = false;
+		try ( RandomAccessFile raf = new RandomAccessFile( file , "rw" ) ; InputStream in = loader.openStream() )
+		{
+			final FileChannel channel = raf.getChannel();
+			final byte[] buffer = new byte[ 64 * 1024 ];
+
+			long[] checkpoints = new long[ 16 ];
+			int lineCount = size > 0 ? 1 : 0;
+			int maxColumns = 0;
+			int column = 0;
+			long lineStart = 0;
+			long position = 0;
+			int len;
+			while ( ( len = in.read( buffer ) ) > 0 )
+			{
+				for ( int i = 0 ; i < len ; i++ )
+				{
+					final byte b = buffer[i];
+					if ( b == '\n' )
+					{
+						final long next = position + i + 1;
+						maxColumns = Math.max( maxColumns , column );
+						column = 0;
+						if ( next < size )
+						{
+							if ( lineCount % LINES_PER_CHECKPOINT == 0 )
+							{
+								final int checkpoint = lineCount / LINES_PER_CHECKPOINT;
+								if ( checkpoint >= checkpoints.length ) {
+									checkpoints = Arrays.copyOf( checkpoints , checkpoints.length * 2 );
+								}
+								checkpoints[ checkpoint ] = next;
+							}
+							lineCount++;
+						}
+						lineStart = next;
+					} 
+					else if ( position + i - lineStart < MAX_LINE_BYTES ) // see getLine(int)
+					{
+						if ( b == '\t' ) {
+							column = ( column / TextFile.TAB_SIZE + 1 ) * TextFile.TAB_SIZE;
+						} else if ( ( b & 0xc0 ) != 0x80 ) {
+							column++;
+						}
+					}
+				}
+				final ByteBuffer src = ByteBuffer.wrap( buffer , 0 , len );
+				while ( src.hasRemaining() ) {
+					channel.write( src );
+				}
+				position += len;
+			}
+			if ( position != size ) {
+				throw new IOException("Blob "+blobId.getName()+" has "+position+" bytes instead of "+size);
+			}
+			maxColumns = Math.max( maxColumns , column ); // no line feed at the end
+
+			final MappedByteBuffer[] segments = new MappedByteBuffer[ (int) ( ( size + SEGMENT_MASK ) >>> SEGMENT_SHIFT ) ];
+			for ( int i = 0 ; i < segments.length ; i++ )
+			{
+				final long offset = (long) i << SEGMENT_SHIFT;
+				segments[i] = channel.map( MapMode.READ_ONLY , offset , Math.min( SEGMENT_MASK + 1 , size - offset ) );
+			}
+			final int checkpointCount = ( lineCount + LINES_PER_CHECKPOINT - 1 ) / LINES_PER_CHECKPOINT;
+			final LargeBlob result = new LargeBlob( blobId.copy() , file , size , segments , lineCount , Arrays.copyOf( checkpoints , checkpointCount ) , maxColumns );
+			success = true;
+			return result;
+		}
+		finally
+		{
+			if ( ! success ) {
+				file.delete();
+			}
+		}
+	}
+
+	public ObjectId getBlobId() {
+		return blobId;
+	}
+
+	/**
+	 * Returns the size of the content in bytes.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of lines.
+	 */
+	public int getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * Returns the width of the widest line.
+	 *
+	 * @return number of characters, with tabs expanded to {@link TextFile#TAB_SIZE} columns and lines truncated 
+	 * to {@link #MAX_LINE_BYTES} bytes
+	 */
+	public int getMaxColumns() {
+		return maxColumns;
+	}
+
+	/**
+	 * Returns the approx. number of heap bytes used by this blob.
+	 */
+	public long getMemoryUsage() {
+		return 8L * checkpoints.length;
+	}
+
+	/**
+	 * Returns the text of a line, without the trailing line feed.
+	 *
+	 * @param line line number, first line has number 0
+	 * @return text, truncated to {@link #MAX_LINE_BYTES} bytes
+	 * @throws IllegalStateException if this blob has been closed
+	 */
+	public synchronized String getLine(int line)
+	{
+		if ( segments == null ) {
+			throw new IllegalStateException("Blob "+blobId.getName()+" is closed");
+		}
+		if ( line < 0 || line >= lineCount ) {
+			throw new IndexOutOfBoundsException("Line "+line+" is out of range 0..."+(lineCount-1));
+		}
+
+		long start;
+		int current;
+		if ( nextLine != -1 && nextLine <= line && nextLine / LINES_PER_CHECKPOINT == line / LINES_PER_CHECKPOINT ) {
+			current = nextLine;
+			start = nextLineStart;
+		} else {
+			current = line - line % LINES_PER_CHECKPOINT;
+			start = checkpoints[ current / LINES_PER_CHECKPOINT ];
+		}
+		for ( ; current < line ; current++ ) {
+			start = findLineEnd( start ) + 1;
+		}
+
+		final long end = findLineEnd( start );
+		nextLine = line + 1 < lineCount ? line + 1 : -1;
+		nextLineStart = end + 1;
+
+		final byte[] bytes = new byte[ (int) Math.min( MAX_LINE_BYTES , end - start ) ];
+		for ( int i = 0 ; i < bytes.length ; i++ ) {
+			bytes[i] = byteAt( start + i );
+		}
+		return RawParseUtils.decode( bytes , 0 , bytes.length );
+	}
+
+	/*
+	 * Returns the offset of the line feed ending a line, or the size of the content for the last line.
+	 */
+	private long findLineEnd(long lineStart)
+	{
+		long offset = lineStart;
+		while ( offset < size && byteAt( offset ) != '\n' ) {
+			offset++;
+		}
+		return offset;
+	}
+
+	private byte byteAt(long offset) {
+		return segments[ (int) ( offset >>> SEGMENT_SHIFT ) ].get( (int) ( offset & SEGMENT_MASK ) );
+	}
+
+	/**
+	 * Drops the content and deletes the scratch file, lines can't be read any more afterwards.
+	 *
+	 * <p>The mappings are only released once they are garbage collected, platforms that can't delete mapped files
+	 * get the scratch file deleted when the VM shuts down.</p>
+	 */
+	public synchronized void close()
+	{
+		if ( segments == null ) {
+			return;
+		}
+		segments = null;
+		nextLine = -1;
+		if ( ! file.delete() && file.exists() ) {
+			deleteOnShutdown( file );
+		}
+	}
+
+	private static void deleteOnShutdown(File file)
+	{
+		synchronized( PENDING_DELETES )
+		{
+			PENDING_DELETES.add( file );
+			if ( deleteHook != null ) {
+				return;
+			}
+			deleteHook = new Thread( "large-blob-cleanup" ) 
+			{
+				@Override
+				public void run() 
+				{
+					// unreachable mappings get released when collected
+					System.gc();
+					synchronized( PENDING_DELETES )
+					{
+						for ( File pending : PENDING_DELETES ) 
+						{
+							if ( ! pending.delete() && pending.exists() ) {
+								System.err.println("Failed to delete scratch file "+pending);
+							}
+						}
+						PENDING_DELETES.clear();
+					}
+				}
+			};
+			Runtime.getRuntime().addShutdownHook( deleteHook );
+		}
+	}
+
+	@Override
+	public String toString() {
+		return blobId.getName()+" , "+(size/1024)+" KB , "+lineCount+" lines";
+	}
+}
@@ -0,0 +1,232 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Insets;
+import java.awt.Rectangle;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+
+import javax.swing.JComponent;
+import javax.swing.JPanel;
+import javax.swing.border.CompoundBorder;
+import javax.swing.border.EmptyBorder;
+import javax.swing.border.MatteBorder;
+import javax.swing.event.CaretEvent;
+import javax.swing.event.CaretListener;
+import javax.swing.text.JTextComponent;
+
+import de.codesourcery.gittimelapse.SideBySideDiff.Pane;
+
+/**
+ * Row header displaying the line numbers of a {@link Pane} next to the component that displays it.
+ *
+ * <p>The displayed component must paint one row of the pane per line of text, using the same height for every row
+ * (the height of its font) and starting below its top inset. The visible rows are computed from the clip bounds
+ * alone and their line numbers are read from the pane's row mapping, so padding rows in aligned mode get no number
+ * and all other rows show the line number in the actual file.</p>
+ *
+ * <p>Alternatively, {@link #setLineCount(int)} displays one line per row without a pane.</p>
+ *
+ * <p>May be registered as a {@link CaretListener} with a text component to highlight the line number of the row
+ * holding the caret.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class LineNumberGutter extends JPanel implements CaretListener
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final int MARGIN = 5;
+
+	private final JComponent view;
+	private final int minimumDigits;
+	private Color currentRowForeground = Color.RED;
+
+	private Pane pane;
+	// number of rows displayed without a pane
+	private int lineCount;
+	private int currentRow = -1;
+
+	// line numbers as strings, indexed by line and created when first painted
+	private String[] labels = new String[0];
+
+	/**
+	 * Create instance.
+	 *
+	 * @param view component displaying the pane
+	 * @param minimumDigits minimum number of digits to reserve space for
+	 */
+	public LineNumberGutter(JComponent view,int minimumDigits)
+	{
+		this.view = view;
+		this.minimumDigits = minimumDigits;
+		setBorder( new CompoundBorder( new MatteBorder( 0 , 0 , 0 , 2 , Color.GRAY ) , new EmptyBorder( 0 , MARGIN , 0 , MARGIN ) ) );
+		view.addPropertyChangeListener( "font" , new PropertyChangeListener()
+		{
+			@Override
+			public void propertyChange(PropertyChangeEvent evt)
+			{
+				revalidate();
+				repaint();
+			}
+		});
+	}
+
+	/**
+	 * Sets the pane whose line numbers should be displayed.
+	 *
+	 * @param pane pane, <code>null</code> clears this gutter
+	 */
+	public void setPane(Pane pane)
+	{
+		this.pane = pane;
+		this.lineCount = 0;
+		this.currentRow = -1;
+		final int lines = pane != null ? pane.getText().getLineCount() : 0;
+		if ( labels.length < lines ) {
+			labels = new String[ lines ];
+		}
+		revalidate();
+		repaint();
+	}
+
+	/**
+	 * Displays line numbers for rows that show one line each, without a pane.
+	 *
+	 * <p>Line numbers are not cached in this mode, since there may be millions of lines.</p>
+	 *
+	 * @param lineCount number of lines, 0 clears this gutter
+	 */
+	public void setLineCount(int lineCount)
+	{
+		this.pane = null;
+		this.lineCount = lineCount;
+		this.currentRow = -1;
+		revalidate();
+		repaint();
+	}
+
+	private int getRowCount() {
+		return pane != null ? pane.getRowCount() : lineCount;
+	}
+
+	public void setCurrentRowForeground(Color currentRowForeground) {
+		this.currentRowForeground = currentRowForeground;
+	}
+
+	/**
+	 * Highlights the line number of a row.
+	 *
+	 * @param row row to highlight, -1 for none
+	 */
+	public void setCurrentRow(int row)
+	{
+		if ( row != currentRow )
+		{
+			repaintRow( currentRow );
+			currentRow = row;
+			repaintRow( currentRow );
+		}
+	}
+
+	private void repaintRow(int row)
+	{
+		if ( row != -1 )
+		{
+			final int rowHeight = getRowHeight();
+			repaint( 0 , getTop() + row * rowHeight , getWidth() , rowHeight );
+		}
+	}
+
+	@Override
+	public void caretUpdate(CaretEvent e)
+	{
+		final JTextComponent component = (JTextComponent) e.getSource();
+		setCurrentRow( component.getDocument().getDefaultRootElement().getElementIndex( e.getDot() ) );
+	}
+
+	private int getRowHeight() {
+		return view.getFontMetrics( view.getFont() ).getHeight();
+	}
+
+	private int getTop() {
+		return view.getInsets().top;
+	}
+
+	@Override
+	public Dimension getPreferredSize()
+	{
+		final int lines = pane != null ? pane.getText().getLineCount() : lineCount;
+		final int rows = getRowCount();
+		final int digits = Math.max( minimumDigits , Integer.toString( lines ).length() );
+		final FontMetrics metrics = view.getFontMetrics( view.getFont() );
+		final Insets insets = getInsets();
+		final Insets viewInsets = view.getInsets();
+		return new Dimension( insets.left + insets.right + digits * metrics.charWidth( '0' ) ,
+				viewInsets.top + viewInsets.bottom + rows * metrics.getHeight() );
+	}
+
+	@Override
+	protected void paintComponent(Graphics g)
+	{
+		super.paintComponent( g );
+		final int rows = getRowCount();
+		if ( rows == 0 ) {
+			return;
+		}
+
+		g.setFont( view.getFont() );
+		final FontMetrics metrics = g.getFontMetrics();
+		final int rowHeight = metrics.getHeight();
+		final int digitWidth = metrics.charWidth( '0' );
+		final int right = getWidth() - getInsets().right;
+		final int top = getTop();
+
+		final Rectangle clip = g.getClipBounds();
+		final int firstRow = Math.max( 0 , ( clip.y - top ) / rowHeight );
+		final int lastRow = Math.min( rows - 1 , ( clip.y + clip.height - top ) / rowHeight );
+		g.setColor( getForeground() );
+		for ( int row = firstRow ; row <= lastRow ; row++ )
+		{
+			final String label;
+			if ( pane != null )
+			{
+				final int line = pane.getLine( row );
+				if ( line == -1 ) {
+					continue;
+				}
+				if ( labels[ line ] == null ) {
+					labels[ line ] = Integer.toString( line + 1 );
+				}
+				label = labels[ line ];
+			} else {
+				label = Integer.toString( row + 1 );
+			}
+			if ( row == currentRow ) {
+				g.setColor( currentRowForeground );
+			}
+			g.drawString( label , right - label.length() * digitWidth , top + row * rowHeight + metrics.getAscent() );
+			if ( row == currentRow ) {
+				g.setColor( getForeground() );
+			}
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache that evicts entries once their total size exceeds a byte budget.
+ *
+ * <p>Subclasses determine the size of an entry and may act on evicted entries.
+ * A value larger than the whole budget is not cached at all.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public abstract class LruCache<K,V>
+{
+	// iteration order is least-recently accessed first
+	private final LinkedHashMap<K,V> entries = new LinkedHashMap<>( 16 , 0.75f , true );
+
+	private long maxBytes;
+	private long currentBytes;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	protected LruCache(long maxBytes)
+	{
+		setMaxBytes( maxBytes );
+	}
+
+	/**
+	 * Returns the size of a value in bytes.
+	 */
+	protected abstract long sizeOf(V value);
+
+	/**
+	 * Invoked after an entry has been evicted to stay within the byte budget.
+	 *
+	 * <p>Runs on the thread that caused the eviction, without holding this cache's lock, so
+	 * other threads may look up entries meanwhile.</p>
+	 */
+	protected void evicted(K key,V value) {
+	}
+
+	/**
+	 * Looks up a value and marks it as most recently used.
+	 *
+	 * @param key
+	 * @return value or <code>null</code>
+	 */
+	public synchronized V get(K key)
+	{
+		final V result = entries.get( key );
+		if ( result != null ) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return result;
+	}
+
+	/**
+	 * Looks up a value and marks it as most recently used, without
+	 * counting a hit or miss.
+	 *
+	 * @param key
+	 * @return value or <code>null</code>
+	 */
+	public synchronized V peek(K key) {
+		return entries.get( key );
+	}
+
+	public void put(K key,V value)
+	{
+		final List<Map.Entry<K,V>> evicted;
+		synchronized( this )
+		{
+			final long size = sizeOf( value );
+			final V existing = entries.remove( key );
+			if ( existing != null ) {
+				currentBytes -= sizeOf( existing );
+			}
+			if ( size > maxBytes ) {
+				return;
+			}
+			entries.put( key , value );
+			currentBytes += size;
+			evicted = evict();
+		}
+		notifyEvicted( evicted );
+	}
+
+	public synchronized void clear()
+	{
+		entries.clear();
+		currentBytes = 0;
+	}
+
+	public void setMaxBytes(long maxBytes)
+	{
+		if ( maxBytes < 0 ) {
+			throw new IllegalArgumentException("Byte budget must be >= 0");
+		}
+		final List<Map.Entry<K,V>> evicted;
+		synchronized( this )
+		{
+			this.maxBytes = maxBytes;
+			evicted = evict();
+		}
+		notifyEvicted( evicted );
+	}
+
+	/*
+	 * Unlinks the least recently used entries until the budget is met, must be called while holding the lock.
+	 */
+	private List<Map.Entry<K,V>> evict()
+	{
+		List<Map.Entry<K,V>> result = Collections.emptyList();
+		final Iterator<Map.Entry<K, V>> it = entries.entrySet().iterator();
+		while ( currentBytes > maxBytes && it.hasNext() )
+		{
+			final Map.Entry<K, V> eldest = it.next();
+			if ( result.isEmpty() ) {
+				result = new ArrayList<>();
+			}
+			result.add( new AbstractMap.SimpleImmutableEntry<>( eldest ) );
+			it.remove();
+			currentBytes -= sizeOf( eldest.getValue() );
+			evictions++;
+		}
+		return result;
+	}
+
+	private void notifyEvicted(List<Map.Entry<K,V>> evicted)
+	{
+		for ( Map.Entry<K,V> entry : evicted ) {
+			evicted( entry.getKey() , entry.getValue() );
+		}
+	}
+
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public synchronized long getCurrentBytes() {
+		return currentBytes;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return entries.size()+" entries , "+(currentBytes/1024)+" of "+(maxBytes/1024)+" KB , "+
+				hits+" hits , "+misses+" misses , "+evictions+" evictions";
+	}
+}
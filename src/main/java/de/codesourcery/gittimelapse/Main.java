@@ -31,6 +31,9 @@ public class Main {
 	public static void main(String[] args) throws IOException, RevisionSyntaxException, GitAPIException 
 	{
 		final Stack<String> argStack = new Stack<>();
+		for ( int i = args.length - 1 ; i >= 0 ; i-- ) {
+			argStack.push( args[i] );
+		}
 		
 		final String testFile = "/home/tgierke/workspace/voipmanager/voipmngr/voipmngr/build.xml";
 		if ( ArrayUtils.isEmpty( args ) && new File(testFile).exists() ) 
@@ -39,23 +42,76 @@ public class Main {
 		}
 		
 		File file = null;
+		boolean benchmark = false;
+		boolean usePathIndex = false;
+		boolean useEditScriptStore = false;
+		boolean preloadRevisions = false;
+		long blobCacheBytes = BlobCache.DEFAULT_HEAP_BYTES;
+		int scanThreads = Runtime.getRuntime().availableProcessors();
 		while ( ! argStack.isEmpty() ) {
 			if ( "-d".equals( argStack.peek() ) ) {
 				DEBUG_MODE = true;
 				argStack.pop();
+			} else if ( "-b".equals( argStack.peek() ) ) {
+				benchmark = true;
+				argStack.pop();
+			} else if ( "-i".equals( argStack.peek() ) ) {
+				usePathIndex = true;
+				argStack.pop();
+			} else if ( "-e".equals( argStack.peek() ) ) {
+				useEditScriptStore = true;
+				argStack.pop();
+			} else if ( "-p".equals( argStack.peek() ) ) {
+				preloadRevisions = true;
+				argStack.pop();
+			} else if ( "-m".equals( argStack.peek() ) ) {
+				argStack.pop();
+				if ( argStack.isEmpty() || ! argStack.peek().matches("[0-9]+") ) {
+					System.err.println("ERROR: -m requires the blob cache size in megabytes");
+					return;
+				}
+				blobCacheBytes = Long.parseLong( argStack.pop() ) * 1024 * 1024;
+			} else if ( "-j".equals( argStack.peek() ) ) {
+				argStack.pop();
+				if ( argStack.isEmpty() || ! argStack.peek().matches("[0-9]+") ) {
+					System.err.println("ERROR: -j requires the number of threads to use");
+					return;
+				}
+				scanThreads = Integer.parseInt( argStack.pop() );
 			} else {
-				file = new File( argStack.pop() );
+				file = new File( argStack.pop() ).getAbsoluteFile();
 			}
 		}
 		
 		if ( file == null )
 		{
 			System.err.println("ERROR: Invalid command line.");
-			System.err.println("Usage: [-d] <versioned file>\n");
+			System.err.println("Usage: [-d] [-b] [-i] [-e] [-p] [-j <threads>] [-m <megabytes>] <versioned file>\n");
+			System.err.println("-d : enable debug output");
+			System.err.println("-b : benchmark change detection instead of opening the UI");
+			System.err.println("-i : use (and update) the persistent path index in .git/git-timelapse");
+			System.err.println("-e : use (and update) the persistent store of computed diffs in .git/git-timelapse");
+			System.err.println("-p : load all revisions into the blob cache once the history has been scanned");
+			System.err.println("-j : number of threads to use when scanning the history (default: number of CPUs)");
+			System.err.println("-m : size of the in-memory blob cache in megabytes (default: "+(BlobCache.DEFAULT_HEAP_BYTES/1024/1024)+")\n");
 			return;
 		}
 		
 		final GitHelper helper = new GitHelper(file.getParentFile());
+		helper.setScanThreads( Math.max( 1 , scanThreads ) );
+		helper.setUsePathIndex( usePathIndex );
+		helper.setUseEditScriptStore( useEditScriptStore );
+		helper.setPreloadRevisions( preloadRevisions );
+		helper.getBlobCache().setMaxHeapBytes( blobCacheBytes );
+		
+		if ( benchmark ) {
+			try {
+				new ChangeDetectionBenchmark( helper ).run( file , 3 );
+			} finally {
+				helper.close();
+			}
+			return;
+		}
 		
 		MyFrame frame = new MyFrame(file,helper);
 		frame.setPreferredSize(new Dimension(640,480));
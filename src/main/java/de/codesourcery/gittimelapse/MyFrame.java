@@ -18,67 +18,155 @@ package de.codesourcery.gittimelapse;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
-import java.lang.reflect.InvocationTargetException;
 import java.util.*;
-import java.util.Map.Entry;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.*;
+import javax.swing.Timer;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Element;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
 
 import org.apache.commons.lang.StringUtils;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.api.errors.PatchApplyException;
-import org.eclipse.jgit.diff.DiffFormatter;
-import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.EditList;
 import org.eclipse.jgit.errors.*;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.PersonIdent;
-import org.eclipse.jgit.patch.Patch;
-import org.eclipse.jgit.revwalk.RevCommit;
 
-import de.codesourcery.gittimelapse.GitHelper.ICommitVisitor;
 import de.codesourcery.gittimelapse.GitHelper.IProgressCallback;
-import de.codesourcery.gittimelapse.TextFile.ChangeType;
 
 public class MyFrame extends JFrame {
 
 	private final File file;
 	private final DiffPanel diffPanel;
-	private final JSlider revisionSlider;
+	private final RevisionTimeline revisionTimeline = new RevisionTimeline();
+	private final JCheckBox timeAxisCheckbox = new JCheckBox("Time axis");
 	private final GitHelper gitHelper;
 	private final GitHelper.CommitList commitList;
 	private final JComboBox<DiffDisplayMode> diffModeChooser = new JComboBox<>();
 
 	private boolean adjustmentListenerActive = true;
+	private boolean disposed;
+	// whether the window was closed by the user
+	private boolean exitOnDispose;
+
+	// commit batches found by the background history scan that have not been merged into commitList yet
+	private final List<GitHelper.CommitList> pendingBatches = new ArrayList<>();
+	private final CountDownLatch firstBatchReceived = new CountDownLatch(1);
+	private volatile Exception historyScanError;
+	private volatile boolean uiReady;
+	private boolean ignoreSliderEvents;
+
+	// while the slider is being dragged, previews of the revision under the slider are rendered at most once per frame
+	private static final int SCRUB_FRAME_MILLIS = 40;
+	private final Timer scrubTimer;
+	private int lastScrubbedIndex = -1;
+
+	private final Runnable mergeBatchesTask = new Runnable() {
+
+		@Override
+		public void run() {
+			mergePendingBatches();
+		}
+	};
 
-	protected static final class LineOffsets 
+	/**
+	 * Everything the render thread needs to know about a revision, looked up on the EDT.
+	 */
+	protected static final class RenderRequest 
 	{
-		public final int lineNumber;
-		public final int start;
-		public final int end;
+		public final long generation;
+		public final ObjectId previous;
+		public final ObjectId previousBlob;
+		public final ObjectId current;
+		public final ObjectId currentBlob;
+		public final boolean align;
+		// whether a quick preview is sufficient, see DiffPanel#showRevision(ObjectId, boolean)
+		public final boolean preview;
+		public final String previousInfo;
+		public final String currentInfo;
+
+		public RenderRequest(long generation, ObjectId previous,ObjectId previousBlob, ObjectId current, ObjectId currentBlob, boolean align, boolean preview,
+				String previousInfo,String currentInfo) 
+		{
+			this.generation = generation;
+			this.previous = previous;
+			this.previousBlob = previousBlob;
+			this.current = current;
+			this.currentBlob = currentBlob;
+			this.align = align;
+			this.preview = preview;
+			this.previousInfo = previousInfo;
+			this.currentInfo = currentInfo;
+		}
+	}
 
-		public LineOffsets(int lineNumber,int start,int end) {
-			if ( lineNumber < 0 ) {
-				throw new IllegalArgumentException("Invalid line number");
-			}
-			if ( start < 0 || end < 0 ) {
-				throw new IllegalArgumentException("Invalid line start/end offset");
-			}
-			if ( end < start ) {
-				throw new IllegalArgumentException("Invalid line start/end offset");
-			}
-			this.lineNumber = lineNumber;
-			this.start=start;
-			this.end=end;
+	/**
+	 * Fully rendered revision, ready to be swapped into the UI.
+	 */
+	protected static final class RenderedRevision 
+	{
+		public final long generation;
+		public final String previousInfo;
+		public final String currentInfo;
+		// NULL for the first revision
+		public final ObjectId previousBlob;
+		public final ObjectId currentBlob;
+		// NULL if either revision is a large blob
+		public final SideBySideDiff diff;
+		// NULL for previews and diffs that are too large to be displayed in text panes
+		public final StyledDocument previousDocument;
+		public final StyledDocument currentDocument;
+		// only set if either revision is a large blob, both are displayed without a diff then
+		public final LargeBlob previousLargeBlob;
+		public final LargeBlob currentLargeBlob;
+
+		public RenderedRevision(long generation, String previousInfo,String currentInfo, ObjectId previousBlob, ObjectId currentBlob,
+				SideBySideDiff diff,StyledDocument previousDocument,StyledDocument currentDocument) 
+		{
+			this.generation = generation;
+			this.previousInfo = previousInfo;
+			this.currentInfo = currentInfo;
+			this.previousBlob = previousBlob;
+			this.currentBlob = currentBlob;
+			this.diff = diff;
+			this.previousDocument = previousDocument;
+			this.currentDocument = currentDocument;
+			this.previousLargeBlob = null;
+			this.currentLargeBlob = null;
 		}
 
-		public boolean containsOffset(int offset) {
-			return start <= offset && offset < end;
+		public RenderedRevision(long generation, String previousInfo,String currentInfo, ObjectId previousBlob, ObjectId currentBlob,
+				LargeBlob previousLargeBlob,LargeBlob currentLargeBlob) 
+		{
+			this.generation = generation;
+			this.previousInfo = previousInfo;
+			this.currentInfo = currentInfo;
+			this.previousBlob = previousBlob;
+			this.currentBlob = currentBlob;
+			this.diff = null;
+			this.previousDocument = null;
+			this.currentDocument = null;
+			this.previousLargeBlob = previousLargeBlob;
+			this.currentLargeBlob = currentLargeBlob;
 		}
-	}	
+
+		public boolean isLargeBlob() {
+			return diff == null;
+		}
+	}
 
 	protected static enum DiffDisplayMode {
 		ALIGN_CHANGES,
@@ -89,11 +177,11 @@ public class MyFrame extends JFrame {
 
 		public void keyReleased(java.awt.event.KeyEvent e) 
 		{
-			int currentRevisionIndex = revisionSlider.getValue();
-			if ( e.getKeyCode() == KeyEvent.VK_LEFT && currentRevisionIndex > 1 ) {
-				revisionSlider.setValue( currentRevisionIndex - 1 );
-			} else if ( e.getKeyCode() == KeyEvent.VK_RIGHT && currentRevisionIndex < commitList.size() ) {
-				revisionSlider.setValue( currentRevisionIndex + 1 );
+			int currentRevisionIndex = revisionTimeline.getSelectedIndex();
+			if ( e.getKeyCode() == KeyEvent.VK_LEFT && currentRevisionIndex > 0 ) {
+				revisionTimeline.setSelectedIndex( currentRevisionIndex - 1 );
+			} else if ( e.getKeyCode() == KeyEvent.VK_RIGHT && currentRevisionIndex < commitList.size() - 1 ) {
+				revisionTimeline.setSelectedIndex( currentRevisionIndex + 1 );
 			}
 		}
 	};
@@ -116,18 +204,33 @@ public class MyFrame extends JFrame {
 		dialog.pack();
 		dialog.setVisible(true);
 
-		final IProgressCallback callback = new IProgressCallback() {
+		if ( Main.DEBUG_MODE ) {
+			System.out.println("Locating commits...");
+		}
+		commitList = gitHelper.createCommitList( file );
+		startHistoryScan();
+		try {
+			firstBatchReceived.await();
+		} 
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( e );
+		}
+		finally {
+			dialog.setVisible(false);
+		}
 
-			@Override
-			public void foundCommit(ObjectId commitId) {
-				System.out.println("*** Found commit "+commitId);
+		if ( historyScanError != null ) {
+			throw new RuntimeException( "Failed to locate revisions: "+historyScanError.getMessage() , historyScanError );
+		}
+		
+		synchronized( pendingBatches ) 
+		{
+			for ( GitHelper.CommitList batch : pendingBatches ) {
+				commitList.addOlder( batch );
 			}
-		};
-
-		System.out.println("Locating commits...");
-		commitList = gitHelper.findCommits( file , callback );
-
-		dialog.setVisible(false);
+			pendingBatches.clear();
+		}
 
 		if ( commitList.isEmpty() ) {
 			throw new RuntimeException("Found no commits");
@@ -141,12 +244,8 @@ public class MyFrame extends JFrame {
 			@Override
 			public void actionPerformed(ActionEvent e) 
 			{
-				final ObjectId commit = commitList.getCommit(revisionSlider.getValue()-1);
-				try {
-					diffPanel.showRevision( commit );
-				} catch (IOException | PatchApplyException e1) {
-					e1.printStackTrace();
-				}				
+				final ObjectId commit = commitList.getCommit( revisionTimeline.getSelectedIndex() );
+				diffPanel.showRevision( commit );
 			}
 		});
 
@@ -173,48 +272,59 @@ public class MyFrame extends JFrame {
 			}
 		});
 
-		revisionSlider = new JSlider( 1 , commitList.size() );
+		timeAxisCheckbox.addActionListener( new ActionListener() {
 
-		revisionSlider.setPaintLabels(true);
-		revisionSlider.setPaintTicks(true);
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				revisionTimeline.setTimeAxis( timeAxisCheckbox.isSelected() );
+			}
+		});
+		revisionTimeline.addKeyListener( keyListener );
 
 		addKeyListener( keyListener );
 		getContentPane().addKeyListener( keyListener );
 
-		if ( commitList.size() < 10 ) {
-			revisionSlider.setMajorTickSpacing(1);
-			revisionSlider.setMinorTickSpacing(1);
-		} else {
-			revisionSlider.setMajorTickSpacing(5);
-			revisionSlider.setMinorTickSpacing(1);
-		}
+		revisionTimeline.setCommitTimes( commitList.getCommitTimes() );
 
 		final ObjectId latestCommit = commitList.getLatestCommit();
 		if ( latestCommit != null ) {
-			revisionSlider.setValue( 1 + commitList.indexOf( latestCommit ) );
-			revisionSlider.setToolTipText( latestCommit.getName() );
+			revisionTimeline.setSelectedIndex( commitList.indexOf( latestCommit ) );
 		}
 
-		revisionSlider.addChangeListener( new ChangeListener() {
+		scrubTimer = new Timer( SCRUB_FRAME_MILLIS , new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) 
+			{
+				if ( revisionTimeline.getValueIsAdjusting() && revisionTimeline.getSelectedIndex() != lastScrubbedIndex ) 
+				{
+					lastScrubbedIndex = revisionTimeline.getSelectedIndex();
+					diffPanel.showRevision( commitList.getCommit( lastScrubbedIndex ) , true );
+				}
+			}
+		});
+		scrubTimer.setRepeats( false );
+
+		revisionTimeline.addChangeListener( new ChangeListener() {
 
 			@Override
 			public void stateChanged(ChangeEvent e) 
 			{
-				if ( ! revisionSlider.getValueIsAdjusting() ) 
+				if ( ignoreSliderEvents ) {
+					return;
+				}
+				if ( revisionTimeline.getValueIsAdjusting() ) 
 				{
-					final ObjectId commit = commitList.getCommit(revisionSlider.getValue()-1);
-					long time = -System.currentTimeMillis();
-					try {
-						diffPanel.showRevision( commit );
-					} catch (IOException | PatchApplyException e1) {
-						e1.printStackTrace();
-					} finally {
-						time += System.currentTimeMillis();
-					}
-					if ( Main.DEBUG_MODE ) {
-						System.out.println("Rendering time: "+time);
+					// coalesce events, only the slider position at the end of the frame gets rendered
+					if ( ! scrubTimer.isRunning() ) {
+						scrubTimer.start();
 					}
+					return;
 				}
+				scrubTimer.stop();
+				lastScrubbedIndex = -1;
+				final ObjectId commit = commitList.getCommit( revisionTimeline.getSelectedIndex() );
+				diffPanel.showRevision( commit );
 			}
 		});
 
@@ -239,24 +349,174 @@ public class MyFrame extends JFrame {
 		cnstrs = new GridBagConstraints();
 		cnstrs.gridx=2 ; cnstrs.gridy=0;
 		cnstrs.gridwidth=1; cnstrs.gridheight=1;
+		cnstrs.weightx=0; cnstrs.weighty=0;
+		cnstrs.fill = GridBagConstraints.NONE;
+
+		getContentPane().add( timeAxisCheckbox , cnstrs );
+
+		cnstrs = new GridBagConstraints();
+		cnstrs.gridx=3 ; cnstrs.gridy=0;
+		cnstrs.gridwidth=1; cnstrs.gridheight=1;
 		cnstrs.weightx=1.0; cnstrs.weighty=0;
 		cnstrs.fill = GridBagConstraints.HORIZONTAL;		
 
-		getContentPane().add( revisionSlider , cnstrs );
+		getContentPane().add( revisionTimeline , cnstrs );
 
 		cnstrs = new GridBagConstraints();
 		cnstrs.gridx=0 ; cnstrs.gridy=1;
-		cnstrs.gridwidth=3; cnstrs.gridheight=1;
+		cnstrs.gridwidth=4; cnstrs.gridheight=1;
 		cnstrs.weightx=1; cnstrs.weighty=1;
 		cnstrs.fill = GridBagConstraints.BOTH;			
 
 		getContentPane().add( diffPanel , cnstrs );
 
-		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);		
+		// the VM exits once background work has stopped, see dispose()
+		setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);		
+		addWindowListener( new WindowAdapter() 
+		{
+			@Override
+			public void windowClosing(WindowEvent e) {
+				exitOnDispose = true;
+				dispose();
+			}
+		});
 
+		diffPanel.setRevisions( commitList.getBlobIds() );
 		if ( latestCommit != null ) {
 			diffPanel.showRevision( latestCommit );
 		}
+		
+		uiReady = true;
+		SwingUtilities.invokeLater( mergeBatchesTask );
+	}
+
+	/**
+	 * Stops all background work and closes the {@link GitHelper} this frame was created with.
+	 *
+	 * <p>Waiting for background work to finish happens on a separate thread, so the EDT isn't blocked.</p>
+	 */
+	@Override
+	public void dispose() 
+	{
+		super.dispose();
+		if ( ! disposed ) 
+		{
+			disposed = true;
+			final boolean exit = exitOnDispose;
+			final Thread thread = new Thread( "frame-shutdown" ) 
+			{
+				@Override
+				public void run() 
+				{
+					try {
+						diffPanel.shutdown();
+						gitHelper.close();
+					} 
+					finally 
+					{
+						if ( exit ) {
+							System.exit(0);
+						}
+					}
+				}
+			};
+			thread.start();
+		}
+	}
+
+	private void startHistoryScan() 
+	{
+		final IProgressCallback callback = new IProgressCallback() {
+
+			@Override
+			public void foundCommits(GitHelper.CommitList batch) 
+			{
+				if ( Main.DEBUG_MODE ) {
+					System.out.println("*** Found "+batch.size()+" commits");
+				}
+				synchronized( pendingBatches ) {
+					pendingBatches.add( batch );
+				}
+				firstBatchReceived.countDown();
+				SwingUtilities.invokeLater( mergeBatchesTask );
+			}
+		};
+
+		final Thread thread = new Thread("history-scan") 
+		{
+			@Override
+			public void run() 
+			{
+				long time = -System.currentTimeMillis();
+				try {
+					final GitHelper.CommitList commits = gitHelper.findCommits( file , callback );
+					if ( gitHelper.isPreloadRevisions() ) {
+						System.out.println("Preloaded revisions: "+gitHelper.preloadRevisions( commits ));
+					}
+				} 
+				catch (Exception e) 
+				{
+					e.printStackTrace();
+					historyScanError = e;
+				} 
+				finally 
+				{
+					gitHelper.getSession().releaseThread();
+					if ( Main.DEBUG_MODE ) {
+						time += System.currentTimeMillis();
+						System.out.println("History scan finished after "+time+" ms");
+					}
+					firstBatchReceived.countDown();
+				}
+			}
+		};
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	/**
+	 * Merges commits found by the background history scan into the commit list and
+	 * extends the slider range accordingly.
+	 * 
+	 * <p>Must only be invoked on the EDT.</p>
+	 */
+	private void mergePendingBatches() 
+	{
+		if ( ! uiReady ) {
+			return;
+		}
+
+		final List<GitHelper.CommitList> batches;
+		synchronized( pendingBatches ) 
+		{
+			if ( pendingBatches.isEmpty() ) {
+				return;
+			}
+			batches = new ArrayList<>( pendingBatches );
+			pendingBatches.clear();
+		}
+
+		final ObjectId currentCommit = commitList.getCommit( revisionTimeline.getSelectedIndex() );
+		final boolean showingOldest = commitList.indexOf( currentCommit ) == 0;
+		for ( GitHelper.CommitList batch : batches ) {
+			commitList.addOlder( batch );
+		}
+		diffPanel.setRevisions( commitList.getBlobIds() );
+
+		// older commits have been added in front, keep the timeline at the same commit
+		ignoreSliderEvents = true;
+		try {
+			revisionTimeline.setCommitTimes( commitList.getCommitTimes() );
+			revisionTimeline.setSelectedIndex( commitList.indexOf( currentCommit ) );
+		} finally {
+			ignoreSliderEvents = false;
+		}
+
+		if ( showingOldest ) 
+		{
+			// previous revision is now available
+			diffPanel.showRevision( currentCommit );
+		}
 	}
 
 	private MenuBar createMenuBar() {
@@ -290,6 +550,22 @@ public class MyFrame extends JFrame {
 		return menuBar;
 	}
 
+	/*
+	 * Text pane that does not wrap lines, line number gutters expect one row per line.
+	 */
+	protected final static JTextPane createTextPane() 
+	{
+		final JTextPane result = new JTextPane() 
+		{
+			@Override
+			public boolean getScrollableTracksViewportWidth() {
+				return getParent() instanceof JViewport && getParent().getWidth() > getUI().getPreferredSize( this ).width;
+			}
+		};
+		result.setEditorKit( new DiffDocument.RowEditorKit() );
+		return result;
+	}
+
 	protected final static SimpleAttributeSet createStyle(Color color) 
 	{
 		SimpleAttributeSet result = new SimpleAttributeSet();
@@ -299,8 +575,33 @@ public class MyFrame extends JFrame {
 
 	protected final class DiffPanel extends JPanel 
 	{
-		private final JTextPane currentRevisionText = new JTextPane();
-		private final JTextPane previousRevisionText = new JTextPane();
+		// diffs with more rows are displayed in DiffViews instead of text panes
+		private static final int LARGE_DIFF_ROWS = 20000;
+
+		// large blobs opened recently, only accessed by the render thread until shutdown() stopped it
+		private static final int MAX_LARGE_BLOBS = 4;
+		private final Map<ObjectId,LargeBlob> largeBlobs = new LinkedHashMap<ObjectId,LargeBlob>( 16 , 0.75f , true ) 
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ObjectId,LargeBlob> eldest) 
+			{
+				if ( size() > MAX_LARGE_BLOBS ) 
+				{
+					evictedLargeBlobs.add( eldest.getValue() );
+					return true;
+				}
+				return false;
+			}
+		};
+		// large blobs evicted by the render thread, closed by the EDT once they are no longer displayed (see publish())
+		private final Queue<LargeBlob> evictedLargeBlobs = new ConcurrentLinkedQueue<>();
+
+		private final JTextPane currentRevisionText = createTextPane();
+		private final JTextPane previousRevisionText = createTextPane();
+
+		private final DiffView currentRevisionView = new DiffView( Color.GREEN , Color.RED );
+		private final DiffView previousRevisionView = new DiffView( Color.GREEN , Color.RED );
+		private boolean showingLargeDiff;
 
 		private final JTextArea currentRevisionInfo = new JTextArea();
 		private final JTextArea previousRevisionInfo  = new JTextArea();
@@ -311,18 +612,57 @@ public class MyFrame extends JFrame {
 		private final JScrollPane leftScrollPane;		
 		private final JScrollPane rightScrollPane;
 
-		private final Map<Integer,LineOffsets> lineNumberToOffsets = new HashMap<>();		
-		private int currentLineNumber = -1;		
+		private final DiffEngine diffEngine = new DiffEngine( gitHelper.getRepository() , gitHelper.getEditScriptStore() );
+		private final DiffCache diffCache = new DiffCache();
+		private final DiffPrecomputer precomputer = new DiffPrecomputer( gitHelper , diffEngine , diffCache , 
+				Math.max( 1 , Runtime.getRuntime().availableProcessors() - 1 ) );
+		private final Font font = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+
+		// revisions are rendered on a single background thread, only the latest request gets published
+		private final ExecutorService renderExecutor = Executors.newSingleThreadExecutor( new ThreadFactory() 
+		{
+			@Override
+			public Thread newThread(final Runnable r) 
+			{
+				final Thread thread = new Thread( "revision-renderer" ) 
+				{
+					@Override
+					public void run() 
+					{
+						try {
+							r.run();
+						} 
+						finally {
+							gitHelper.getSession().releaseThread();
+						}
+					}
+				};
+				thread.setDaemon( true );
+				return thread;
+			}
+		});
+		private final AtomicLong renderGeneration = new AtomicLong();
+		private Future<?> pendingRender;
+
+		// revision being displayed
+		private RenderedRevision shownRevision;
+
+		// line at the top of the right pane, as a line of the blobs on either side so it can be found in the next revision
+		private ObjectId anchorCurrentBlob;
+		private int anchorCurrentLine = -1;
+		private ObjectId anchorPreviousBlob;
+		private int anchorPreviousLine = -1;
+		// pixels the top row is scrolled out of view
+		private int anchorOffset;
 		
-		private TextLineNumber previousLineNumbersComponent;
-		private TextLineNumber currentLineNumbersComponent;
+		private final LineNumberGutter previousLineNumbersComponent = new LineNumberGutter( previousRevisionText , 4 );
+		private final LineNumberGutter currentLineNumbersComponent = new LineNumberGutter( currentRevisionText , 4 );
 
 		public DiffPanel() 
 		{
 			deletedLineStyle = createStyle( Color.RED );
 			addedLineStyle = createStyle( Color.GREEN );
 
-			final Font font = new Font(Font.MONOSPACED, Font.PLAIN, 12);
 
 			currentRevisionInfo.addKeyListener( keyListener );
 			previousRevisionInfo.addKeyListener( keyListener );
@@ -331,6 +671,10 @@ public class MyFrame extends JFrame {
 			previousRevisionInfo.setFont(font);
 			currentRevisionText.setFont(font);
 			previousRevisionText.setFont(font);
+			currentRevisionView.setFont(font);
+			previousRevisionView.setFont(font);
+			currentRevisionView.addKeyListener( keyListener );
+			previousRevisionView.addKeyListener( keyListener );
 
 			currentRevisionInfo.setRows( 5 );
 			currentRevisionInfo.setColumns( 40 );
@@ -343,8 +687,8 @@ public class MyFrame extends JFrame {
 			currentRevisionText.setEditable(false);
 			previousRevisionText.setEditable(false);
 			
-			previousLineNumbersComponent = new TextLineNumber(previousRevisionText,4);
-			currentLineNumbersComponent = new TextLineNumber(currentRevisionText,4);				
+			previousRevisionText.addCaretListener( previousLineNumbersComponent );
+			currentRevisionText.addCaretListener( currentLineNumbersComponent );
 
 			setLayout(new BorderLayout() );
 
@@ -422,7 +766,7 @@ public class MyFrame extends JFrame {
 			add( compoundPanel , BorderLayout.CENTER );
 		}
 		
-		private JPanel createTextComponentWithLineNumbers(TextLineNumber tl,JScrollPane scrollPane) 
+		private JPanel createTextComponentWithLineNumbers(LineNumberGutter tl,JScrollPane scrollPane) 
 		{
 			final JPanel lineNumbersAndText = new JPanel();
 			lineNumbersAndText.setLayout( new GridBagLayout() );
@@ -446,136 +790,276 @@ public class MyFrame extends JFrame {
 			return lineNumbersAndText;
 		}
 
-		public void showRevision(ObjectId current) throws IOException, PatchApplyException {
-			showRevisions(commitList.getPredecessor(current),current);
-		}
-
-		private void rememberCaretPosition() 
-		{
-			final int leftCaretPosition = previousRevisionText.viewToModel( getPoint( leftScrollPane ) );
-			final int rightCaretPosition = currentRevisionText.viewToModel( getPoint( rightScrollPane ) );			
-			int leftLine = -1;
-			if ( leftCaretPosition >= 0 ) {
-				leftLine = previousRevisionText.getDocument().getDefaultRootElement().getElementIndex( leftCaretPosition );
-				previousRevisionText.setCaretPosition( leftCaretPosition );				
-			}
-			if ( rightCaretPosition >= 0 ) 
-			{
-				currentLineNumber= currentRevisionText.getDocument().getDefaultRootElement().getElementIndex( rightCaretPosition );
-				currentRevisionText.setCaretPosition( rightCaretPosition );
-			}			
-			if ( Main.DEBUG_MODE) {
-				System.out.println("Right Caret position "+rightCaretPosition+" => line "+currentLineNumber);
-				System.out.println("Left Caret position "+leftCaretPosition+" => line "+leftLine);
-			}
-		}
-		
-		private Point getPoint(JScrollPane pane) {
-			JViewport rightViewport = (JViewport) rightScrollPane.getViewport();
-			Rectangle rightViewRect = rightViewport.getViewRect();
-			return rightViewRect.getLocation();
+		/**
+		 * Schedules rendering of a revision (along with its predecessor) on the background render thread.
+		 * 
+		 * <p>Any render job for a revision requested earlier is cancelled. Must only be invoked on the EDT.</p>
+		 * 
+		 * @param current
+		 */
+		public void showRevision(ObjectId current) {
+			showRevision( current , false );
 		}
 
-		public final void restoreCaretPosition()
+		/**
+		 * Schedules rendering of a revision (along with its predecessor) on the background render thread.
+		 * 
+		 * <p>A preview is displayed without building styled documents. If the diff in the selected display mode
+		 * is not cached, the (cheaper) unaligned diff is displayed instead.</p>
+		 * 
+		 * @param current
+		 * @param preview whether to render a quick preview, used while scrubbing through revisions
+		 */
+		public void showRevision(ObjectId current,boolean preview) 
 		{
-			if ( currentLineNumber < 0 ) {
-				return;
-			}
-
-			final int caretPosition = lineNumberToOffset( currentLineNumber );
-			if ( Main.DEBUG_MODE ) {
-				System.out.println("restoreCaretPosition(): Line "+currentLineNumber+" => offset "+caretPosition);
+			final int index = commitList.indexOf( current );
+			final ObjectId previous = commitList.getPredecessor( current );
+			// commit list is not thread-safe, look up everything the render thread needs now
+			final RenderRequest request = new RenderRequest( renderGeneration.incrementAndGet() , 
+					previous , previous != null ? commitList.getBlobId( previous ) : null ,
+					current , commitList.getBlobId( current ) , 
+					diffModeChooser.getSelectedItem() == DiffDisplayMode.ALIGN_CHANGES , preview ,
+					commitInfo( index - 1 ) , commitInfo( index ) );
+
+			precomputer.setFocus( index , request.align );
+
+			if ( pendingRender != null ) {
+				pendingRender.cancel( false );
 			}
-			if ( caretPosition < 0 ) {
-				return;
-			}
-
-			final Runnable r = new Runnable() 
+			pendingRender = renderExecutor.submit( new Runnable() 
 			{
 				@Override
 				public void run() 
 				{
-					currentRevisionText.setCaretPosition( caretPosition );
+					try 
+					{
+						final RenderedRevision result = render( request );
+						if ( result != null ) 
+						{
+							SwingUtilities.invokeLater( new Runnable() {
+
+								@Override
+								public void run() {
+									publish( result );
+								}
+							});
+						}
+					} 
+					catch (Exception e) {
+						e.printStackTrace();
+					}
 				}
-			};
+			});
+		}
 
-			if ( SwingUtilities.isEventDispatchThread() ) 
-			{
-				r.run();
+		/**
+		 * Stops the precomputer and the render thread, waiting for work that is still running, 
+		 * and closes all large blobs. Must not be called on the EDT.
+		 */
+		public void shutdown() 
+		{
+			precomputer.shutdown();
+			renderExecutor.shutdownNow();
+			boolean terminated = false;
+			try {
+				terminated = renderExecutor.awaitTermination( 10 , TimeUnit.SECONDS );
 			} 
-			else 
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if ( terminated ) 
 			{
-				try {
-					SwingUtilities.invokeAndWait( r );
-				} 
-				catch (InvocationTargetException | InterruptedException e) { /* can't help it */ }
+				for ( LargeBlob blob : largeBlobs.values() ) {
+					blob.close();
+				}
+				largeBlobs.clear();
 			}
-		}		
+			// the frame is gone, so none of them is displayed any more
+			LargeBlob blob;
+			while ( ( blob = evictedLargeBlobs.poll() ) != null ) {
+				blob.close();
+			}
+		}
 
-		public void showRevisions(ObjectId previous,ObjectId current) throws IOException, PatchApplyException 
-		{
-			populateCommitInfo( previousRevisionInfo , previous );
-			populateCommitInfo( currentRevisionInfo , current );
+		/**
+		 * Sets the revisions to precompute diffs for in the background.
+		 * 
+		 * @param blobIds
+		 * @see DiffPrecomputer#setRevisions(ObjectId[])
+		 */
+		public void setRevisions(ObjectId[] blobIds) {
+			precomputer.setRevisions( blobIds );
+		}
 
-			final byte[] currentFile = commitList.readFile( current );
+		private boolean isStale(RenderRequest request) {
+			return request.generation != renderGeneration.get();
+		}
 
-			rememberCaretPosition();
+		/*
+		 * Runs on the render thread, returns NULL if the request 
+		 * was superseded by a newer one while rendering.
+		 */
+		private RenderedRevision render(RenderRequest request) throws IOException 
+		{
+			long time = -System.currentTimeMillis();
 
-			adjustmentListenerActive = false; // disable scrollbar adjustment listener so we don't overwrite the caret position we just remembered 
-			try 
+			if ( gitHelper.isLargeBlob( request.currentBlob ) || ( request.previousBlob != null && gitHelper.isLargeBlob( request.previousBlob ) ) ) {
+				return renderLargeBlobs( request );
+			}
+
+			final byte[] currentFile = gitHelper.readBlob( request.currentBlob );
+			SideBySideDiff sideBySide;
+			if ( request.previous == null ) 
 			{
-				if ( previous == null ) {
-					final byte[] currentRev = current != null ? currentFile : new byte[0];
-					setCurrentText( toString( currentRev ) );
-					previousRevisionText.setText( "" );		
-					restoreCaretPosition();
-					return;
+				sideBySide = SideBySideDiff.create( new byte[0] , currentFile , new EditList() , false );
+			} 
+			else 
+			{
+				sideBySide = diffCache.get( request.previousBlob , request.currentBlob , request.align );
+				if ( sideBySide == null && request.preview ) {
+					sideBySide = diffCache.get( request.previousBlob , request.currentBlob , false );
 				}
-
-				if ( diffModeChooser.getSelectedItem() == DiffDisplayMode.REGULAR ) 
+				if ( sideBySide == null ) 
 				{
-					final byte[] diff = diff(previous,current);
-
-					final RawText previousText = new RawText( commitList.readFile( previous ) );
-					TextFile tf = new TextFile( previousText );
-
-					previousRevisionText.setText( new TextFile( previousText ).toString() );
+					final byte[] previousFile = gitHelper.readBlob( request.previousBlob );
+					if ( isStale( request ) ) {
+						return null;
+					}
+					final boolean align = request.align && ! request.preview;
+					final EditList edits = diffEngine.diff( request.previousBlob , previousFile , request.currentBlob , currentFile );
+					sideBySide = SideBySideDiff.create( previousFile , currentFile , edits , align );
+					diffCache.put( request.previousBlob , request.currentBlob , align , sideBySide );
+				}
+			}
+			if ( isStale( request ) ) {
+				return null;
+			}
 
-					Patch patch = new Patch();
-					patch.parse( new ByteArrayInputStream(diff ) );				
-					tf.forwardsPatch( patch );
-					highlightText(previousRevisionText, tf );
+			StyledDocument previousDocument = null;
+			StyledDocument currentDocument = null;
+			if ( ! request.preview && ! isLargeDiff( sideBySide ) ) 
+			{
+				previousDocument = DiffDocument.create( sideBySide.getPrevious() , font , addedLineStyle , deletedLineStyle );
+				currentDocument = DiffDocument.create( sideBySide.getCurrent() , font , addedLineStyle , deletedLineStyle );
+			}
 
-					tf = new TextFile( previousText );
+			if ( Main.DEBUG_MODE ) {
+				time += System.currentTimeMillis();
+				System.out.println("Rendering time: "+time+" ms , blob cache: "+gitHelper.getBlobCache()+" , diff cache: "+diffCache+" , precomputed: "+precomputer.getComputedCount()+
+						( gitHelper.getEditScriptStore() != null ? " , edit script store: "+gitHelper.getEditScriptStore() : "" ) );
+			}
+			return new RenderedRevision( request.generation , request.previousInfo , request.currentInfo , request.previousBlob , request.currentBlob , sideBySide , previousDocument , currentDocument );
+		}
 
-					patch = new Patch();
-					patch.parse( new ByteArrayInputStream(diff ) );
-					tf.backwardsPatch( patch );
-					setCurrentText( tf.toString() );
-					highlightText(currentRevisionText, tf );
+		/*
+		 * Runs on the render thread, displays both revisions without a diff since at least one of them is too large to be loaded into memory.
+		 */
+		private RenderedRevision renderLargeBlobs(RenderRequest request) throws IOException 
+		{
+			final LargeBlob previous = request.previousBlob != null ? getLargeBlob( request.previousBlob ) : null;
+			if ( isStale( request ) ) {
+				return null;
+			}
+			final LargeBlob current = getLargeBlob( request.currentBlob );
+			if ( isStale( request ) ) {
+				return null;
+			}
+			return new RenderedRevision( request.generation , 
+					request.previousInfo + ( previous != null ? largeBlobInfo( previous ) : "" ) , 
+					request.currentInfo + largeBlobInfo( current ) , 
+					request.previousBlob , request.currentBlob , previous , current );
+		}
 
-					restoreCaretPosition();				
-					return;
+		private LargeBlob getLargeBlob(ObjectId blobId) throws IOException 
+		{
+			LargeBlob result = largeBlobs.get( blobId );
+			if ( result == null ) 
+			{
+				long time = -System.currentTimeMillis();
+				result = gitHelper.openLargeBlob( blobId );
+				largeBlobs.put( result.getBlobId() , result );
+				if ( Main.DEBUG_MODE ) {
+					time += System.currentTimeMillis();
+					System.out.println("Opened large blob "+result+" in "+time+" ms");
 				}
+			}
+			return result;
+		}
 
-				// old text
-				final RawText previousFile = new RawText( commitList.readFile( previous ) );		
-				final byte[] diff = diff(previous,current);
+		/*
+		 * Closes evicted large blobs unless they are still displayed, runs on the EDT. Blobs still 
+		 * displayed stay queued until a later call.
+		 */
+		private void closeEvictedLargeBlobs() 
+		{
+			for ( Iterator<LargeBlob> it = evictedLargeBlobs.iterator() ; it.hasNext() ; ) 
+			{
+				final LargeBlob blob = it.next();
+				if ( shownRevision == null || ( blob != shownRevision.previousLargeBlob && blob != shownRevision.currentLargeBlob ) ) 
+				{
+					blob.close();
+					it.remove();
+				}
+			}
+		}
 
-				final TextFile textAndAttributes = generateDiff( diff , previousFile , current ) ;
-				previousRevisionText.setText( textAndAttributes.toString() );
+		private String largeBlobInfo(LargeBlob blob) {
+			return line("Size" , (blob.getSize()/1024)+" KB , "+blob.getLineCount()+" lines (too large to diff)" );
+		}
 
-				highlightText(previousRevisionText,textAndAttributes);
+		/*
+		 * Swaps in a rendered revision, runs on the EDT.
+		 */
+		private void publish(RenderedRevision revision) 
+		{
+			if ( revision.generation != renderGeneration.get() ) {
+				return;
+			}
 
-				// new text
+			rememberCaretPosition();
 
-				final TextFile tf = new TextFile( new RawText( currentFile ) );
-				final Patch patch = new Patch();
-				patch.parse( new ByteArrayInputStream( diff( current , previous ) ) );
-				tf.backwardsPatchAndAlign( patch );
+			adjustmentListenerActive = false; // disable scrollbar adjustment listener so we don't overwrite the caret position we just remembered 
+			try 
+			{
+				shownRevision = revision;
+				closeEvictedLargeBlobs();
+				previousRevisionInfo.setText( revision.previousInfo );
+				currentRevisionInfo.setText( revision.currentInfo );
 
-				setCurrentText( tf.toString() );
-				highlightText( currentRevisionText , tf );
+				showingLargeDiff = revision.previousDocument == null;
+				if ( revision.isLargeBlob() ) 
+				{
+					previousRevisionView.setLargeBlob( revision.previousLargeBlob );
+					currentRevisionView.setLargeBlob( revision.currentLargeBlob );
+					previousRevisionText.setDocument( new DefaultStyledDocument() );
+					currentRevisionText.setDocument( new DefaultStyledDocument() );
+					previousLineNumbersComponent.setPane( null );
+					currentLineNumbersComponent.setPane( null );
+					setView( leftScrollPane , previousRevisionView , previousRevisionView.getLineNumbers() );
+					setView( rightScrollPane , currentRevisionView , currentRevisionView.getLineNumbers() );
+				}
+				else if ( showingLargeDiff ) 
+				{
+					previousRevisionView.setPane( revision.diff.getPrevious() );
+					currentRevisionView.setPane( revision.diff.getCurrent() );
+					previousRevisionText.setDocument( new DefaultStyledDocument() );
+					currentRevisionText.setDocument( new DefaultStyledDocument() );
+					previousLineNumbersComponent.setPane( null );
+					currentLineNumbersComponent.setPane( null );
+					setView( leftScrollPane , previousRevisionView , previousRevisionView.getLineNumbers() );
+					setView( rightScrollPane , currentRevisionView , currentRevisionView.getLineNumbers() );
+				} 
+				else 
+				{
+					previousRevisionText.setDocument( revision.previousDocument );
+					currentRevisionText.setDocument( revision.currentDocument );
+					previousLineNumbersComponent.setPane( revision.diff.getPrevious() );
+					currentLineNumbersComponent.setPane( revision.diff.getCurrent() );
+					previousRevisionView.setPane( null );
+					currentRevisionView.setPane( null );
+					setView( leftScrollPane , previousRevisionText , previousLineNumbersComponent );
+					setView( rightScrollPane , currentRevisionText , currentLineNumbersComponent );
+				}
 
 				restoreCaretPosition();
 			} finally {
@@ -583,145 +1067,152 @@ public class MyFrame extends JFrame {
 			}
 		}
 
-		private int lineNumberToOffset(int lineNumber) 
+		private boolean isLargeDiff(SideBySideDiff diff) {
+			return Math.max( diff.getPrevious().getRowCount() , diff.getCurrent().getRowCount() ) > LARGE_DIFF_ROWS;
+		}
+
+		private void setView(JScrollPane scrollPane,Component view,Component rowHeader) 
 		{
-			for ( LineOffsets l : lineNumberToOffsets.values() ) {
-				if ( l.lineNumber == lineNumber ) {
-					return l.start;
-				}
+			if ( scrollPane.getViewport().getView() != view ) 
+			{
+				scrollPane.setViewportView( view );
+				scrollPane.setRowHeaderView( rowHeader );
 			}
-			return -1;		
 		}
 
-		/**
-		 * 
-		 * @param text
-		 * @param offset
-		 * @return line number (first line has number 0)  or -1 if offset is out-of-bounds
+		/*
+		 * Remembers the line at the top of the right pane as a line of the blobs on both sides,
+		 * so the next revision can be scrolled to the same code. Cheap enough to run on every scroll event.
 		 */
-		private int offsetToLineNumber(int offset) 
+		private void rememberCaretPosition() 
 		{
-			for ( LineOffsets l : lineNumberToOffsets.values() ) {
-				if ( l.containsOffset( offset ) ) {
-					return l.lineNumber;
-				}
+			if ( shownRevision == null ) {
+				return;
 			}
-			return -1;
-		}	
-
-		protected void setCurrentText(String newText) 
-		{
-			this.lineNumberToOffsets.clear();
-
-			int offset1 = 0;
-			int offset2 = 0;
-			int currentLine = 0;
-			final int len = newText.length();
-			for ( int i = 0 ; i < len ; i++ ) 
+			final SideBySideDiff diff = shownRevision.diff;
+			final JComponent view = showingLargeDiff ? currentRevisionView : currentRevisionText;
+			final int rowHeight = view.getFontMetrics( view.getFont() ).getHeight();
+			final int top = view.getInsets().top;
+			final int y = rightScrollPane.getViewport().getViewPosition().y;
+			final int row = Math.max( 0 , y - top ) / rowHeight;
+			if ( shownRevision.isLargeBlob() ) 
 			{
-				final char c = newText.charAt(i);
-				if ( c == '\n' ) {
-					offset1 = offset2;
-					offset2 = i;
-					lineNumberToOffsets.put( currentLine , new LineOffsets(currentLine,offset1,offset2) );
-					currentLine++;
+				// no diff to map lines with, rows are lines on both sides
+				if ( row >= shownRevision.currentLargeBlob.getLineCount() ) {
+					return;
 				}
-			}		
-			currentRevisionText.setText( newText );		
-		}
-
-		private void highlightText(JTextPane editor , final TextFile textAndAttributes) throws IOException 
-		{
-			final Map<Integer, ChangeType> changedLines = textAndAttributes.getChangedLines();
-			int start,end;
-			for ( Entry<Integer, ChangeType> entry : changedLines.entrySet() ) 
+				anchorCurrentLine = anchorPreviousLine = row;
+			}
+			else if ( row >= diff.getCurrent().getRowCount() ) {
+				return;
+			}
+			else
 			{
-				try {
-					switch( entry.getValue() ) 
-					{
-					case ADDED:
-						start = textAndAttributes.getLineStartOffset( entry.getKey() );
-						end = textAndAttributes.getLineEndOffset( entry.getKey() );
-						editor.getStyledDocument().setCharacterAttributes( start , end - start, addedLineStyle , true );
-						break;
-					case DELETED:
-						start = textAndAttributes.getLineStartOffset( entry.getKey() );
-						end = textAndAttributes.getLineEndOffset( entry.getKey() );
-						editor.getStyledDocument().setCharacterAttributes( start , end - start, deletedLineStyle , true );						
-						break;
-					default:
-					}
-				} catch(IndexOutOfBoundsException e) {
-					System.err.println( e.getMessage() );
+				final int line = diff.getCurrent().getLine( row );
+				if ( line != -1 ) 
+				{
+					anchorCurrentLine = line;
+					anchorPreviousLine = diff.toPreviousLine( line );
+				} 
+				else 
+				{
+					// padding row next to a deleted line
+					anchorPreviousLine = diff.getPrevious().getLine( row );
+					anchorCurrentLine = diff.toCurrentLine( anchorPreviousLine );
 				}
 			}
+			anchorCurrentBlob = shownRevision.currentBlob;
+			anchorPreviousBlob = shownRevision.previousBlob;
+			anchorOffset = y - top - row * rowHeight;
+			if ( Main.DEBUG_MODE) {
+				System.out.println("Top row "+row+" => current line "+anchorCurrentLine+" , previous line "+anchorPreviousLine);
+			}
 		}
 
-		private byte[] diff(ObjectId previous,ObjectId current) throws IOException 
+		/*
+		 * Scrolls the revision being displayed so the remembered line is at the top of the right pane.
+		 */
+		private void restoreCaretPosition()
 		{
-			final ByteArrayOutputStream leftDiff = new ByteArrayOutputStream();
-
-			final DiffFormatter formatter = new DiffFormatter( leftDiff );
-			formatter.setRepository( gitHelper.getRepository() );
-			formatter.setPathFilter( gitHelper.createPathFilter( file ) );
-			formatter.format( previous, current );
-			return leftDiff.toByteArray();
-		}
+			if ( anchorCurrentLine < 0 ) {
+				return;
+			}
 
-		private TextFile generateDiff(byte[] diff,RawText previousFile, ObjectId current) throws IOException 
-		{
-			final Patch patch = new Patch();
-			patch.parse( new ByteArrayInputStream( diff ) );
+			final RenderedRevision revision = shownRevision;
+			final int line;
+			if ( revision.currentBlob.equals( anchorCurrentBlob ) ) {
+				line = anchorCurrentLine;
+			} else if ( revision.currentBlob.equals( anchorPreviousBlob ) ) {
+				line = anchorPreviousLine;
+			} else if ( revision.isLargeBlob() ) {
+				line = anchorCurrentLine;
+			} else if ( revision.previousBlob != null && revision.previousBlob.equals( anchorCurrentBlob ) ) {
+				line = revision.diff.toCurrentLine( anchorCurrentLine );
+			} else if ( revision.previousBlob != null && revision.previousBlob.equals( anchorPreviousBlob ) ) {
+				line = revision.diff.toCurrentLine( anchorPreviousLine );
+			} else {
+				// jumped across several revisions, keep the line number
+				line = anchorCurrentLine;
+			}
 
-			try 
+			final int row;
+			if ( revision.isLargeBlob() ) 
+			{
+				final int lineCount = revision.currentLargeBlob.getLineCount();
+				if ( lineCount == 0 ) {
+					return;
+				}
+				row = Math.min( line , lineCount - 1 );
+			}
+			else 
 			{
-				final TextFile tf = new TextFile(previousFile);
-				tf.forwardsPatchAndAlign(  patch );
-				return tf;
+				final SideBySideDiff.Pane pane = revision.diff.getCurrent();
+				if ( pane.getText().getLineCount() == 0 ) {
+					return;
+				}
+				row = pane.getRow( Math.min( line , pane.getText().getLineCount() - 1 ) );
 			}
-			catch (PatchApplyException e) {
-				e.printStackTrace();
-				throw new RuntimeException(e);
+			if ( Main.DEBUG_MODE ) {
+				System.out.println("restoreCaretPosition(): line "+line+" => row "+row);
 			}
-		}
 
-		private void populateCommitInfo(final JTextArea area,ObjectId commit) 
-		{
-			if ( commit != null ) 
+			final JComponent view;
+			if ( showingLargeDiff ) {
+				view = currentRevisionView;
+			} 
+			else 
 			{
-				final ICommitVisitor visitor = new ICommitVisitor() 
-				{
-					@Override
-					public boolean visit(RevCommit commit) throws IOException 
-					{
-						final StringBuilder builder = new StringBuilder();
-						builder.append( line("Commit" , commit.getId().getName() ) );
-
-						final long millis =  commit.getCommitTime()*1000;
-						builder.append( line("Date" , new Date(millis).toString() ) );
-
-						final PersonIdent authorIdent = commit.getAuthorIdent();
-						builder.append( line("Author" , authorIdent.getEmailAddress() ) );
-
-						final PersonIdent committerIdent = commit.getCommitterIdent();
-						builder.append( line("Committer" , committerIdent.getEmailAddress() ) );						
+				view = currentRevisionText;
+				// keep the caret (and the highlighted line number) on the anchored line without scrolling to it
+				final Element root = currentRevisionText.getDocument().getDefaultRootElement();
+				if ( row < root.getElementCount() ) {
+					currentRevisionText.setCaretPosition( root.getElement( row ).getStartOffset() );
+				}
+			}
 
-						area.setText( builder.toString() );
-						return false;
-					}
-				};
+			final JViewport viewport = rightScrollPane.getViewport();
+			rightScrollPane.validate();
+			final int rowHeight = view.getFontMetrics( view.getFont() ).getHeight();
+			final int maxY = Math.max( 0 , view.getHeight() - viewport.getExtentSize().height );
+			final int y = Math.min( maxY , view.getInsets().top + row * rowHeight + anchorOffset );
+			viewport.setViewPosition( new Point( viewport.getViewPosition().x , y ) );
+		}		
 
-				try {
-					commitList.visitCommit( commit , visitor );
-				} 
-				catch (IOException e) 
-				{
-					e.printStackTrace();
-					area.setText( "ERROR: "+e.getMessage());
-				}
-			} else {
-				area.setText("");
+		/*
+		 * Describes a commit, using the metadata captured by the history scan.
+		 */
+		private String commitInfo(int index) 
+		{
+			if ( index < 0 ) {
+				return "";
 			}
+			final StringBuilder builder = new StringBuilder();
+			builder.append( line("Commit" , commitList.getCommit( index ).getName() ) );
+			builder.append( line("Date" , new Date( commitList.getCommitTime( index ) * 1000L ).toString() ) );
+			builder.append( line("Author" , commitList.getAuthor( index ) ) );
+			builder.append( line("Committer" , commitList.getCommitter( index ) ) );
+			builder.append( line("Message" , commitList.getShortMessage( index ) ) );
+			return builder.toString();
 		}
 
 		private String line(String key,String value) {
@@ -731,11 +1222,5 @@ public class MyFrame extends JFrame {
 		private String pad(String s,int len) {
 			return StringUtils.rightPad(s, len);
 		}
-
-		private String toString(byte[] blob) 
-		{
-			final RawText text = new RawText( blob );
-			return text.getString( 0 , text.size() , true );
-		}
 	}	
 }
\ No newline at end of file
@@ -0,0 +1,365 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+
+/**
+ * Checks whether a commit changed a single file by only looking at the tree entries
+ * along the file's path.
+ *
+ * <p>Starting at the root trees of a commit and its first parent, both trees are descended
+ * one path component at a time. As soon as both sides point to the same
+ * (sub-)tree object the file cannot have changed and the comparison stops.</p>
+ *
+ * <p>All parsers and object IDs are allocated once and re-used for every commit, instances
+ * of this class are therefore <b>not</b> thread-safe.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class PathChangeDetector
+{
+	private final ObjectReader reader;
+	private final byte[][] pathComponents;
+
+	private final CanonicalTreeParser newParser = new CanonicalTreeParser();
+	private final CanonicalTreeParser oldParser = new CanonicalTreeParser();
+
+	private final MutableObjectId newTree = new MutableObjectId();
+	private final MutableObjectId oldTree = new MutableObjectId();
+
+	private final MutableObjectId newEntry = new MutableObjectId();
+	private final MutableObjectId oldEntry = new MutableObjectId();
+
+	private final MutableObjectId commitTree = new MutableObjectId();
+	private final MutableObjectId parentTree = new MutableObjectId();
+
+	private int newMode;
+
+	private int treesameParent = -1;
+
+	/**
+	 *
+	 * @param reader reader to use for loading tree objects
+	 * @param path path of file relative to the repository's base directory, using '/' as separator
+	 */
+	public PathChangeDetector(ObjectReader reader,String path)
+	{
+		if (reader == null) {
+			throw new IllegalArgumentException("reader must not be NULL");
+		}
+		if ( path == null || path.length() == 0 ) {
+			throw new IllegalArgumentException("path must not be NULL/blank");
+		}
+		this.reader = reader;
+		final String[] parts = path.split("/");
+		this.pathComponents = new byte[ parts.length ][];
+		for ( int i = 0 ; i < parts.length ; i++ ) {
+			pathComponents[i] = Constants.encode( parts[i] );
+		}
+	}
+
+	/**
+	 * Check whether a commit changed the file (compared to its first parent).
+	 *
+	 * <p>Root commits are considered to change the file if it exists in the commit's tree,
+	 * commits that delete the file are considered to change it as well.</p>
+	 *
+	 * @param walk walk the commit belongs to, used to parse the parent's headers if necessary
+	 * @param commit commit to check, headers must have been parsed
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean isChanged(RevWalk walk,RevCommit commit) throws IOException
+	{
+		AnyObjectId parentTree = null;
+		if ( commit.getParentCount() > 0 )
+		{
+			final RevCommit parent = commit.getParent(0);
+			walk.parseHeaders( parent );
+			parentTree = parent.getTree();
+		}
+		return isChanged( commit.getTree() , parentTree );
+	}
+
+	/**
+	 * Check whether a commit introduced a change to the file.
+	 * 
+	 * <p>Unlike {@link #isChanged(RevWalk, RevCommit)} this method compares the file against
+	 * <b>all</b> parents, merge commits that simply took the file's content from one of their parents
+	 * are not considered to change it.</p>
+	 * 
+	 * @param walk walk the commit belongs to, used to parse the parents' headers if necessary
+	 * @param commit commit to check, headers must have been parsed
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean introducesChange(RevWalk walk,RevCommit commit) throws IOException
+	{
+		treesameParent = -1;
+		final int parentCount = commit.getParentCount();
+		if ( parentCount == 0 ) {
+			return isChanged( commit.getTree() , null );
+		}
+		for ( int i = 0 ; i < parentCount ; i++ ) 
+		{
+			final RevCommit parent = commit.getParent(i);
+			walk.parseHeaders( parent );
+			if ( ! isChanged( commit.getTree() , parent.getTree() ) ) {
+				treesameParent = i;
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether a commit introduced a change to the file.
+	 * 
+	 * @param tree the commit's tree
+	 * @param parentTrees the trees of all parent commits, empty for root commits
+	 * @return
+	 * @throws IOException
+	 * @see #introducesChange(RevWalk, RevCommit)
+	 */
+	public boolean introducesChange(AnyObjectId tree,AnyObjectId[] parentTrees) throws IOException
+	{
+		treesameParent = -1;
+		if ( parentTrees.length == 0 ) {
+			return isChanged( tree , null );
+		}
+		for ( int i = 0 ; i < parentTrees.length ; i++ ) 
+		{
+			if ( ! isChanged( tree , parentTrees[i] ) ) {
+				treesameParent = i;
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether a commit from a {@link CommitGraph} introduced a change to the file.
+	 * 
+	 * @param graph
+	 * @param index the commit's index in the graph
+	 * @return
+	 * @throws IOException
+	 * @see #introducesChange(RevWalk, RevCommit)
+	 */
+	public boolean introducesChange(CommitGraph graph,int index) throws IOException
+	{
+		treesameParent = -1;
+		graph.getTree( index , commitTree );
+		final int parentCount = graph.getParentCount( index );
+		if ( parentCount == 0 ) {
+			return isChanged( commitTree , null );
+		}
+		for ( int i = 0 ; i < parentCount ; i++ ) 
+		{
+			graph.getTree( graph.getParent( index , i ) , parentTree );
+			if ( ! isChanged( commitTree , parentTree ) ) {
+				treesameParent = i;
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether the file differs between two trees.
+	 *
+	 * <p>If this method returns <code>true</code>, {@link #getEntryId()} and {@link #getEntryMode()}
+	 * return the file's blob ID and mode in the new tree. If the file was deleted, the mode will be 0 and the ID
+	 * will be {@link ObjectId#zeroId()}.</p>
+	 *
+	 * @param newTreeId
+	 * @param oldTreeId old tree or <code>null</code> if the new tree has no predecessor
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean isChanged(AnyObjectId newTreeId,AnyObjectId oldTreeId) throws IOException
+	{
+		newTree.fromObjectId( newTreeId );
+		boolean hasNew = true;
+		boolean hasOld = oldTreeId != null;
+		if ( hasOld ) {
+			oldTree.fromObjectId( oldTreeId );
+		}
+
+		newMode = 0;
+		int oldMode = 0;
+		final int last = pathComponents.length - 1;
+		for ( int i = 0 ; i <= last ; i++ )
+		{
+			if ( hasNew && hasOld && newTree.equals( oldTree ) ) {
+				return false;
+			}
+
+			newMode = hasNew ? findEntry( newParser , newTree , pathComponents[i] , newEntry ) : 0;
+			oldMode = hasOld ? findEntry( oldParser , oldTree , pathComponents[i] , oldEntry ) : 0;
+
+			if ( i < last )
+			{
+				hasNew = FileMode.TREE.equals( newMode );
+				hasOld = FileMode.TREE.equals( oldMode );
+				if ( ! hasNew && ! hasOld ) {
+					return false;
+				}
+				if ( hasNew ) {
+					newTree.fromObjectId( newEntry );
+				}
+				if ( hasOld ) {
+					oldTree.fromObjectId( oldEntry );
+				}
+			}
+		}
+
+		if ( ! isFile( newMode ) ) {
+			newMode = 0;
+		}
+		if ( ! isFile( oldMode ) ) {
+			oldMode = 0;
+		}
+		if ( newMode == 0 )
+		{
+			newEntry.fromObjectId( ObjectId.zeroId() );
+			return oldMode != 0;
+		}
+		return newMode != oldMode || oldMode == 0 || ! newEntry.equals( oldEntry );
+	}
+
+	/**
+	 * Look up the file in a tree.
+	 * 
+	 * <p>The file's blob ID is available through {@link #getEntryId()} afterwards.</p>
+	 * 
+	 * @param treeId
+	 * @return the file's raw mode or 0 if the tree does not contain the file
+	 * @throws IOException
+	 */
+	public int findFile(AnyObjectId treeId) throws IOException
+	{
+		newTree.fromObjectId( treeId );
+		newMode = 0;
+		final int last = pathComponents.length - 1;
+		for ( int i = 0 ; i <= last ; i++ )
+		{
+			newMode = findEntry( newParser , newTree , pathComponents[i] , newEntry );
+			if ( i < last ) 
+			{
+				if ( ! FileMode.TREE.equals( newMode ) ) {
+					newMode = 0;
+					break;
+				}
+				newTree.fromObjectId( newEntry );
+			}
+		}
+		if ( ! isFile( newMode ) ) 
+		{
+			newMode = 0;
+			newEntry.fromObjectId( ObjectId.zeroId() );
+		}
+		return newMode;
+	}
+
+	/**
+	 * Returns the file's blob ID as found by the last call to {@link #isChanged(AnyObjectId, AnyObjectId)}
+	 * or {@link #findFile(AnyObjectId)}.
+	 *
+	 * @return mutable blob ID, callers need to copy it using {@link MutableObjectId#toObjectId()}
+	 */
+	public MutableObjectId getEntryId() {
+		return newEntry;
+	}
+
+	/**
+	 * Returns the file's raw mode as found by the last call to {@link #isChanged(AnyObjectId, AnyObjectId)}
+	 * or {@link #findFile(AnyObjectId)}.
+	 *
+	 * @return raw mode or 0 if the file did not exist
+	 */
+	public int getEntryMode() {
+		return newMode;
+	}
+
+	/**
+	 * Returns the parent the last call to one of the <code>introducesChange()</code> methods
+	 * found to have the same version of the file as the commit.
+	 *
+	 * <p>Git's history simplification only follows this parent, the commit took the file from it
+	 * and changes to the file on other parents did not make it into the commit.</p>
+	 *
+	 * @return number of the first parent without a change to the file, -1 if the file differs from
+	 * all parents or the commit is a root commit
+	 * @see HistorySimplifier
+	 */
+	public int getTreesameParent() {
+		return treesameParent;
+	}
+
+	/**
+	 * Check whether a tree entry is a file.
+	 * 
+	 * @param mode raw mode
+	 * @return <code>true</code> for regular and executable files, <code>false</code> for symlinks, submodules and trees
+	 */
+	static boolean isFile(int mode) {
+		return FileMode.REGULAR_FILE.equals( mode ) || FileMode.EXECUTABLE_FILE.equals( mode );
+	}
+
+	private int findEntry(CanonicalTreeParser parser, AnyObjectId treeId,byte[] name,MutableObjectId entryId) throws MissingObjectException, IncorrectObjectTypeException, IOException
+	{
+		parser.reset( reader , treeId );
+		while ( ! parser.eof() )
+		{
+			if ( nameEquals( parser , name ) ) {
+				parser.getEntryObjectId( entryId );
+				return parser.getEntryRawMode();
+			}
+			parser.next(1);
+		}
+		return 0;
+	}
+
+	private static boolean nameEquals(CanonicalTreeParser parser,byte[] name)
+	{
+		final int len = parser.getNameLength();
+		if ( len != name.length ) {
+			return false;
+		}
+		final byte[] buffer = parser.getEntryPathBuffer();
+		final int offset = parser.getNameOffset();
+		for ( int i = 0 ; i < len ; i++ ) {
+			if ( buffer[offset+i] != name[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,781 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Persistent inverted index that maps repository paths to the commits that changed them.
+ *
+ * <p>Commits are numbered in the order they were indexed, oldest commit first. Each path
+ * is assigned an integer ID and has a posting list of commit numbers, stored as delta-encoded varints.
+ * A commit is recorded for a path if the path differs from the commit's first parent. Root commits are not
+ * recorded for any path, they would list every file of their tree. The index also stores the parents of
+ * all commits so that the history of a path can be simplified without walking the commits, see
+ * {@link #getHistory(ObjectId, String)}.</p>
+ *
+ * <p>The index is stored in <code>.git/git-timelapse/path-index</code>. When the tip commit moves forward, only the new
+ * commits are scanned and appended to the file as a separate block, loading the index again only reads the blocks
+ * appended since. If the old tip is no longer an ancestor of the new one, the index is rebuilt from scratch.</p>
+ *
+ * <p>Several processes may share the same index: updates are serialized through a lock file. Rebuilt index files
+ * replace the old one atomically, a block that has only been partially appended (for example because the process
+ * got killed) fails its checksum and is discarded.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class PathIndex
+{
+	private static final int MAGIC = 0x47544c58; // 'GTLX'
+	private static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 16;
+	private static final int BLOCK_HEADER_SIZE = 12;
+
+	private static final int ID_WORDS = 5;
+
+	private final Repository repository;
+	private final File indexFile;
+	private final File lockFile;
+
+	// guarded by this
+	private ObjectId tip;
+	private int[] commits = new int[0];
+	private int commitCount;
+	// parents of commit #i are parents[ parentStart[i] ] ... parents[ parentStart[i+1]-1 ]
+	private int[] parentStart = new int[1];
+	private int[] parents = new int[0];
+	// number of commits whose parents have been added
+	private int parentsAdded;
+	// open-addressing hash table mapping commit IDs to (commit number+1), 0 marks an empty slot
+	private int[] idTable = new int[16];
+	private final Map<String,Integer> pathIds = new HashMap<>();
+	private final List<PostingList> postings = new ArrayList<>();
+
+	// identifies the index file that has been loaded, rebuilding the index creates a file with a new ID
+	private long fileId;
+	// number of bytes of the index file that have been loaded
+	private long loadedLength;
+
+	/**
+	 * Sorted list of commit numbers, encoded as varint deltas.
+	 */
+	protected static final class PostingList
+	{
+		private byte[] data;
+		private int length;
+		private int count;
+		private int last;
+
+		public PostingList() {
+			this.data = new byte[4];
+		}
+
+		public PostingList(byte[] data,int count,int last)
+		{
+			this.data = data;
+			this.length = data.length;
+			this.count = count;
+			this.last = last;
+		}
+
+		public void add(int commitNo)
+		{
+			if ( count > 0 && commitNo <= last ) {
+				throw new IllegalArgumentException("Commit numbers need to be added in ascending order");
+			}
+			int delta = count == 0 ? commitNo : commitNo - last;
+			if ( length + 5 > data.length ) {
+				data = Arrays.copyOf( data , Math.max( data.length * 2 , length + 5 ) );
+			}
+			while ( ( delta & ~0x7f ) != 0 )
+			{
+				data[ length++ ] = (byte) ( ( delta & 0x7f ) | 0x80 );
+				delta >>>= 7;
+			}
+			data[ length++ ] = (byte) delta;
+			last = commitNo;
+			count++;
+		}
+
+		public int[] toArray()
+		{
+			final int[] result = new int[ count ];
+			int value = 0;
+			int offset = 0;
+			for ( int i = 0 ; i < count ; i++ )
+			{
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = data[ offset++ ];
+					delta |= ( b & 0x7f ) << shift;
+					shift += 7;
+				} while ( ( b & 0x80 ) != 0 );
+				value = i == 0 ? delta : value + delta;
+				result[i] = value;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * The indexed commits along with the commits that changed a single path.
+	 *
+	 * <p>Instances are snapshots, updating the index afterwards does not change them.</p>
+	 *
+	 * @see PathIndex#getHistory(ObjectId, String)
+	 */
+	public static final class History
+	{
+		private final int tip;
+		private final int size;
+		private final int[] commits;
+		private final int[] parentStart;
+		private final int[] parents;
+		private final BitSet changed;
+
+		protected History(int tip,int size,int[] commits,int[] parentStart,int[] parents,BitSet changed)
+		{
+			this.tip = tip;
+			this.size = size;
+			this.commits = commits;
+			this.parentStart = parentStart;
+			this.parents = parents;
+			this.changed = changed;
+		}
+
+		/**
+		 * Returns the number of the tip commit.
+		 */
+		public int getTip() {
+			return tip;
+		}
+
+		/**
+		 * Returns the number of commits, commit numbers range from 0 (oldest) to <code>size()-1</code> (newest).
+		 */
+		public int size() {
+			return size;
+		}
+
+		public ObjectId getCommit(int commitNo)
+		{
+			final MutableObjectId result = new MutableObjectId();
+			result.fromRaw( commits , commitNo * ID_WORDS );
+			return result.toObjectId();
+		}
+
+		public int getParentCount(int commitNo) {
+			return parentStart[ commitNo + 1 ] - parentStart[ commitNo ];
+		}
+
+		public int getParent(int commitNo,int parentNo) {
+			return parents[ parentStart[ commitNo ] + parentNo ];
+		}
+
+		/**
+		 * Returns whether a commit changed the path compared to its first parent.
+		 *
+		 * @return always <code>false</code> for root commits, the index does not record their files
+		 */
+		public boolean isChanged(int commitNo) {
+			return changed.get( commitNo );
+		}
+	}
+
+	public PathIndex(Repository repository)
+	{
+		if (repository == null) {
+			throw new IllegalArgumentException("repository must not be NULL");
+		}
+		this.repository = repository;
+		final File dir = new File( repository.getDirectory() , "git-timelapse" );
+		this.indexFile = new File( dir , "path-index" );
+		this.lockFile = new File( dir , "path-index.lock" );
+	}
+
+	/**
+	 * Brings the index up-to-date with a tip commit, scanning only commits that have not been indexed yet.
+	 *
+	 * @param newTip
+	 * @throws IOException
+	 */
+	public synchronized void update(ObjectId newTip) throws IOException
+	{
+		if ( newTip.equals( tip ) ) {
+			return;
+		}
+
+		indexFile.getParentFile().mkdirs();
+		try ( RandomAccessFile lock = new RandomAccessFile( lockFile , "rw" ) )
+		{
+			final FileLock fileLock = lock.getChannel().lock();
+			try
+			{
+				// another process might have updated the index in the meantime
+				load();
+				if ( newTip.equals( tip ) ) {
+					return;
+				}
+
+				final ObjectId previousTip = tip;
+				final Map<String,PostingList> changes = new HashMap<>();
+				try
+				{
+					long time = -System.currentTimeMillis();
+					final int added = indexNewCommits( newTip , changes );
+					time += System.currentTimeMillis();
+					if ( Main.DEBUG_MODE ) {
+						System.out.println("Path index: Indexed "+added+" new commits in "+time+" ms");
+					}
+					if ( added == commitCount ) {
+						createFile( createBlock( null , 0 , changes ) );
+					} else {
+						appendBlock( createBlock( previousTip , commitCount - added , changes ) );
+					}
+				}
+				catch(IOException | RuntimeException e)
+				{
+					// partially indexed, load the whole file next time
+					clear();
+					fileId = 0;
+					throw e;
+				}
+			}
+			finally {
+				fileLock.release();
+			}
+		}
+	}
+
+	/**
+	 * Returns the commits that changed a path.
+	 *
+	 * @param path path relative to the repository's base directory
+	 * @return commit numbers, oldest commit first. Root commits are never included.
+	 * @see #getCommit(int)
+	 */
+	public synchronized int[] lookup(String path)
+	{
+		final Integer id = pathIds.get( path );
+		return id == null ? new int[0] : postings.get( id ).toArray();
+	}
+
+	/**
+	 * Brings the index up-to-date with a tip commit and returns the indexed commits along with the ones
+	 * that changed a path.
+	 *
+	 * @param tip
+	 * @param path path relative to the repository's base directory
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized History getHistory(ObjectId tip,String path) throws IOException
+	{
+		update( tip );
+		final BitSet changed = new BitSet( commitCount );
+		for ( int commitNo : lookup( path ) ) {
+			changed.set( commitNo );
+		}
+		// arrays are only appended to or replaced, never modified
+		return new History( indexOf( tip ) , commitCount , commits , parentStart , parents , changed );
+	}
+
+	public synchronized ObjectId getCommit(int commitNo)
+	{
+		if ( commitNo < 0 || commitNo >= commitCount ) {
+			throw new IndexOutOfBoundsException("No commit no. "+commitNo);
+		}
+		final MutableObjectId result = new MutableObjectId();
+		result.fromRaw( commits , commitNo * ID_WORDS );
+		return result.toObjectId();
+	}
+
+	private int indexNewCommits(ObjectId newTip,Map<String,PostingList> changes) throws IOException
+	{
+		final RevWalk walk = new RevWalk( repository );
+		try
+		{
+			walk.setRetainBody( false );
+			final RevCommit newTipCommit = walk.parseCommit( newTip );
+			walk.markStart( newTipCommit );
+			if ( tip != null )
+			{
+				final boolean canUpdate = repository.hasObject( tip ) && walk.isMergedInto( walk.parseCommit( tip ) , newTipCommit );
+				walk.reset();
+				walk.markStart( newTipCommit );
+				if ( canUpdate ) {
+					walk.markUninteresting( walk.parseCommit( tip ) );
+				} else {
+					clear();
+				}
+			}
+
+			final List<RevCommit> newCommits = new ArrayList<>();
+			for ( RevCommit commit : walk ) {
+				newCommits.add( commit );
+			}
+
+			// oldest commit gets the lowest number. Parents can only be resolved once all
+			// commits have been numbered, with clock skew a parent might get a higher number than its child
+			final int firstCommitNo = commitCount;
+			for ( int i = newCommits.size() - 1 ; i >= 0 ; i-- ) {
+				addCommit( newCommits.get(i) );
+			}
+
+			final ObjectReader reader = walk.getObjectReader();
+			final TreeWalk treeWalk = new TreeWalk( reader );
+			try
+			{
+				treeWalk.setRecursive( true );
+				treeWalk.setFilter( TreeFilter.ANY_DIFF );
+
+				int commitNo = firstCommitNo;
+				for ( int i = newCommits.size() - 1 ; i >= 0 ; i-- , commitNo++ )
+				{
+					final RevCommit commit = newCommits.get(i);
+					addParents( commit );
+					if ( commit.getParentCount() == 0 ) {
+						continue;
+					}
+
+					treeWalk.reset();
+					final RevCommit parent = commit.getParent(0);
+					walk.parseHeaders( parent );
+					treeWalk.addTree( parent.getTree() );
+					treeWalk.addTree( commit.getTree() );
+					while ( treeWalk.next() )
+					{
+						final String path = treeWalk.getPathString();
+						getPostingList( path ).add( commitNo );
+						PostingList list = changes.get( path );
+						if ( list == null ) {
+							list = new PostingList();
+							changes.put( path , list );
+						}
+						list.add( commitNo );
+					}
+				}
+			}
+			finally {
+				treeWalk.release();
+			}
+			tip = newTip.copy();
+			return newCommits.size();
+		}
+		finally {
+			walk.dispose();
+		}
+	}
+
+	private void addCommit(AnyObjectId commit)
+	{
+		if ( ( commitCount + 1 ) * ID_WORDS > commits.length ) {
+			commits = Arrays.copyOf( commits , Math.max( commits.length * 2 , ( commitCount + 1 ) * ID_WORDS ) );
+		}
+		commit.copyRawTo( commits , commitCount * ID_WORDS );
+		commitCount++;
+
+		if ( commitCount * 2 > idTable.length )
+		{
+			int tableSize = idTable.length;
+			while ( tableSize < commitCount * 2 ) {
+				tableSize <<= 1;
+			}
+			idTable = new int[ tableSize ];
+			for ( int i = 0 ; i < commitCount ; i++ ) {
+				insertIntoTable( i );
+			}
+		} else {
+			insertIntoTable( commitCount - 1 );
+		}
+	}
+
+	private void insertIntoTable(int commitNo)
+	{
+		final int mask = idTable.length - 1;
+		int slot = commits[ commitNo * ID_WORDS + 1 ] & mask;
+		while ( idTable[slot] != 0 ) {
+			slot = ( slot + 1 ) & mask;
+		}
+		idTable[slot] = commitNo + 1;
+	}
+
+	private int indexOf(AnyObjectId commit)
+	{
+		final int[] words = new int[ ID_WORDS ];
+		commit.copyRawTo( words , 0 );
+		final int mask = idTable.length - 1;
+		int slot = words[1] & mask;
+		while ( true )
+		{
+			final int entry = idTable[slot];
+			if ( entry == 0 ) {
+				return -1;
+			}
+			final int base = ( entry - 1 ) * ID_WORDS;
+			if ( commits[ base ] == words[0] && commits[ base + 1 ] == words[1] && commits[ base + 2 ] == words[2] &&
+				 commits[ base + 3 ] == words[3] && commits[ base + 4 ] == words[4] )
+			{
+				return entry - 1;
+			}
+			slot = ( slot + 1 ) & mask;
+		}
+	}
+
+	private void addParents(RevCommit commit) throws IOException
+	{
+		final int[] numbers = new int[ commit.getParentCount() ];
+		for ( int i = 0 ; i < numbers.length ; i++ )
+		{
+			numbers[i] = indexOf( commit.getParent(i) );
+			if ( numbers[i] == -1 ) {
+				throw new IOException("Parent "+commit.getParent(i).name()+" of commit "+commit.name()+" has not been indexed");
+			}
+		}
+		addParents( numbers );
+	}
+
+	/*
+	 * Adds the parents of the commit that follows the last one whose parents have been added.
+	 */
+	private void addParents(int[] numbers)
+	{
+		final int start = parentStart[ parentsAdded ];
+		if ( start + numbers.length > parents.length ) {
+			parents = Arrays.copyOf( parents , Math.max( parents.length * 2 , start + numbers.length ) );
+		}
+		System.arraycopy( numbers , 0 , parents , start , numbers.length );
+		if ( parentsAdded + 2 > parentStart.length ) {
+			parentStart = Arrays.copyOf( parentStart , Math.max( parentStart.length * 2 , parentsAdded + 2 ) );
+		}
+		parentsAdded++;
+		parentStart[ parentsAdded ] = start + numbers.length;
+	}
+
+	private PostingList getPostingList(String path)
+	{
+		final Integer id = pathIds.get( path );
+		if ( id != null ) {
+			return postings.get( id );
+		}
+		final PostingList result = new PostingList();
+		pathIds.put( path , postings.size() );
+		postings.add( result );
+		return result;
+	}
+
+	private void clear()
+	{
+		tip = null;
+		commits = new int[0];
+		commitCount = 0;
+		parentStart = new int[1];
+		parents = new int[0];
+		parentsAdded = 0;
+		idTable = new int[16];
+		pathIds.clear();
+		postings.clear();
+	}
+
+	/*
+	 * File format:
+	 *
+	 * int magic
+	 * int version
+	 * long file ID
+	 * blocks
+	 *
+	 * Block format:
+	 *
+	 * int length of deflated data
+	 * long CRC32 of deflated data
+	 * -- deflated --
+	 * 20 bytes previous tip commit, all zeros for the first block
+	 * 20 bytes new tip commit
+	 * int number of the block's first commit
+	 * int commit count
+	 * 20 bytes per commit
+	 * per commit: int parent count , int parent commit numbers
+	 * int path count
+	 * per path: UTF path , int posting count , int last commit number , int data length , data bytes
+	 * -- end of deflated data --
+	 */
+	private void load() throws IOException
+	{
+		if ( ! indexFile.exists() ) {
+			clear();
+			fileId = 0;
+			return;
+		}
+		try ( RandomAccessFile file = new RandomAccessFile( indexFile , "rw" ) )
+		{
+			final long length = file.length();
+			if ( length < HEADER_SIZE ) {
+				throw new EOFException();
+			}
+			if ( file.readInt() != MAGIC || file.readInt() != VERSION )
+			{
+				System.err.println("Path index "+indexFile+" has unsupported format, rebuilding it");
+				clear();
+				fileId = 0;
+				return;
+			}
+			final long id = file.readLong();
+			if ( id != fileId || length < loadedLength )
+			{
+				// rebuilt by another process
+				clear();
+				fileId = id;
+				loadedLength = HEADER_SIZE;
+			}
+			if ( length == loadedLength ) {
+				return;
+			}
+
+			final byte[] bytes = new byte[ (int) ( length - loadedLength ) ];
+			file.seek( loadedLength );
+			file.readFully( bytes );
+			int offset = 0;
+			while ( offset < bytes.length )
+			{
+				final int blockLength = loadBlock( bytes , offset );
+				if ( blockLength == -1 )
+				{
+					System.err.println("Path index "+indexFile+" has an incomplete block, discarding "+(bytes.length - offset)+" bytes");
+					file.setLength( loadedLength );
+					break;
+				}
+				offset += blockLength;
+				loadedLength += blockLength;
+			}
+		}
+		catch(IOException e)
+		{
+			final String msg = e instanceof EOFException ? "truncated file" : e.getMessage();
+			System.err.println("Path index "+indexFile+" is corrupted ("+msg+"), rebuilding it");
+			clear();
+			fileId = 0;
+		}
+	}
+
+	/*
+	 * Returns the number of bytes consumed or -1 if the block is incomplete.
+	 */
+	private int loadBlock(byte[] bytes,int offset) throws IOException
+	{
+		if ( bytes.length - offset < BLOCK_HEADER_SIZE ) {
+			return -1;
+		}
+		final DataInputStream header = new DataInputStream( new ByteArrayInputStream( bytes , offset , BLOCK_HEADER_SIZE ) );
+		final int length = header.readInt();
+		final long expectedCrc = header.readLong();
+		if ( length < 0 || length > bytes.length - offset - BLOCK_HEADER_SIZE ) {
+			return -1;
+		}
+		final CRC32 crc = new CRC32();
+		crc.update( bytes , offset + BLOCK_HEADER_SIZE , length );
+		if ( crc.getValue() != expectedCrc ) {
+			return -1;
+		}
+
+		final DataInputStream data = new DataInputStream( new BufferedInputStream(
+				new InflaterInputStream( new ByteArrayInputStream( bytes , offset + BLOCK_HEADER_SIZE , length ) ) ) );
+		final ObjectId previousTip = readId( data );
+		final ObjectId newTip = readId( data );
+		final int firstCommitNo = data.readInt();
+		if ( ! previousTip.equals( tip != null ? tip : ObjectId.zeroId() ) || firstCommitNo != commitCount ) {
+			throw new IOException("Block does not continue the index");
+		}
+
+		final int count = data.readInt();
+		final int[] id = new int[ ID_WORDS ];
+		for ( int i = 0 ; i < count ; i++ )
+		{
+			for ( int j = 0 ; j < ID_WORDS ; j++ ) {
+				id[j] = data.readInt();
+			}
+			addCommit( ObjectId.fromRaw( id ) );
+		}
+		for ( int i = 0 ; i < count ; i++ )
+		{
+			final int[] numbers = new int[ data.readInt() ];
+			for ( int j = 0 ; j < numbers.length ; j++ ) {
+				numbers[j] = data.readInt();
+				if ( numbers[j] < 0 || numbers[j] >= commitCount ) {
+					throw new IOException("Invalid parent commit number "+numbers[j]);
+				}
+			}
+			addParents( numbers );
+		}
+
+		final int pathCount = data.readInt();
+		for ( int i = 0 ; i < pathCount ; i++ )
+		{
+			final String path = data.readUTF();
+			final int postingCount = data.readInt();
+			final int last = data.readInt();
+			final byte[] encoded = new byte[ data.readInt() ];
+			data.readFully( encoded );
+			final PostingList list = getPostingList( path );
+			for ( int commitNo : new PostingList( encoded , postingCount , last ).toArray() ) {
+				list.add( commitNo );
+			}
+		}
+		if ( data.read() != -1 ) {
+			throw new IOException("Trailing garbage");
+		}
+		tip = newTip;
+		return BLOCK_HEADER_SIZE + length;
+	}
+
+	private static ObjectId readId(DataInputStream in) throws IOException
+	{
+		final byte[] id = new byte[20];
+		in.readFully( id );
+		return ObjectId.fromRaw( id );
+	}
+
+	private static void writeId(DataOutputStream out,AnyObjectId id) throws IOException
+	{
+		final byte[] bytes = new byte[20];
+		id.copyRawTo( bytes , 0 );
+		out.write( bytes );
+	}
+
+	/*
+	 * Creates a block holding all commits starting with a given commit number, along with the changes to paths they made.
+	 */
+	private byte[] createBlock(ObjectId previousTip,int firstCommitNo,Map<String,PostingList> changes) throws IOException
+	{
+		final ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+		final Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+		try
+		{
+			final DeflaterOutputStream deflaterOut = new DeflaterOutputStream( deflated , deflater );
+			final DataOutputStream data = new DataOutputStream( new BufferedOutputStream( deflaterOut ) );
+			writeId( data , previousTip != null ? previousTip : ObjectId.zeroId() );
+			writeId( data , tip );
+			data.writeInt( firstCommitNo );
+			data.writeInt( commitCount - firstCommitNo );
+			for ( int i = firstCommitNo * ID_WORDS ; i < commitCount * ID_WORDS ; i++ ) {
+				data.writeInt( commits[i] );
+			}
+			for ( int i = firstCommitNo ; i < commitCount ; i++ )
+			{
+				data.writeInt( parentStart[ i + 1 ] - parentStart[ i ] );
+				for ( int j = parentStart[ i ] ; j < parentStart[ i + 1 ] ; j++ ) {
+					data.writeInt( parents[j] );
+				}
+			}
+
+			data.writeInt( changes.size() );
+			for ( Map.Entry<String, PostingList> entry : changes.entrySet() )
+			{
+				final PostingList list = entry.getValue();
+				data.writeUTF( entry.getKey() );
+				data.writeInt( list.count );
+				data.writeInt( list.last );
+				data.writeInt( list.length );
+				data.write( list.data , 0 , list.length );
+			}
+			data.flush();
+			deflaterOut.finish();
+		}
+		finally {
+			deflater.end();
+		}
+
+		final byte[] payload = deflated.toByteArray();
+		final CRC32 crc = new CRC32();
+		crc.update( payload );
+		final ByteArrayOutputStream result = new ByteArrayOutputStream( BLOCK_HEADER_SIZE + payload.length );
+		final DataOutputStream out = new DataOutputStream( result );
+		out.writeInt( payload.length );
+		out.writeLong( crc.getValue() );
+		out.write( payload );
+		return result.toByteArray();
+	}
+
+	/*
+	 * Replaces the index file with a new one that contains a single block.
+	 */
+	private void createFile(byte[] block) throws IOException
+	{
+		final long newFileId = new Random().nextLong();
+		final File tmpFile = new File( indexFile.getParentFile() , indexFile.getName()+".tmp" );
+		try ( OutputStream out = new FileOutputStream( tmpFile ) )
+		{
+			final DataOutputStream header = new DataOutputStream( out );
+			header.writeInt( MAGIC );
+			header.writeInt( VERSION );
+			header.writeLong( newFileId );
+			header.write( block );
+			header.flush();
+		}
+		Files.move( tmpFile.toPath() , indexFile.toPath() , StandardCopyOption.REPLACE_EXISTING , StandardCopyOption.ATOMIC_MOVE );
+		fileId = newFileId;
+		loadedLength = HEADER_SIZE + block.length;
+	}
+
+	private void appendBlock(byte[] block) throws IOException
+	{
+		try ( RandomAccessFile file = new RandomAccessFile( indexFile , "rw" ) )
+		{
+			file.seek( loadedLength );
+			file.write( block );
+			file.setLength( loadedLength + block.length );
+		}
+		loadedLength += block.length;
+	}
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+
+/**
+ * Hands out JGit objects that are not thread-safe, one set per thread, and reuses them.
+ *
+ * <p>Each thread gets its own {@link ObjectReader} and a {@link RevWalk}, {@link TreeWalk} and {@link DiffFormatter}
+ * that read through it. They're created when first requested by a thread and live until the session is closed,
+ * so short operations don't pay for setting up readers and walks over and over again. Objects handed out must only
+ * be used by the requesting thread and must not be released or disposed by the caller.</p>
+ *
+ * <p>Pooled walks keep every object they parsed, long history walks should use a walk of their own
+ * (created on top of {@link #getReader()}) and dispose it when done.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class RepositorySession
+{
+	private final Repository repository;
+
+	// guarded by resources
+	private final List<Resources> resources = new ArrayList<>();
+	// written while holding the lock on resources, read without it by threads that already have their objects
+	private volatile boolean closed;
+
+	private final ThreadLocal<Resources> threadResources = new ThreadLocal<>();
+
+	private final class Resources
+	{
+		public final ObjectReader reader = repository.newObjectReader();
+		public RevWalk revWalk;
+		public TreeWalk treeWalk;
+		public DiffFormatter diffFormatter;
+
+		public void release()
+		{
+			if ( revWalk != null ) {
+				revWalk.release();
+			}
+			if ( treeWalk != null ) {
+				treeWalk.release();
+			}
+			if ( diffFormatter != null ) {
+				diffFormatter.release();
+			}
+			reader.release();
+		}
+	}
+
+	public RepositorySession(Repository repository)
+	{
+		if ( repository == null ) {
+			throw new IllegalArgumentException("repository must not be NULL");
+		}
+		this.repository = repository;
+	}
+
+	public Repository getRepository() {
+		return repository;
+	}
+
+	private Resources getResources()
+	{
+		Resources result = threadResources.get();
+		if ( result != null )
+		{
+			if ( closed ) {
+				throw new IllegalStateException("Session is closed");
+			}
+			return result;
+		}
+
+		result = new Resources();
+		final boolean registered;
+		synchronized( resources )
+		{
+			registered = ! closed;
+			if ( registered ) {
+				resources.add( result );
+			}
+		}
+		if ( ! registered )
+		{
+			result.release();
+			throw new IllegalStateException("Session is closed");
+		}
+		threadResources.set( result );
+		return result;
+	}
+
+	/**
+	 * Returns the calling thread's object reader.
+	 */
+	public ObjectReader getReader() {
+		return getResources().reader;
+	}
+
+	/**
+	 * Returns the calling thread's revision walk, reset to its initial state.
+	 *
+	 * <p>The walk keeps objects parsed by earlier operations (and their flags cleared), it retains commit bodies.</p>
+	 */
+	public RevWalk getRevWalk()
+	{
+		final Resources r = getResources();
+		if ( r.revWalk == null ) {
+			r.revWalk = new RevWalk( r.reader );
+		}
+		r.revWalk.reset();
+		r.revWalk.setRetainBody( true );
+		return r.revWalk;
+	}
+
+	/**
+	 * Returns the calling thread's tree walk, without any trees and filters and not recursive.
+	 */
+	public TreeWalk getTreeWalk()
+	{
+		final Resources r = getResources();
+		if ( r.treeWalk == null ) {
+			r.treeWalk = new TreeWalk( r.reader );
+		}
+		r.treeWalk.reset();
+		r.treeWalk.setFilter( TreeFilter.ALL );
+		r.treeWalk.setRecursive( false );
+		return r.treeWalk;
+	}
+
+	/**
+	 * Returns the calling thread's diff formatter, for scanning trees only (all output gets discarded).
+	 *
+	 * <p>The formatter compares text with {@link RawTextComparator#DEFAULT} and does not detect renames.</p>
+	 */
+	public DiffFormatter getDiffFormatter()
+	{
+		final Resources r = getResources();
+		if ( r.diffFormatter == null )
+		{
+			r.diffFormatter = new DiffFormatter( DisabledOutputStream.INSTANCE );
+			r.diffFormatter.setRepository( repository );
+			r.diffFormatter.setDiffComparator( RawTextComparator.DEFAULT );
+			r.diffFormatter.setDetectRenames( false );
+		}
+		return r.diffFormatter;
+	}
+
+	/**
+	 * Releases the objects handed out to the calling thread.
+	 *
+	 * <p>Threads that are about to terminate should invoke this method, the thread gets
+	 * new objects if it uses the session again.</p>
+	 */
+	public void releaseThread()
+	{
+		final Resources r = threadResources.get();
+		if ( r == null ) {
+			return;
+		}
+		threadResources.remove();
+		synchronized( resources )
+		{
+			if ( ! resources.remove( r ) ) {
+				return; // released by close()
+			}
+		}
+		r.release();
+	}
+
+	/**
+	 * Releases the objects handed out to all threads. Once closed, this session must not be used any more.
+	 */
+	public void close()
+	{
+		final List<Resources> toRelease;
+		synchronized( resources )
+		{
+			if ( closed ) {
+				return;
+			}
+			closed = true;
+			toRelease = new ArrayList<>( resources );
+			resources.clear();
+		}
+		for ( Resources r : toRelease ) {
+			r.release();
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		synchronized( resources ) {
+			return closed ? "closed" : resources.size()+" threads";
+		}
+	}
+}
@@ -0,0 +1,450 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.text.DateFormat;
+import java.util.Date;
+
+import javax.swing.JComponent;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * Selects a revision out of a (possibly huge) history, replacement for a {@link javax.swing.JSlider}.
+ *
+ * <p>Revisions are laid out on an axis that is either proportional to the revision index or
+ * to the commit time. Instead of painting one tick per revision, revisions are aggregated per pixel column
+ * and each column displays a bar whose height reflects the number of revisions falling into it, so painting cost depends
+ * on the component's width only.</p>
+ *
+ * <p>The mouse wheel zooms into (or out of) the part of the axis under the mouse pointer, with shift held down it
+ * scrolls the visible part. Clicking or dragging selects the revision closest to the mouse pointer,
+ * {@link #getValueIsAdjusting()} returns <code>true</code> while dragging.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class RevisionTimeline extends JComponent
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final int MARGIN = 6;
+	private static final int LABEL_HEIGHT = 14;
+	private static final double ZOOM_FACTOR = 1.25;
+	// minimum visible part of the axis in revisions (index axis) or seconds (time axis)
+	private static final double MIN_INDEX_SPAN = 10;
+	private static final double MIN_TIME_SPAN = 60;
+
+	private final Color densityColor = new Color( 120 , 140 , 170 );
+	private final Color selectionColor = Color.RED;
+
+	// commit times of all revisions, oldest first
+	private int[] commitTimes = new int[0];
+	// position of each revision on the time axis, commit times made monotonic
+	private long[] times = new long[0];
+	private boolean timeAxis;
+
+	// visible part of the axis, in revisions (index axis) or seconds (time axis)
+	private double viewStart;
+	private double viewEnd;
+
+	private int selectedIndex = -1;
+	private boolean valueIsAdjusting;
+
+	// revisions per pixel column, reused when painting
+	private int[] columnCounts = new int[0];
+
+	public RevisionTimeline()
+	{
+		setOpaque( true );
+		setBackground( Color.WHITE );
+		setForeground( Color.BLACK );
+		setToolTipText( "" );
+		setFocusable( true );
+
+		final MouseAdapter mouseListener = new MouseAdapter()
+		{
+			@Override
+			public void mousePressed(MouseEvent e)
+			{
+				requestFocusInWindow();
+				if ( getRevisionCount() > 0 )
+				{
+					valueIsAdjusting = true;
+					setSelectedIndex( getRevisionAt( e.getX() ) );
+				}
+			}
+
+			@Override
+			public void mouseDragged(MouseEvent e)
+			{
+				if ( valueIsAdjusting ) {
+					setSelectedIndex( getRevisionAt( e.getX() ) );
+				}
+			}
+
+			@Override
+			public void mouseReleased(MouseEvent e)
+			{
+				if ( valueIsAdjusting )
+				{
+					valueIsAdjusting = false;
+					fireStateChanged();
+				}
+			}
+
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent e)
+			{
+				if ( getRevisionCount() == 0 ) {
+					return;
+				}
+				final double span = viewEnd - viewStart;
+				if ( e.isShiftDown() ) {
+					setVisibleRange( viewStart + e.getWheelRotation() * span / 10 , viewEnd + e.getWheelRotation() * span / 10 );
+				}
+				else
+				{
+					final double factor = Math.pow( ZOOM_FACTOR , e.getWheelRotation() );
+					final double pivot = toAxis( e.getX() );
+					setVisibleRange( pivot - ( pivot - viewStart ) * factor , pivot + ( viewEnd - pivot ) * factor );
+				}
+			}
+		};
+		addMouseListener( mouseListener );
+		addMouseMotionListener( mouseListener );
+		addMouseWheelListener( mouseListener );
+	}
+
+	/**
+	 * Sets the revisions to choose from.
+	 *
+	 * <p>Since history is scanned backwards, older revisions get added in front while the scan is running. If the
+	 * axis is zoomed in, the visible part of the axis keeps displaying the same revisions.</p>
+	 *
+	 * @param commitTimes commit times of all revisions (in seconds since the epoch) , oldest first. The array
+	 * must not be modified afterwards.
+	 */
+	public void setCommitTimes(int[] commitTimes)
+	{
+		final int added = commitTimes.length - this.commitTimes.length;
+		final boolean zoomed = getRevisionCount() > 0 && ( viewStart > getAxisMin() || viewEnd < getAxisMax() );
+
+		this.commitTimes = commitTimes;
+		this.times = new long[ commitTimes.length ];
+		long time = Long.MIN_VALUE;
+		for ( int i = 0 ; i < commitTimes.length ; i++ ) {
+			time = times[i] = Math.max( time , commitTimes[i] );
+		}
+
+		if ( ! zoomed ) {
+			resetZoom();
+		}
+		else if ( ! timeAxis ) {
+			setVisibleRange( viewStart + added , viewEnd + added );
+		}
+		repaint();
+	}
+
+	public int getRevisionCount() {
+		return commitTimes.length;
+	}
+
+	/**
+	 * Switches between an axis proportional to the revision index and one proportional to the commit time.
+	 *
+	 * @param timeAxis
+	 */
+	public void setTimeAxis(boolean timeAxis)
+	{
+		if ( timeAxis != this.timeAxis )
+		{
+			this.timeAxis = timeAxis;
+			resetZoom();
+			repaint();
+		}
+	}
+
+	public boolean isTimeAxis() {
+		return timeAxis;
+	}
+
+	/**
+	 * Displays the whole axis.
+	 */
+	public void resetZoom()
+	{
+		viewStart = getAxisMin();
+		viewEnd = getAxisMax();
+		repaint();
+	}
+
+	/**
+	 * Sets the visible part of the axis.
+	 *
+	 * @param start
+	 * @param end
+	 */
+	public void setVisibleRange(double start,double end)
+	{
+		final double min = getAxisMin();
+		final double max = getAxisMax();
+		final double span = Math.min( max - min , Math.max( end - start , timeAxis ? MIN_TIME_SPAN : MIN_INDEX_SPAN ) );
+		final double center = ( start + end ) / 2;
+		viewStart = Math.max( min , Math.min( max - span , center - span / 2 ) );
+		viewEnd = viewStart + span;
+		repaint();
+	}
+
+	/*
+	 * Axis coordinate of the oldest revision.
+	 */
+	private double getAxisMin()
+	{
+		if ( timeAxis ) {
+			return times.length > 0 ? times[0] : 0;
+		}
+		// index axis puts revision i at i + 0.5
+		return 0;
+	}
+
+	private double getAxisMax()
+	{
+		if ( timeAxis ) {
+			return times.length > 0 ? times[ times.length - 1 ] + 1 : 1;
+		}
+		return Math.max( 1 , commitTimes.length );
+	}
+
+	private double getAxisPosition(int index) {
+		return timeAxis ? times[ index ] + 0.5 : index + 0.5;
+	}
+
+	private int getAxisLeft() {
+		return getInsets().left + MARGIN;
+	}
+
+	private int getAxisWidth() {
+		return Math.max( 1 , getWidth() - getInsets().left - getInsets().right - 2 * MARGIN );
+	}
+
+	private double toAxis(int x) {
+		return viewStart + ( x - getAxisLeft() ) * ( viewEnd - viewStart ) / getAxisWidth();
+	}
+
+	private int toX(double axis) {
+		return getAxisLeft() + (int) Math.floor( ( axis - viewStart ) * getAxisWidth() / ( viewEnd - viewStart ) );
+	}
+
+	/*
+	 * Returns the index of the first revision at or after an axis position.
+	 */
+	private int firstRevisionAtOrAfter(double axis)
+	{
+		if ( ! timeAxis ) {
+			return (int) Math.max( 0 , Math.min( commitTimes.length , Math.ceil( axis - 0.5 ) ) );
+		}
+		int low = 0;
+		int high = times.length;
+		while ( low < high )
+		{
+			final int mid = ( low + high ) >>> 1;
+			if ( times[ mid ] + 0.5 < axis ) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the revision closest to a horizontal position.
+	 *
+	 * @param x
+	 * @return revision index or -1 if there are no revisions
+	 */
+	public int getRevisionAt(int x)
+	{
+		if ( getRevisionCount() == 0 ) {
+			return -1;
+		}
+		final double axis = toAxis( x );
+		final int next = firstRevisionAtOrAfter( axis );
+		if ( next == 0 ) {
+			return 0;
+		}
+		if ( next == getRevisionCount() ) {
+			return next - 1;
+		}
+		return axis - getAxisPosition( next - 1 ) <= getAxisPosition( next ) - axis ? next - 1 : next;
+	}
+
+	public int getSelectedIndex() {
+		return selectedIndex;
+	}
+
+	/**
+	 * Selects a revision, scrolling the axis if the revision is not visible.
+	 *
+	 * @param index
+	 */
+	public void setSelectedIndex(int index)
+	{
+		if ( index < 0 || index >= getRevisionCount() ) {
+			throw new IndexOutOfBoundsException("Invalid revision "+index+" , revision count: "+getRevisionCount());
+		}
+		if ( index == selectedIndex ) {
+			return;
+		}
+		selectedIndex = index;
+		final double position = getAxisPosition( index );
+		if ( position < viewStart || position > viewEnd ) {
+			setVisibleRange( position - ( viewEnd - viewStart ) / 2 , position + ( viewEnd - viewStart ) / 2 );
+		}
+		repaint();
+		fireStateChanged();
+	}
+
+	/**
+	 * Returns whether the user is currently dragging the selection.
+	 */
+	public boolean getValueIsAdjusting() {
+		return valueIsAdjusting;
+	}
+
+	public void addChangeListener(ChangeListener l) {
+		listenerList.add( ChangeListener.class , l );
+	}
+
+	public void removeChangeListener(ChangeListener l) {
+		listenerList.remove( ChangeListener.class , l );
+	}
+
+	protected void fireStateChanged()
+	{
+		final ChangeEvent event = new ChangeEvent( this );
+		for ( ChangeListener l : listenerList.getListeners( ChangeListener.class ) ) {
+			l.stateChanged( event );
+		}
+	}
+
+	@Override
+	public String getToolTipText(MouseEvent event)
+	{
+		final int index = getRevisionAt( event.getX() );
+		if ( index == -1 ) {
+			return null;
+		}
+		return "Revision "+(index+1)+" of "+getRevisionCount()+" , "+formatTime( commitTimes[ index ] );
+	}
+
+	private static String formatTime(long seconds) {
+		return DateFormat.getDateTimeInstance( DateFormat.MEDIUM , DateFormat.SHORT ).format( new Date( seconds * 1000 ) );
+	}
+
+	@Override
+	public Dimension getPreferredSize()
+	{
+		if ( isPreferredSizeSet() ) {
+			return super.getPreferredSize();
+		}
+		return new Dimension( 300 , 24 + LABEL_HEIGHT + getInsets().top + getInsets().bottom );
+	}
+
+	@Override
+	protected void paintComponent(Graphics g)
+	{
+		g.setColor( getBackground() );
+		g.fillRect( 0 , 0 , getWidth() , getHeight() );
+
+		final int count = getRevisionCount();
+		if ( count == 0 ) {
+			return;
+		}
+
+		final int left = getAxisLeft();
+		final int width = getAxisWidth();
+		final int top = getInsets().top + 2;
+		final int bottom = getHeight() - getInsets().bottom - LABEL_HEIGHT;
+		final int barHeight = Math.max( 1 , bottom - top );
+
+		// aggregate revisions per pixel column, one binary search per column
+		if ( columnCounts.length < width ) {
+			columnCounts = new int[ width ];
+		}
+		int maxCount = 0;
+		int start = firstRevisionAtOrAfter( viewStart );
+		for ( int column = 0 ; column < width ; column++ )
+		{
+			final int end = firstRevisionAtOrAfter( toAxis( left + column + 1 ) );
+			columnCounts[ column ] = end - start;
+			maxCount = Math.max( maxCount , end - start );
+			start = end;
+		}
+
+		// bar heights are logarithmic so single revisions remain visible next to dense clusters
+		g.setColor( densityColor );
+		final double scale = barHeight / Math.log( 1 + maxCount );
+		for ( int column = 0 ; column < width ; column++ )
+		{
+			if ( columnCounts[ column ] > 0 )
+			{
+				final int height = Math.max( 2 , (int) Math.round( Math.log( 1 + columnCounts[ column ] ) * scale ) );
+				g.drawLine( left + column , bottom - 1 , left + column , bottom - height );
+			}
+		}
+		g.setColor( Color.GRAY );
+		g.drawLine( left , bottom , left + width - 1 , bottom );
+
+		final FontMetrics metrics = g.getFontMetrics();
+		final int baseline = bottom + metrics.getAscent();
+		g.setColor( getForeground() );
+		final String first = describe( firstRevisionAtOrAfter( viewStart ) );
+		final String last = describe( firstRevisionAtOrAfter( viewEnd ) - 1 );
+		g.drawString( first , left , baseline );
+		g.drawString( last , left + width - metrics.stringWidth( last ) , baseline );
+
+		if ( selectedIndex != -1 )
+		{
+			final double position = getAxisPosition( selectedIndex );
+			if ( position >= viewStart && position <= viewEnd )
+			{
+				final int x = toX( position );
+				g.setColor( selectionColor );
+				g.fillRect( x - 1 , top , 3 , barHeight );
+				final String label = describe( selectedIndex );
+				final int labelX = Math.max( left + metrics.stringWidth( first ) + MARGIN ,
+						Math.min( x - metrics.stringWidth( label ) / 2 , left + width - metrics.stringWidth( last ) - MARGIN - metrics.stringWidth( label ) ) );
+				g.drawString( label , labelX , baseline );
+			}
+		}
+	}
+
+	private String describe(int index)
+	{
+		if ( index < 0 || index >= getRevisionCount() ) {
+			return "";
+		}
+		return timeAxis ? formatTime( commitTimes[ index ] ) : Integer.toString( index + 1 );
+	}
+}
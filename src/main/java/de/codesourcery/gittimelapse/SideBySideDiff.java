@@ -0,0 +1,321 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+
+import de.codesourcery.gittimelapse.TextFile.ChangeType;
+
+/**
+ * Both panes of a side-by-side diff, built from a single edit list.
+ *
+ * <p>Each pane holds the unmodified text of its revision, with deleted lines marked on the left
+ * and added lines marked on the right side.</p>
+ *
+ * <p>In aligned mode padding rows are inserted so that unchanged lines are displayed
+ * in the same row on both sides. Each edit is rendered as
+ * <ul>
+ * <li>left: the deleted lines followed by one padding row (displayed as {@link ChangeType#ADDED}) per added line</li>
+ * <li>right: the added lines followed by one padding row (displayed as {@link ChangeType#DELETED}) per deleted line</li>
+ * </ul>
+ * Padding rows only exist in the tables mapping rows to lines (and back), it's up to the view
+ * to render them. Both panes, their changed lines and the tables are built in one pass over the edits.</p>
+ *
+ * <p>In regular mode each row displays the line with the same number.</p>
+ *
+ * <p>Lines of one revision can be mapped to the corresponding lines of the other revision, see {@link #toCurrentLine(int)}
+ * and {@link #toPreviousLine(int)}. Lookups do a binary search over the edits.</p>
+ *
+ * <p>Instances are immutable once created and may be shared between threads, see {@link DiffCache}.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class SideBySideDiff
+{
+	private final Pane previous;
+	private final Pane current;
+	// beginA, endA, beginB, endB of each edit
+	private final int[] edits;
+
+	/**
+	 * One side of a diff, maps the rows being displayed to lines of a revision.
+	 */
+	public static final class Pane
+	{
+		private final TextFile text;
+		// line displayed in each row, -1 for padding rows ; NULL if each row displays the line with the same number
+		private final int[] rowToLine;
+		// row each line is displayed in ; NULL if each row displays the line with the same number
+		private final int[] lineToRow;
+		private final ChangeType paddingType;
+
+		protected Pane(TextFile text, int[] rowToLine, int[] lineToRow, ChangeType paddingType)
+		{
+			this.text = text;
+			this.rowToLine = rowToLine;
+			this.lineToRow = lineToRow;
+			this.paddingType = paddingType;
+		}
+
+		/**
+		 * Returns the revision's text, without padding.
+		 */
+		public TextFile getText() {
+			return text;
+		}
+
+		public int getRowCount() {
+			return rowToLine != null ? rowToLine.length : text.getLineCount();
+		}
+
+		/**
+		 * Returns the line displayed in a row.
+		 *
+		 * @param row
+		 * @return line number or -1 if the row is a padding row
+		 */
+		public int getLine(int row)
+		{
+			if ( row < 0 || row >= getRowCount() ) {
+				throw new IndexOutOfBoundsException("Invalid row "+row+" , max. = "+(getRowCount()-1));
+			}
+			return rowToLine != null ? rowToLine[ row ] : row;
+		}
+
+		/**
+		 * Returns the row a line is displayed in.
+		 *
+		 * @param line
+		 * @return
+		 */
+		public int getRow(int line)
+		{
+			if ( line < 0 || line >= text.getLineCount() ) {
+				throw new IndexOutOfBoundsException("Invalid line "+line+" , max. = "+(text.getLineCount()-1));
+			}
+			return lineToRow != null ? lineToRow[ line ] : line;
+		}
+
+		public boolean isPadding(int row) {
+			return getLine( row ) == -1;
+		}
+
+		/**
+		 * Returns how to display a row.
+		 *
+		 * @param row
+		 * @return the change type of the row's line, padding rows are displayed as
+		 * the opposite side's change
+		 */
+		public ChangeType getRowType(int row)
+		{
+			final int line = getLine( row );
+			return line == -1 ? paddingType : text.getChangeType( line );
+		}
+
+		/**
+		 * Returns the approx. number of bytes used by this pane.
+		 */
+		public long getMemoryUsage()
+		{
+			final long mappings = rowToLine != null ? 4L * ( rowToLine.length + lineToRow.length ) : 0;
+			return text.getMemoryUsage() + mappings;
+		}
+	}
+
+	private SideBySideDiff(Pane previous,Pane current,EditList edits)
+	{
+		this.previous = previous;
+		this.current = current;
+		this.edits = new int[ edits.size() * 4 ];
+		int i = 0;
+		for ( Edit edit : edits )
+		{
+			this.edits[ i++ ] = edit.getBeginA();
+			this.edits[ i++ ] = edit.getEndA();
+			this.edits[ i++ ] = edit.getBeginB();
+			this.edits[ i++ ] = edit.getEndB();
+		}
+	}
+
+	/**
+	 * Creates both panes.
+	 *
+	 * @param previousFile
+	 * @param currentFile
+	 * @param edits edits from the previous to the current revision, as returned by {@link DiffEngine}
+	 * @param align whether to insert padding rows so that unchanged lines line up
+	 * @return
+	 */
+	public static SideBySideDiff create(byte[] previousFile,byte[] currentFile,EditList edits,boolean align)
+	{
+		final TextFile previous = new TextFile( previousFile );
+		final TextFile current = new TextFile( currentFile );
+		for ( Edit edit : edits )
+		{
+			previous.markLines( edit.getBeginA() , edit.getEndA() , ChangeType.DELETED );
+			current.markLines( edit.getBeginB() , edit.getEndB() , ChangeType.ADDED );
+		}
+		if ( align ) {
+			return align( previous , current , edits );
+		}
+		return new SideBySideDiff( new Pane( previous , null , null , ChangeType.ADDED ) , new Pane( current , null , null , ChangeType.DELETED ) , edits );
+	}
+
+	private static SideBySideDiff align(TextFile previous,TextFile current,EditList edits)
+	{
+		int added = 0;
+		for ( Edit edit : edits ) {
+			added += edit.getLengthB();
+		}
+
+		final int rows = previous.getLineCount() + added;
+		final int[] previousLines = new int[ rows ];
+		final int[] currentLines = new int[ rows ];
+		final int[] previousRows = new int[ previous.getLineCount() ];
+		final int[] currentRows = new int[ current.getLineCount() ];
+
+		int row = 0;
+		int lineA = 0;
+		int lineB = 0;
+		for ( Edit edit : edits )
+		{
+			// unchanged lines
+			for ( ; lineA < edit.getBeginA() ; row++ , lineA++ , lineB++ )
+			{
+				previousLines[ row ] = lineA;
+				currentLines[ row ] = lineB;
+				previousRows[ lineA ] = row;
+				currentRows[ lineB ] = row;
+			}
+
+			// changed lines followed by padding
+			for ( int j = 0 ; j < edit.getLengthA() + edit.getLengthB() ; j++ , row++ )
+			{
+				if ( j < edit.getLengthA() ) {
+					previousRows[ lineA ] = row;
+					previousLines[ row ] = lineA++;
+				} else {
+					previousLines[ row ] = -1;
+				}
+				if ( j < edit.getLengthB() ) {
+					currentRows[ lineB ] = row;
+					currentLines[ row ] = lineB++;
+				} else {
+					currentLines[ row ] = -1;
+				}
+			}
+		}
+
+		for ( ; row < rows ; row++ , lineA++ , lineB++ )
+		{
+			previousLines[ row ] = lineA;
+			currentLines[ row ] = lineB;
+			previousRows[ lineA ] = row;
+			currentRows[ lineB ] = row;
+		}
+		return new SideBySideDiff( new Pane( previous , previousLines , previousRows , ChangeType.ADDED ) ,
+				new Pane( current , currentLines , currentRows , ChangeType.DELETED ) , edits );
+	}
+
+	/**
+	 * Returns the left pane.
+	 */
+	public Pane getPrevious() {
+		return previous;
+	}
+
+	/**
+	 * Returns the right pane.
+	 */
+	public Pane getCurrent() {
+		return current;
+	}
+
+	/**
+	 * Returns the line of the current revision that corresponds to a line of the previous revision.
+	 *
+	 * <p>Unchanged lines map to themselves, deleted or replaced lines map to the lines that replaced them
+	 * (or the line following the deletion).</p>
+	 *
+	 * @param previousLine
+	 * @return line in the current revision, clamped to the valid range ; 0 if the current revision is empty
+	 */
+	public int toCurrentLine(int previousLine) {
+		return mapLine( previousLine , 0 , current.getText().getLineCount() );
+	}
+
+	/**
+	 * Returns the line of the previous revision that corresponds to a line of the current revision.
+	 *
+	 * @param currentLine
+	 * @return line in the previous revision, clamped to the valid range ; 0 if the previous revision is empty
+	 * @see #toCurrentLine(int)
+	 */
+	public int toPreviousLine(int currentLine) {
+		return mapLine( currentLine , 2 , previous.getText().getLineCount() );
+	}
+
+	/*
+	 * Maps a line from one side to the other, 'from' is the offset of the
+	 * line's side in the edit tuples (0 = previous , 2 = current).
+	 */
+	private int mapLine(int line,int from,int lineCount)
+	{
+		final int to = 2 - from;
+
+		// find first edit that ends after the line
+		int low = 0;
+		int high = edits.length / 4;
+		while ( low < high )
+		{
+			final int mid = ( low + high ) >>> 1;
+			if ( edits[ mid * 4 + from + 1 ] <= line ) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		final int result;
+		final int edit = low * 4;
+		if ( edit < edits.length && line >= edits[ edit + from ] )
+		{
+			// changed line
+			final int length = edits[ edit + to + 1 ] - edits[ edit + to ];
+			result = edits[ edit + to ] + Math.min( line - edits[ edit + from ] , Math.max( 0 , length - 1 ) );
+		}
+		else if ( edit == 0 ) {
+			result = line;
+		} else {
+			// unchanged line after an edit
+			result = line - edits[ edit - 4 + from + 1 ] + edits[ edit - 4 + to + 1 ];
+		}
+		return Math.max( 0 , Math.min( result , lineCount - 1 ) );
+	}
+
+	/**
+	 * Returns the approx. number of bytes used by both panes.
+	 */
+	public long getMemoryUsage() {
+		return previous.getMemoryUsage() + current.getMemoryUsage() + 4L * edits.length;
+	}
+
+	public boolean isAligned() {
+		return previous.rowToLine != null;
+	}
+}
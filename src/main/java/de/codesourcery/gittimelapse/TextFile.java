@@ -15,34 +15,41 @@
  */
 package de.codesourcery.gittimelapse;
 
-import java.io.IOException;
-import java.text.MessageFormat;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 
-import org.eclipse.jgit.api.ApplyCommand;
-import org.eclipse.jgit.api.errors.PatchApplyException;
-import org.eclipse.jgit.diff.RawText;
-import org.eclipse.jgit.internal.JGitText;
-import org.eclipse.jgit.patch.FileHeader;
-import org.eclipse.jgit.patch.HunkHeader;
-import org.eclipse.jgit.patch.Patch;
+import org.eclipse.jgit.util.RawParseUtils;
 
 /**
- * Abstraction for a text file along with line start offsets and some
- * utility methods for applying unified diffs.
+ * Abstraction for a text file along with line start offsets and changed lines.
  * 
- * <p>Code to apply diffs was adopted from the JGit {@link ApplyCommand}.</p>
+ * <p>The file's content is kept as raw bytes along with an index of line start offsets, 
+ * the content is only decoded into a {@link String} when {@link #toString()} or one of the methods dealing
+ * with character offsets is called.</p>
+ * 
+ * <p>Changed lines are stored as runs of consecutive lines with the same {@link ChangeType}.</p>
+ * 
+ * <p>Instances for displaying two revisions side-by-side are created by {@link SideBySideDiff}.</p>
  * 
  * @author tobias.gierke@voipfuture.com
  */
 public class TextFile {
 
-	private RawText rawText;
-	private final Map<Integer,Integer> lineStartOffsets = new HashMap<>();
+	/**
+	 * Number of columns between tab stops when text is displayed.
+	 */
+	public static final int TAB_SIZE = 8;
+
+	private byte[] content;
+	
+	// byte offset of each line, lineStarts[ lineCount ] is the length of the content
+	private int[] lineStarts;
+	private int lineCount;
+	private boolean isAscii;
+
+	// decoded lazily
+	private volatile String text;
+	private volatile int[] charLineStarts;
+	private volatile int maxColumns = -1;
 
 	public static enum ChangeType {
 		NO_CHANGE,
@@ -50,386 +57,326 @@ public class TextFile {
 		DELETED;
 	}
 
-	private final Map<Integer,ChangeType> changesByLine = new HashMap<>();
+	// non-overlapping runs of changed lines, sorted ascending by line number. 
+	// Run #i covers lines runStarts[i] ... runEnds[i]-1
+	private int[] runStarts = new int[16];
+	private int[] runEnds = new int[16];
+	private ChangeType[] runTypes = new ChangeType[16];
+	private int runCount;
 
-	public TextFile(RawText text)
+	public TextFile(byte[] content)
 	{
-		this.rawText = text;
-		updateLineStartOffsets();
+		setContent( content );
 	}
 
 	@Override
 	public String toString()
 	{
-		if ( rawText.size() == 0 ) {
-			return "";
+		if ( text == null ) {
+			text = lineCount == 0 ? "" : RawParseUtils.decode( content , 0 , content.length );
 		}
-		return rawText.getString(0,rawText.size(),false);
+		return text;
 	}
-	
+
 	/**
+	 * Returns the number of lines.
 	 * 
-	 * @param offset
-	 * @return line number (first line is number 0 !) or -1 if offset is not within this file's bounds
+	 * <p>A trailing line feed does not start a new line.</p>
+	 * @return
 	 */
-	public int getLineForOffset(int offset) 
-	{
-		final int lineCount = rawText.size();
-		int offset1 = 0;
-		for ( int line = 0 ; line < lineCount ; line++ ) 
-		{
-			Integer offset2 = lineStartOffsets.get(line);
-			if ( offset2 != null ) {
-				if ( offset1 <= offset && offset < offset2.intValue() ) {
-					return line;
-				}
-			}
-		}
-		return -1;
-	}
-	
-	public void setText(String text)
-	{
-		this.rawText = new RawText( text.getBytes() );
-		updateLineStartOffsets();
-	}
-
-	private void updateLineStartOffsets()
-	{
-		this.lineStartOffsets.clear();
-		final int lineCount = rawText.size();
-
-		int offset = 0;
-		for ( int i = 0 ; i < lineCount ; i++ ) {
-			lineStartOffsets.put( i , offset );
-			offset += rawText.getString( i ).length()+1; // +1 because of trailing LF
-		}
-	}
-
-	public Map<Integer,ChangeType> getChangedLines() {
-		return Collections.unmodifiableMap( changesByLine );
+	public int getLineCount() {
+		return lineCount;
 	}
 
 	/**
+	 * Returns the text of a line, without the trailing line feed.
 	 * 
-	 * @param line line number , first line as number 0
+	 * @param line line number, first line has number 0
 	 * @return
 	 */
-	public ChangeType getChangeType( int line) {
-		final ChangeType result = changesByLine.get(line);
-		if ( line < 0 || line >= rawText.size() ) {
-			throw new IndexOutOfBoundsException("Invalid line "+line+" , max. = "+(rawText.size()-1));
+	public String getLine(int line)
+	{
+		checkLine( line );
+		int end = lineStarts[ line + 1 ];
+		if ( end > lineStarts[ line ] && content[ end - 1 ] == '\n' ) {
+			end--;
 		}
-		return result != null ? result : ChangeType.NO_CHANGE;
+		return RawParseUtils.decode( content , lineStarts[ line ] , end );
 	}
 
 	/**
-	 * 
-	 * @param line line number, first line has number 0
-	 * @return
+	 * Returns the approx. number of bytes used by this file, including the decoded text.
 	 */
-	public int getLineStartOffset(int line) {
-		final Integer result = lineStartOffsets.get( line );
-		if ( line < 0 || line >= rawText.size() ) {
-			throw new IndexOutOfBoundsException("Invalid line "+line+" , max. = "+(rawText.size()-1));
+	public long getMemoryUsage() 
+	{
+		long result = 3L * content.length + 4L * lineStarts.length + 16L * runStarts.length;
+		if ( ! isAscii ) {
+			result += 4L * ( lineCount + 1 );
 		}
-		return result.intValue();
+		return result;
 	}
 
 	/**
+	 * Returns the width of the widest line.
 	 * 
-	 * @param line line number, first line has number 0
-	 * @return
+	 * @return number of characters, with tabs expanded to {@link #TAB_SIZE} columns
 	 */
-	public int getLineEndOffset(int line) {
-		return getLineStartOffset( line ) + rawText.getString( line ).length()+1;
-	}
-
-	// method taken from JGit ApplyCommand and modified
-	public void forwardsPatchAndAlign(Patch patch) throws IOException, PatchApplyException
+	public int getMaxColumns() 
 	{
-		if ( patch.getFiles().size() != 1 ) {
-			throw new IllegalArgumentException("Patch needs to contain exactly 1 FileHeader");
-		}
-		final FileHeader fh = patch.getFiles().get(0);
-
-		final List<String> oldLines = new ArrayList<String>(rawText.size());
-		for (int i = 0; i < rawText.size(); i++) {
-			oldLines.add(rawText.getString(i));
-		}
-
-		final List<String> newLines = new ArrayList<String>(oldLines);
-		for (final HunkHeader hunkHeader : fh.getHunks())
+		if ( maxColumns == -1 ) 
 		{
-			final StringBuilder hunk = new StringBuilder();
-			for (int j = hunkHeader.getStartOffset(); j < hunkHeader.getEndOffset(); j++)
-			{
-				hunk.append((char) hunkHeader.getBuffer()[j]);
-			}
-
-			final RawText hunkRawText = new RawText(hunk.toString().getBytes());
-
-			final List<String> hunkLines = new ArrayList<String>(hunkRawText.size());
-			for (int i = 0; i < hunkRawText.size(); i++)
-			{
-				hunkLines.add(hunkRawText.getString(i));
-			}
-
-			int pos = 0;
-			for (int j = 1; j < hunkLines.size(); j++)
+			int result = 0;
+			int column = 0;
+			for ( int i = 0 ; i < content.length ; i++ ) 
 			{
-				final String hunkLine = hunkLines.get(j);
-				switch ( hunkLine.charAt(0) )
-				{
-				case ' ': // context line
-					pos++;
-					break;
-				case '-': // line removed
-					changesByLine.put( hunkHeader.getNewStartLine() - 1 + pos , ChangeType.DELETED );
-					pos++;
-					break;
-				case '+': // line added
-					changesByLine.put( hunkHeader.getNewStartLine() - 1 + pos , ChangeType.ADDED );
-					newLines.add(hunkHeader.getNewStartLine() - 1 + pos, "               " ); // JTextPane uses a colored background so we need to have SOMETHING on this line
-					pos++;
-					break;
+				final byte b = content[i];
+				if ( b == '\n' ) {
+					column = 0;
+				} else if ( b == '\t' ) {
+					column = ( column / TAB_SIZE + 1 ) * TAB_SIZE;
+				} else if ( ( b & 0xc0 ) != 0x80 ) { // UTF-8 continuation bytes do not start a character
+					column++;
 				}
+				result = Math.max( result , column );
 			}
+			maxColumns = result;
 		}
-		if (!isNoNewlineAtEndOfFile(fh))
-		{
-			newLines.add(""); //$NON-NLS-1$
-		}
-		if (!rawText.isMissingNewlineAtEnd())
-		{
-			oldLines.add(""); //$NON-NLS-1$
-		}
-		final StringBuilder sb = new StringBuilder();
-		for (final String l : newLines) {
-			// don't bother handling line endings - if it was windows, the \r is
-			// still there!
-			sb.append(l).append('\n');
-		}
-		sb.deleteCharAt(sb.length() - 1);
-		setText( sb.toString() );
+		return maxColumns;
 	}
 
-	// method copied from JGit ApplyCommand
-	private static boolean isNoNewlineAtEndOfFile(FileHeader fh) {
-		final HunkHeader lastHunk = fh.getHunks().get(fh.getHunks().size() - 1);
-		final RawText lhrt = new RawText(lastHunk.getBuffer());
-		return lhrt.getString(lhrt.size() - 1).equals(
-				"\\ No newline at end of file"); //$NON-NLS-1$
+	/**
+	 * Returns the size of the file's content in bytes.
+	 */
+	public int getContentLength() {
+		return content.length;
 	}
 
-	public static String toString(RawText rt)
-	{
-		return rt.getString( 0 , rt.size() , false );
+	public boolean isMissingNewlineAtEnd() {
+		return content.length > 0 && content[ content.length - 1 ] != '\n';
 	}
 
-	// method copied from JGit ApplyCommand
-	public void backwardsPatchAndAlign(Patch patch) throws IOException, PatchApplyException
+	/**
+	 * 
+	 * @param offset character offset 
+	 * @return line number (first line is number 0 !) or -1 if offset is not within this file's bounds
+	 */
+	public int getLineForOffset(int offset) 
 	{
-		if ( patch.getFiles().size() != 1 ) {
-			throw new IllegalArgumentException("Patch needs to contain exactly one FileHeader");
-		}
-
-		final FileHeader fh = patch.getFiles().get(0);
-		final List<String> oldLines = new ArrayList<String>(rawText.size());
-		for (int i = 0; i < rawText.size(); i++) {
-			oldLines.add(rawText.getString(i));
+		final int[] starts = getCharLineStarts();
+		if ( offset < 0 || lineCount == 0 || offset >= starts[ lineCount ] ) {
+			return -1;
 		}
-
-		final List<String> newLines = new ArrayList<String>(oldLines);
-		for (final HunkHeader hunkHeader : fh.getHunks())
+		int low = 0;
+		int high = lineCount - 1;
+		while ( low < high ) 
 		{
-			final StringBuilder hunk = new StringBuilder();
-			for (int j = hunkHeader.getStartOffset(); j < hunkHeader.getEndOffset(); j++)
-			{
-				hunk.append((char) hunkHeader.getBuffer()[j]);
-			}
-
-			final RawText hunkRawText = new RawText(hunk.toString().getBytes());
-
-			final List<String> hunkLines = new ArrayList<String>(hunkRawText.size());
-			for (int i = 0; i < hunkRawText.size(); i++)
-			{
-				hunkLines.add(hunkRawText.getString(i));
+			final int mid = ( low + high + 1 ) >>> 1;
+			if ( starts[mid] <= offset ) {
+				low = mid;
+			} else {
+				high = mid - 1;
 			}
+		}
+		return low;
+	}
 
-			int pos = 0;
-			for (int j = 1; j < hunkLines.size(); j++)
+	private void setContent(byte[] content)
+	{
+		this.content = content;
+		this.text = null;
+		this.charLineStarts = null;
+
+		final int len = content.length;
+		int[] starts = new int[ Math.max( 16 , len / 32 ) ];
+		int count = 0;
+		boolean ascii = true;
+		if ( len > 0 ) {
+			starts[ count++ ] = 0;
+		}
+		for ( int i = 0 ; i < len ; i++ ) 
+		{
+			final byte b = content[i];
+			if ( b < 0 ) {
+				ascii = false;
+			} else if ( b == '\n' && i + 1 < len ) 
 			{
-				final String hunkLine = hunkLines.get(j);
-				switch ( hunkLine.charAt(0) )
-				{
-				case ' ':
-					pos++;
-					break;
-				case '+':
-					changesByLine.put( hunkHeader.getNewStartLine() - 1 + pos , ChangeType.DELETED );
-					newLines.add( hunkHeader.getNewStartLine() - 1 + pos , "               ");
-					pos++;
-					break;
-				case '-':
-					changesByLine.put ( hunkHeader.getNewStartLine() - 1 + pos , ChangeType.ADDED );
-					pos++;
-					break;
+				if ( count + 1 >= starts.length ) {
+					starts = Arrays.copyOf( starts , starts.length * 2 );
 				}
+				starts[ count++ ] = i + 1;
 			}
 		}
-		if (!isNoNewlineAtEndOfFile(fh))
-		{
-			newLines.add(""); //$NON-NLS-1$
+		if ( count + 1 > starts.length ) {
+			starts = Arrays.copyOf( starts , count + 1 );
 		}
-		if (!rawText.isMissingNewlineAtEnd())
-		{
-			oldLines.add(""); //$NON-NLS-1$
-		}
-
-		final StringBuilder sb = new StringBuilder();
-		for (final String l : newLines) {
-			// don't bother handling line endings - if it was windows, the \r is
-			// still there!
-			sb.append(l).append('\n');
-		}
-		sb.deleteCharAt(sb.length() - 1);
-		setText( sb.toString() );
+		starts[ count ] = len;
+		this.lineStarts = starts;
+		this.lineCount = count;
+		this.isAscii = ascii;
 	}
 
-	// method copied from JGit ApplyCommand
-	public void backwardsPatch(Patch patch) throws IOException, PatchApplyException
+	/*
+	 * Character offset of each line in the decoded text, 
+	 * same as the byte offsets as long as the text is pure ASCII.
+	 */
+	private int[] getCharLineStarts() 
 	{
-		if ( patch.getFiles().size() != 1 ) {
-			throw new IllegalArgumentException("Patch needs to contain exactly one FileHeader");
-		}
-
-		final FileHeader fh = patch.getFiles().get(0);
-		
-		final List<String> oldLines = new ArrayList<String>(rawText.size());
-		for (int i = 0; i < rawText.size(); i++) {
-			oldLines.add(rawText.getString(i));
-		}
-		final List<String> newLines = new ArrayList<String>(oldLines);
-		for (final HunkHeader hh : fh.getHunks()) 
+		if ( charLineStarts == null ) 
 		{
-			final StringBuilder hunk = new StringBuilder();
-			for (int j = hh.getStartOffset(); j < hh.getEndOffset(); j++) 
+			if ( isAscii ) {
+				charLineStarts = lineStarts;
+			} 
+			else 
 			{
-				hunk.append((char) hh.getBuffer()[j]);
-			}
-			final RawText hrt = new RawText(hunk.toString().getBytes());
-			final List<String> hunkLines = new ArrayList<String>(hrt.size());
-			for (int i = 0; i < hrt.size(); i++) {
-				hunkLines.add(hrt.getString(i));
-			}
-			int pos = 0;
-			for (int j = 1; j < hunkLines.size(); j++) {
-				final String hunkLine = hunkLines.get(j);
-				switch (hunkLine.charAt(0)) {
-				case ' ':
-					if (!newLines.get(hh.getNewStartLine() - 1 + pos).equals(
-							hunkLine.substring(1))) {
-						throw new PatchApplyException(MessageFormat.format(
-								JGitText.get().patchApplyException, hh));
-					}
-					pos++;
-					break;
-				case '-':
-					if (!newLines.get(hh.getNewStartLine() - 1 + pos).equals(
-							hunkLine.substring(1))) {
-						throw new PatchApplyException(MessageFormat.format(
-								JGitText.get().patchApplyException, hh));
+				final String decoded = toString();
+				final int[] starts = new int[ lineCount + 1 ];
+				int line = 0;
+				if ( lineCount > 0 ) {
+					starts[ line++ ] = 0;
+				}
+				final int len = decoded.length();
+				for ( int i = 0 ; i < len && line < lineCount ; i++ ) 
+				{
+					if ( decoded.charAt( i ) == '\n' ) {
+						starts[ line++ ] = i + 1;
 					}
-					newLines.remove(hh.getNewStartLine() - 1 + pos);
-					break;
-				case '+':
-					newLines.add(hh.getNewStartLine() - 1 + pos,hunkLine.substring(1));
-					changesByLine.put(hh.getNewStartLine() - 1 + pos, ChangeType.ADDED);
-					pos++;
-					break;
 				}
+				starts[ lineCount ] = len;
+				charLineStarts = starts;
 			}
 		}
-		if (!isNoNewlineAtEndOfFile(fh))
-		{
-			newLines.add(""); //$NON-NLS-1$
-		}
+		return charLineStarts;
+	}
 
-		if (!rawText.isMissingNewlineAtEnd())
-		{
-			oldLines.add(""); //$NON-NLS-1$
-		}
+	/**
+	 * Returns the number of runs of changed lines.
+	 * 
+	 * @return
+	 * @see #getChangeRunStart(int)
+	 * @see #getChangeRunEnd(int)
+	 * @see #getChangeRunType(int)
+	 */
+	public int getChangeRunCount() {
+		return runCount;
+	}
 
-		final StringBuilder sb = new StringBuilder();
-		for (final String l : newLines) {
-			// don't bother handling line endings - if it was windows, the \r is
-			// still there!
-			sb.append(l).append('\n');
-		}
-		sb.deleteCharAt(sb.length() - 1);
-		setText( sb.toString() );
+	/**
+	 * Returns the first line of a run of changed lines.
+	 * 
+	 * @param run run number , runs are sorted ascending by line number
+	 * @return
+	 */
+	public int getChangeRunStart(int run) {
+		return runStarts[ run ];
 	}
-	
-	// method copied from JGit ApplyCommand
-	public void forwardsPatch(Patch patch) throws IOException, PatchApplyException
+
+	/**
+	 * Returns the line following the last line of a run of changed lines.
+	 * 
+	 * @param run run number , runs are sorted ascending by line number
+	 * @return
+	 */
+	public int getChangeRunEnd(int run) {
+		return runEnds[ run ];
+	}
+
+	public ChangeType getChangeRunType(int run) {
+		return runTypes[ run ];
+	}
+
+	/**
+	 * 
+	 * @param line line number , first line as number 0
+	 * @return
+	 */
+	public ChangeType getChangeType( int line) 
 	{
-		if ( patch.getFiles().size() != 1 ) {
-			throw new IllegalArgumentException("Patch needs to contain exactly one FileHeader");
-		}
+		checkLine( line );
+		final int run = findRun( line );
+		return run != -1 ? runTypes[ run ] : ChangeType.NO_CHANGE;
+	}
 
-		final FileHeader fh = patch.getFiles().get(0);
-		
-		final List<String> oldLines = new ArrayList<String>(rawText.size());
-		for (int i = 0; i < rawText.size(); i++) {
-			oldLines.add(rawText.getString(i));
-		}
-		final List<String> newLines = new ArrayList<String>(oldLines);
-		for (final HunkHeader hh : fh.getHunks()) 
+	private int findRun(int line) 
+	{
+		int low = 0;
+		int high = runCount - 1;
+		while ( low <= high ) 
 		{
-			final StringBuilder hunk = new StringBuilder();
-			for (int j = hh.getStartOffset(); j < hh.getEndOffset(); j++) 
-			{
-				hunk.append((char) hh.getBuffer()[j]);
-			}
-			final RawText hrt = new RawText(hunk.toString().getBytes());
-			final List<String> hunkLines = new ArrayList<String>(hrt.size());
-			for (int i = 0; i < hrt.size(); i++) {
-				hunkLines.add(hrt.getString(i));
-			}
-			int pos = 0;
-			for (int j = 1; j < hunkLines.size(); j++) {
-				final String hunkLine = hunkLines.get(j);
-				switch (hunkLine.charAt(0)) {
-				case ' ':
-					pos++;
-					break;
-				case '-':
-					changesByLine.put(hh.getNewStartLine() - 1 + pos, ChangeType.DELETED );					
-					pos++;
-					break;
-				case '+':
-					break;
-				}
+			final int mid = ( low + high ) >>> 1;
+			if ( runEnds[mid] <= line ) {
+				low = mid + 1;
+			} else if ( runStarts[mid] > line ) {
+				high = mid - 1;
+			} else {
+				return mid;
 			}
 		}
-		if (!isNoNewlineAtEndOfFile(fh))
-		{
-			newLines.add(""); //$NON-NLS-1$
+		return -1;
+	}
+
+	/**
+	 * Marks a range of lines as changed.
+	 * 
+	 * @param start first line
+	 * @param end line following the last line to mark
+	 * @param type
+	 * @throws IllegalArgumentException if the range starts before the end of the last range marked
+	 */
+	protected void markLines(int start,int end,ChangeType type) 
+	{
+		if ( start >= end ) {
+			return;
+		}
+		if ( runCount > 0 && start < runEnds[ runCount - 1 ] ) {
+			throw new IllegalArgumentException("Lines need to be marked in ascending order");
+		}
+		if ( runCount > 0 && runEnds[ runCount - 1 ] == start && runTypes[ runCount - 1 ] == type ) {
+			runEnds[ runCount - 1 ] = end;
+		} else {
+			addRun( start , end , type );
 		}
+	}
 
-		if (!rawText.isMissingNewlineAtEnd())
+	private void addRun(int start,int end,ChangeType type) 
+	{
+		if ( runCount == runStarts.length ) 
 		{
-			oldLines.add(""); //$NON-NLS-1$
+			runStarts = Arrays.copyOf( runStarts , runCount * 2 );
+			runEnds = Arrays.copyOf( runEnds , runCount * 2 );
+			runTypes = Arrays.copyOf( runTypes , runCount * 2 );
 		}
+		runStarts[ runCount ] = start;
+		runEnds[ runCount ] = end;
+		runTypes[ runCount ] = type;
+		runCount++;
+	}
 
-		final StringBuilder sb = new StringBuilder();
-		for (final String l : newLines) {
-			// don't bother handling line endings - if it was windows, the \r is
-			// still there!
-			sb.append(l).append('\n');
+	private void checkLine(int line) 
+	{
+		if ( line < 0 || line >= lineCount ) {
+			throw new IndexOutOfBoundsException("Invalid line "+line+" , max. = "+(lineCount-1));
 		}
-		sb.deleteCharAt(sb.length() - 1);
-		setText( sb.toString() );
-	}	
-}
\ No newline at end of file
+	}
+
+	/**
+	 * 
+	 * @param line line number, first line has number 0
+	 * @return character offset of the line's first character
+	 */
+	public int getLineStartOffset(int line) 
+	{
+		checkLine( line );
+		return getCharLineStarts()[ line ];
+	}
+
+	/**
+	 * 
+	 * @param line line number, first line has number 0
+	 * @return character offset following the line's trailing line feed
+	 */
+	public int getLineEndOffset(int line) 
+	{
+		checkLine( line );
+		return getCharLineStarts()[ line + 1 ];
+	}
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlobCacheTest
+{
+	private ScratchRepository repo;
+	private RepositorySession session;
+	private BlobCache cache;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		repo = new ScratchRepository();
+		session = new RepositorySession( repo.getRepository() );
+		// room for a single blob on the heap
+		cache = new BlobCache( session , 10 , 1024 * 1024 );
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{
+		cache.close();
+		session.close();
+		repo.close();
+	}
+
+	@Test
+	public void testEvictedBlobIsReadFromSpillFile() throws IOException
+	{
+		final ObjectId a = repo.insertBlob( "aaaaaaaa" );
+		final ObjectId b = repo.insertBlob( "bbbbbbbb" );
+
+		assertContent( "aaaaaaaa" , cache.get( a ) );
+		assertContent( "bbbbbbbb" , cache.get( b ) );
+		assertEquals( 1 , cache.getHeapEvictions() );
+
+		assertContent( "aaaaaaaa" , cache.get( a ) );
+		assertEquals( 1 , cache.getSpillHits() );
+		assertEquals( 2 , cache.getMisses() );
+
+		assertContent( "bbbbbbbb" , cache.get( b ) );
+		assertEquals( 2 , cache.getSpillHits() );
+		assertEquals( 2 , cache.getMisses() );
+	}
+
+	@Test
+	public void testDuplicateContentIsLoadedOnce() throws IOException
+	{
+		final ObjectId a = repo.insertBlob( "aaaaaaaa" );
+		cache.get( a );
+		cache.get( repo.insertBlob( "aaaaaaaa" ) );
+		assertEquals( 1 , cache.getMisses() );
+		assertEquals( 1 , cache.getHeapHits() );
+	}
+
+	@Test
+	public void testZeroIdIsEmpty() throws IOException
+	{
+		assertEquals( 0 , cache.get( ObjectId.zeroId() ).length );
+		assertEquals( 0 , cache.getMisses() );
+	}
+
+	@Test
+	public void testLoadsFromRepositoryAfterClose() throws IOException
+	{
+		final ObjectId a = repo.insertBlob( "aaaaaaaa" );
+		final ObjectId b = repo.insertBlob( "bbbbbbbb" );
+		cache.get( a );
+		cache.get( b );
+		cache.close();
+
+		assertContent( "aaaaaaaa" , cache.get( a ) );
+		assertContent( "bbbbbbbb" , cache.get( b ) );
+		assertEquals( 0 , cache.getSpillHits() );
+		assertEquals( 4 , cache.getMisses() );
+	}
+
+	private static void assertContent(String expected,byte[] actual) {
+		assertEquals( expected , new String( actual , Constants.CHARSET ) );
+	}
+}
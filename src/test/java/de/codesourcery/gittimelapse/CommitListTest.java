@@ -0,0 +1,144 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.Iterator;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.codesourcery.gittimelapse.GitHelper.CommitList;
+
+public class CommitListTest
+{
+	private ScratchRepository repo;
+	private GitHelper helper;
+	private File file;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		repo = new ScratchRepository();
+		helper = new GitHelper( repo.getWorkDir() );
+		file = new File( repo.getWorkDir() , "a.txt" );
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		helper.close();
+		repo.close();
+	}
+
+	@Test
+	public void testAddOldest()
+	{
+		// enough commits to grow the arrays and the hash table several times
+		final int count = 1000;
+		final CommitList list = helper.new CommitList( file );
+		for ( int i = count - 1 ; i >= 0 ; i-- ) {
+			addOldest( list , i );
+		}
+
+		assertEquals( count , list.size() );
+		assertEquals( commitId( count - 1 ) , list.getLatestCommit() );
+		for ( int i = 0 ; i < count ; i++ )
+		{
+			assertEquals( commitId( i ) , list.getCommit( i ) );
+			assertEquals( i , list.indexOf( commitId( i ) ) );
+			assertEquals( blobId( i ) , list.getBlobId( commitId( i ) ) );
+			assertEquals( 100 + i , list.getCommitTime( i ) );
+			assertEquals( "message "+i , list.getShortMessage( i ) );
+			assertEquals( i , list.getFileSize( commitId( i ) ) );
+		}
+		assertEquals( -1 , list.indexOf( commitId( count ) ) );
+		assertEquals( commitId( 4 ) , list.getPredecessor( commitId( 5 ) ) );
+		assertNull( list.getPredecessor( commitId( 0 ) ) );
+	}
+
+	@Test
+	public void testCollidingIds()
+	{
+		// all IDs hash to the same slot and differ in their last word only
+		final CommitList list = helper.new CommitList( file );
+		for ( int i = 99 ; i >= 0 ; i-- ) {
+			list.addOldest( ObjectId.fromRaw( new int[] { 1 , 2 , 3 , 4 , i } ) , 0 , blobId( i ) , 0100644 , 0 , "a" , "c" , "m" );
+		}
+		for ( int i = 0 ; i < 100 ; i++ ) {
+			assertEquals( i , list.indexOf( ObjectId.fromRaw( new int[] { 1 , 2 , 3 , 4 , i } ) ) );
+		}
+		assertEquals( -1 , list.indexOf( ObjectId.fromRaw( new int[] { 1 , 2 , 3 , 4 , 100 } ) ) );
+	}
+
+	@Test
+	public void testAddOlder()
+	{
+		final CommitList list = helper.new CommitList( file );
+		for ( int i = 39 ; i >= 20 ; i-- ) {
+			addOldest( list , i );
+		}
+		final CommitList older = helper.new CommitList( file );
+		for ( int i = 19 ; i >= 0 ; i-- ) {
+			addOldest( older , i );
+		}
+		list.addOlder( older );
+
+		assertEquals( 40 , list.size() );
+		final ObjectId[] blobIds = list.getBlobIds();
+		final int[] commitTimes = list.getCommitTimes();
+		final Iterator<ObjectId> it = list.iterator();
+		for ( int i = 0 ; i < 40 ; i++ )
+		{
+			assertEquals( commitId( i ) , it.next() );
+			assertEquals( i , list.indexOf( commitId( i ) ) );
+			assertEquals( blobId( i ) , blobIds[i] );
+			assertEquals( 100 + i , commitTimes[i] );
+		}
+		assertFalse( it.hasNext() );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testAddOlderForOtherFile() {
+		helper.new CommitList( file ).addOlder( helper.new CommitList( new File( repo.getWorkDir() , "b.txt" ) ) );
+	}
+
+	@Test(expected=IndexOutOfBoundsException.class)
+	public void testInvalidIndex()
+	{
+		final CommitList list = helper.new CommitList( file );
+		addOldest( list , 0 );
+		list.getCommit( 1 );
+	}
+
+	private static void addOldest(CommitList list,int i) {
+		list.addOldest( commitId( i ) , 100 + i , blobId( i ) , 0100644 , i , "author"+i , "committer"+i , "message "+i );
+	}
+
+	private static ObjectId commitId(int i) {
+		return ObjectId.fromRaw( new int[] { i * 31 , i * 0x9e3779b9 , i , 0 , 1 } );
+	}
+
+	private static ObjectId blobId(int i) {
+		return ObjectId.fromRaw( new int[] { i , 0 , 0 , 0 , 2 } );
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EditScriptStoreTest
+{
+	private static final int HEADER_SIZE = 8;
+
+	private ScratchRepository repo;
+	private File storeFile;
+	private ObjectId a;
+	private ObjectId b;
+	private ObjectId c;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		repo = new ScratchRepository();
+		storeFile = new File( repo.getRepository().getDirectory() , "git-timelapse/edit-scripts-histogram" );
+		a = repo.insertBlob( "a" );
+		b = repo.insertBlob( "b" );
+		c = repo.insertBlob( "c" );
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		repo.close();
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		// line numbers and lengths that need multi-byte varints
+		final EditList edits = edits( new Edit( 0 , 0 , 0 , 1 ) , new Edit( 5 , 300 , 6 , 6 ) , new Edit( 70000 , 70001 , 69707 , 100000 ) );
+		final EditScriptStore store = createStore();
+		store.put( a , b , edits );
+		store.put( b , c , new EditList() );
+		assertEquals( edits , store.get( a , b ) );
+		store.close();
+
+		final EditScriptStore loaded = createStore();
+		assertEquals( edits , loaded.get( a , b ) );
+		assertEquals( new EditList() , loaded.get( b , c ) );
+		assertNull( loaded.get( b , a ) );
+		loaded.close();
+	}
+
+	@Test
+	public void testCorruptedEntryIsSkipped() throws IOException
+	{
+		final EditList edits = edits( new Edit( 1 , 2 , 1 , 3 ) );
+		final EditScriptStore store = createStore();
+		store.put( a , b , edits );
+		store.put( b , c , edits );
+		store.close();
+
+		// flip a bit in the first entry's blob IDs
+		corrupt( HEADER_SIZE + 4 );
+
+		final EditScriptStore loaded = createStore();
+		assertNull( loaded.get( a , b ) );
+		assertEquals( edits , loaded.get( b , c ) );
+		// recomputed edit script gets appended again
+		loaded.put( a , b , edits );
+		assertEquals( edits , loaded.get( a , b ) );
+		loaded.close();
+
+		final EditScriptStore reloaded = createStore();
+		assertEquals( edits , reloaded.get( a , b ) );
+		assertEquals( edits , reloaded.get( b , c ) );
+		reloaded.close();
+	}
+
+	@Test
+	public void testIncompleteEntryIsDiscarded() throws IOException
+	{
+		final EditList edits = edits( new Edit( 1 , 2 , 1 , 3 ) );
+		final EditScriptStore store = createStore();
+		store.put( a , b , edits );
+		final long validLength = storeFile.length();
+		store.put( b , c , edits );
+		store.close();
+		try ( RandomAccessFile file = new RandomAccessFile( storeFile , "rw" ) ) {
+			file.setLength( file.length() - 2 );
+		}
+
+		final EditScriptStore loaded = createStore();
+		assertEquals( edits , loaded.get( a , b ) );
+		assertNull( loaded.get( b , c ) );
+		assertEquals( validLength , storeFile.length() );
+		loaded.close();
+	}
+
+	@Test
+	public void testEntryOfOtherBlobsIsTreatedAsCorrupted() throws IOException
+	{
+		final EditList edits = edits( new Edit( 1 , 2 , 1 , 3 ) );
+		final EditScriptStore store = createStore();
+		store.put( a , b , edits );
+		assertEquals( edits , store.get( a , b ) );
+
+		// another process discarded the file and appended an entry of the same size at the same offset
+		try ( RandomAccessFile file = new RandomAccessFile( storeFile , "rw" ) ) {
+			file.setLength( HEADER_SIZE );
+		}
+		final EditScriptStore other = createStore();
+		other.put( b , c , edits );
+		other.close();
+
+		assertNull( store.get( a , b ) );
+		assertTrue( store.toString().contains( "1 corrupted" ) );
+		store.close();
+	}
+
+	@Test
+	public void testClosedStoreIsEmpty() throws IOException
+	{
+		final EditList edits = edits( new Edit( 1 , 2 , 1 , 3 ) );
+		final EditScriptStore store = createStore();
+		store.put( a , b , edits );
+		store.close();
+
+		assertFalse( store.contains( a , b ) );
+		assertNull( store.get( a , b ) );
+		store.put( b , c , edits );
+
+		final EditScriptStore loaded = createStore();
+		assertTrue( loaded.contains( a , b ) );
+		assertFalse( loaded.contains( b , c ) );
+		loaded.close();
+	}
+
+	private EditScriptStore createStore() {
+		return new EditScriptStore( repo.getRepository() , SupportedAlgorithm.HISTOGRAM );
+	}
+
+	private void corrupt(long offset) throws IOException
+	{
+		try ( RandomAccessFile file = new RandomAccessFile( storeFile , "rw" ) )
+		{
+			file.seek( offset );
+			final int value = file.read();
+			file.seek( offset );
+			file.write( value ^ 1 );
+		}
+	}
+
+	private static EditList edits(Edit... edits)
+	{
+		final EditList result = new EditList();
+		for ( Edit edit : edits ) {
+			result.add( edit );
+		}
+		return result;
+	}
+}
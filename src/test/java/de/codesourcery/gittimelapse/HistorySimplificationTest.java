@@ -0,0 +1,148 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.codesourcery.gittimelapse.GitHelper.CommitList;
+import de.codesourcery.gittimelapse.GitHelper.IProgressCallback;
+
+/**
+ * Checks that all history scans follow only the parent a merge took the file from, like <code>git log &lt;path&gt;</code>.
+ */
+public class HistorySimplificationTest
+{
+	private static final String PATH = "src/main/File.java";
+
+	private ScratchRepository repo;
+
+	@Before
+	public void setUp() throws Exception {
+		repo = new ScratchRepository();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		repo.close();
+	}
+
+	@Test
+	public void testMergeDiscardingSideBranchEdit() throws Exception
+	{
+		final RevCommit base = repo.commit().add( PATH , "v1" ).commit();
+		final RevCommit main = repo.commit( base ).add( "other.txt" , "other" ).create();
+		final RevCommit side = repo.commit( base ).add( PATH , "v2" ).create();
+		final RevCommit merge = repo.commit( main , side ).create(); // keeps v1
+		repo.setHead( merge );
+		final RevCommit head = repo.commit().add( PATH , "v3" ).commit();
+
+		assertHistory( base , head );
+	}
+
+	@Test
+	public void testMergeTakingSideBranchEdit() throws Exception
+	{
+		final RevCommit base = repo.commit().add( PATH , "v1" ).commit();
+		final RevCommit main = repo.commit( base ).add( "other.txt" , "other" ).create();
+		final RevCommit side = repo.commit( base ).add( PATH , "v2" ).create();
+		repo.commit( main , side ).add( PATH , "v2" ).commit();
+
+		assertHistory( base , side );
+	}
+
+	@Test
+	public void testMergeResolvingConflict() throws Exception
+	{
+		final RevCommit base = repo.commit().add( PATH , "v1" ).commit();
+		final RevCommit main = repo.commit( base ).add( PATH , "main" ).create();
+		final RevCommit side = repo.commit( base ).add( PATH , "side" ).create();
+		final RevCommit merge = repo.commit( main , side ).add( PATH , "resolved" ).commit();
+
+		assertHistory( base , main , side , merge );
+	}
+
+	@Test
+	public void testParentReachedAfterItWasWalked() throws Exception
+	{
+		final RevCommit root = repo.commit().add( PATH , "v1" ).time( 100 ).commit();
+		final RevCommit changed = repo.commit( root ).add( PATH , "v2" ).time( 800 ).create();
+		// clock was off, the walk returns 'changed' before this commit reaches it
+		final RevCommit skewed = repo.commit( changed ).add( "other.txt" , "other" ).time( 100 ).create();
+		final RevCommit discarded = repo.commit( changed ).add( PATH , "v3" ).time( 900 ).create();
+		repo.commit( skewed , discarded ).time( 1000 ).commit(); // keeps v2
+
+		assertHistory( root , changed );
+	}
+
+	/*
+	 * Runs all kinds of history scans, commits are expected oldest first.
+	 */
+	private void assertHistory(ObjectId... expected) throws Exception
+	{
+		final List<ObjectId> expectedList = Arrays.asList( expected );
+		final File file = new File( repo.getWorkDir() , PATH );
+		for ( int threads : new int[] { 1 , 4 } )
+		{
+			final GitHelper helper = new GitHelper( repo.getWorkDir() );
+			try
+			{
+				helper.setScanThreads( threads );
+				assertEquals( "walk, "+threads+" threads" , expectedList , toList( helper.findCommits( file , NOP_CALLBACK ) ) );
+				assertEquals( "graph, "+threads+" threads" , expectedList , toList( helper.findCommits( file , NOP_CALLBACK ) ) );
+			}
+			finally {
+				helper.close();
+			}
+		}
+
+		final GitHelper helper = new GitHelper( repo.getWorkDir() );
+		try
+		{
+			helper.setUsePathIndex( true );
+			assertEquals( "path index" , expectedList , toList( helper.findCommits( file , NOP_CALLBACK ) ) );
+		}
+		finally {
+			helper.close();
+		}
+	}
+
+	private static List<ObjectId> toList(CommitList list)
+	{
+		final List<ObjectId> result = new ArrayList<>();
+		for ( int i = 0 ; i < list.size() ; i++ ) {
+			result.add( list.getCommit( i ) );
+		}
+		return result;
+	}
+
+	private static final IProgressCallback NOP_CALLBACK = new IProgressCallback()
+	{
+		@Override
+		public void foundCommits(CommitList batch) {
+		}
+	};
+}
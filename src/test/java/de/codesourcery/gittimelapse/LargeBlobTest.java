@@ -0,0 +1,138 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.lib.ObjectReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LargeBlobTest
+{
+	private ScratchRepository repo;
+	private ObjectReader reader;
+	private final List<LargeBlob> blobs = new ArrayList<>();
+
+	@Before
+	public void setUp() throws IOException
+	{
+		repo = new ScratchRepository();
+		reader = repo.getRepository().newObjectReader();
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{
+		for ( LargeBlob blob : blobs ) {
+			blob.close();
+		}
+		reader.release();
+		repo.close();
+	}
+
+	@Test
+	public void testLineCount() throws IOException
+	{
+		assertEquals( 0 , open( "" ).getLineCount() );
+		assertEquals( 1 , open( "a" ).getLineCount() );
+		// trailing line feed does not start a new line
+		assertEquals( 1 , open( "a\n" ).getLineCount() );
+		assertLines( open( "\n" ) , "" );
+		assertLines( open( "a\n\nb" ) , "a" , "" , "b" );
+		assertLines( open( "a\n\n" ) , "a" , "" );
+	}
+
+	@Test
+	public void testLinesAcrossCheckpoints() throws IOException
+	{
+		final StringBuilder content = new StringBuilder();
+		final int count = 1000;
+		for ( int i = 0 ; i < count ; i++ ) {
+			content.append( "line " ).append( i ).append( i + 1 < count ? "\n" : "" );
+		}
+		final LargeBlob blob = open( content.toString() );
+		assertEquals( count , blob.getLineCount() );
+
+		// sequential, backwards and jumping around
+		for ( int i = 0 ; i < count ; i++ ) {
+			assertEquals( "line "+i , blob.getLine( i ) );
+		}
+		for ( int i = count - 1 ; i >= 0 ; i-- ) {
+			assertEquals( "line "+i , blob.getLine( i ) );
+		}
+		for ( int i = 0 , line = 0 ; i < count ; i++ , line = ( line + 257 ) % count ) {
+			assertEquals( "line "+line , blob.getLine( line ) );
+		}
+	}
+
+	@Test
+	public void testMaxColumns() throws IOException
+	{
+		assertEquals( TextFile.TAB_SIZE + 1 , open( "ab\n\tc\nd" ).getMaxColumns() );
+		// multi-byte characters take a single column
+		assertEquals( 3 , open( "\u00e4\u00f6\u00fc\n" ).getMaxColumns() );
+		assertLines( open( "\u00e4\u00f6\u00fc\n" ) , "\u00e4\u00f6\u00fc" );
+	}
+
+	@Test
+	public void testLongLineIsTruncated() throws IOException
+	{
+		final StringBuilder content = new StringBuilder();
+		for ( int i = 0 ; i < LargeBlob.MAX_LINE_BYTES + 10 ; i++ ) {
+			content.append( 'x' );
+		}
+		final LargeBlob blob = open( content+"\nend" );
+		assertEquals( 2 , blob.getLineCount() );
+		assertEquals( LargeBlob.MAX_LINE_BYTES , blob.getLine( 0 ).length() );
+		assertEquals( "end" , blob.getLine( 1 ) );
+		assertEquals( LargeBlob.MAX_LINE_BYTES , blob.getMaxColumns() );
+	}
+
+	@Test(expected=IndexOutOfBoundsException.class)
+	public void testLineOutOfRange() throws IOException {
+		open( "a\nb\n" ).getLine( 2 );
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testClosedBlob() throws IOException
+	{
+		final LargeBlob blob = open( "a\nb\n" );
+		blob.close();
+		blob.close();
+		blob.getLine( 0 );
+	}
+
+	private LargeBlob open(String content) throws IOException
+	{
+		final LargeBlob result = LargeBlob.open( reader , repo.insertBlob( content ) );
+		blobs.add( result );
+		return result;
+	}
+
+	private static void assertLines(LargeBlob blob,String... expected)
+	{
+		assertEquals( "line count" , expected.length , blob.getLineCount() );
+		for ( int i = 0 ; i < expected.length ; i++ ) {
+			assertEquals( "line "+i , expected[i] , blob.getLine( i ) );
+		}
+	}
+}
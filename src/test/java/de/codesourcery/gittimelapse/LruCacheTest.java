@@ -0,0 +1,136 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LruCacheTest
+{
+	private final List<String> evicted = new ArrayList<>();
+	private LruCache<String,String> cache;
+
+	@Before
+	public void setUp()
+	{
+		evicted.clear();
+		// each character counts as one byte
+		cache = new LruCache<String,String>( 10 )
+		{
+			@Override
+			protected long sizeOf(String value) {
+				return value.length();
+			}
+
+			@Override
+			protected void evicted(String key, String value) {
+				LruCacheTest.this.evicted.add( key );
+			}
+		};
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed()
+	{
+		cache.put( "a" , "1234" );
+		cache.put( "b" , "1234" );
+		cache.get( "a" );
+		cache.put( "c" , "1234" );
+
+		assertEquals( Arrays.asList( "b" ) , evicted );
+		assertNull( cache.peek( "b" ) );
+		assertEquals( "1234" , cache.peek( "a" ) );
+		assertEquals( 8 , cache.getCurrentBytes() );
+		assertEquals( 2 , cache.size() );
+		assertEquals( 1 , cache.getEvictions() );
+	}
+
+	@Test
+	public void testEvictsSeveralEntries()
+	{
+		cache.put( "a" , "123" );
+		cache.put( "b" , "123" );
+		cache.put( "c" , "123" );
+		cache.put( "d" , "1234567" );
+
+		assertEquals( Arrays.asList( "a" , "b" ) , evicted );
+		assertEquals( 10 , cache.getCurrentBytes() );
+	}
+
+	@Test
+	public void testPeekDoesNotCount()
+	{
+		cache.put( "a" , "1" );
+		cache.peek( "a" );
+		cache.peek( "b" );
+		assertEquals( 0 , cache.getHits() );
+		assertEquals( 0 , cache.getMisses() );
+
+		cache.get( "a" );
+		cache.get( "b" );
+		assertEquals( 1 , cache.getHits() );
+		assertEquals( 1 , cache.getMisses() );
+	}
+
+	@Test
+	public void testReplaceUpdatesSize()
+	{
+		cache.put( "a" , "12345678" );
+		cache.put( "a" , "12" );
+		assertEquals( 2 , cache.getCurrentBytes() );
+		assertEquals( "12" , cache.peek( "a" ) );
+		assertEquals( 0 , evicted.size() );
+	}
+
+	@Test
+	public void testValueLargerThanBudgetIsNotCached()
+	{
+		cache.put( "a" , "1" );
+		cache.put( "b" , "12345678901" );
+		assertNull( cache.peek( "b" ) );
+		assertEquals( "1" , cache.peek( "a" ) );
+		assertEquals( 1 , cache.getCurrentBytes() );
+		assertEquals( 0 , evicted.size() );
+	}
+
+	@Test
+	public void testShrinkingBudgetEvicts()
+	{
+		cache.put( "a" , "123" );
+		cache.put( "b" , "123" );
+		cache.put( "c" , "123" );
+		cache.setMaxBytes( 4 );
+		assertEquals( Arrays.asList( "a" , "b" ) , evicted );
+		assertEquals( 3 , cache.getCurrentBytes() );
+	}
+
+	@Test
+	public void testClear()
+	{
+		cache.put( "a" , "123" );
+		cache.clear();
+		assertNull( cache.peek( "a" ) );
+		assertEquals( 0 , cache.getCurrentBytes() );
+		assertEquals( 0 , evicted.size() );
+	}
+}
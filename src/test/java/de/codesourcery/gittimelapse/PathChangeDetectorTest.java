@@ -0,0 +1,209 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PathChangeDetectorTest
+{
+	private static final String PATH = "src/main/File.java";
+
+	private ScratchRepository repo;
+	private GitHelper helper;
+	private ObjectReader reader;
+	private RevWalk walk;
+	private PathChangeDetector detector;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		repo = new ScratchRepository();
+		helper = new GitHelper( repo.getWorkDir() );
+		reader = repo.getRepository().newObjectReader();
+		walk = new RevWalk( reader );
+		detector = new PathChangeDetector( reader , PATH );
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{
+		walk.release();
+		helper.close();
+		repo.close();
+	}
+
+	@Test
+	public void testRootCommitWithFile() throws IOException
+	{
+		final RevCommit root = repo.commit().add( PATH , "content" ).create();
+		assertChanged( root , true );
+		assertEquals( repo.insertBlob( "content" ) , detector.getEntryId().toObjectId() );
+		assertEquals( FileMode.REGULAR_FILE.getBits() , detector.getEntryMode() );
+	}
+
+	@Test
+	public void testRootCommitWithoutFile() throws IOException
+	{
+		final RevCommit root = repo.commit().add( "other.txt" , "content" ).create();
+		assertChanged( root , false );
+	}
+
+	@Test
+	public void testAdd() throws IOException
+	{
+		repo.commit().add( "other.txt" , "content" ).commit();
+		final RevCommit added = repo.commit().add( PATH , "content" ).commit();
+		assertChanged( added , true );
+		assertEquals( FileMode.REGULAR_FILE.getBits() , detector.getEntryMode() );
+	}
+
+	@Test
+	public void testDelete() throws IOException
+	{
+		repo.commit().add( PATH , "content" ).commit();
+		final RevCommit deleted = repo.commit().delete( PATH ).commit();
+		assertChanged( deleted , true );
+		assertEquals( 0 , detector.getEntryMode() );
+		assertEquals( ObjectId.zeroId() , detector.getEntryId().toObjectId() );
+	}
+
+	@Test
+	public void testModify() throws IOException
+	{
+		repo.commit().add( PATH , "content" ).commit();
+		final RevCommit modified = repo.commit().add( PATH , "new content" ).commit();
+		assertChanged( modified , true );
+		assertEquals( repo.insertBlob( "new content" ) , detector.getEntryId().toObjectId() );
+	}
+
+	@Test
+	public void testUnrelatedChange() throws IOException
+	{
+		repo.commit().add( PATH , "content" ).add( "src/main/Other.java" , "a" ).commit();
+		assertChanged( repo.commit().add( "src/main/Other.java" , "b" ).commit() , false );
+		assertChanged( repo.commit().add( "README" , "b" ).commit() , false );
+	}
+
+	@Test
+	public void testModeChange() throws IOException
+	{
+		repo.commit().add( PATH , "content" ).commit();
+		final RevCommit executable = repo.commit().executable( PATH , "content" ).commit();
+		assertChanged( executable , true );
+		assertEquals( FileMode.EXECUTABLE_FILE.getBits() , detector.getEntryMode() );
+	}
+
+	@Test
+	public void testFileReplacedBySymlink() throws IOException
+	{
+		repo.commit().add( PATH , "content" ).commit();
+		final RevCommit symlink = repo.commit().symlink( PATH , "target" ).commit();
+		// the file is gone
+		assertChanged( symlink , true );
+		assertEquals( 0 , detector.getEntryMode() );
+	}
+
+	@Test
+	public void testSymlinkReplacedByFile() throws IOException
+	{
+		repo.commit().symlink( PATH , "target" ).commit();
+		final RevCommit file = repo.commit().add( PATH , "content" ).commit();
+		assertChanged( file , true );
+		assertEquals( FileMode.REGULAR_FILE.getBits() , detector.getEntryMode() );
+	}
+
+	@Test
+	public void testSymlinkChanges() throws IOException
+	{
+		repo.commit().add( "other.txt" , "content" ).commit();
+		// symlinks are not the file, adding, changing or removing them does not change it
+		assertChanged( repo.commit().symlink( PATH , "target" ).commit() , false );
+		assertChanged( repo.commit().symlink( PATH , "other target" ).commit() , false );
+		assertChanged( repo.commit().delete( PATH ).commit() , false );
+	}
+
+	@Test
+	public void testDirectoryReplacedByFile() throws IOException
+	{
+		repo.commit().add( PATH , "content" ).commit();
+		final RevCommit replaced = repo.commit().delete( PATH ).add( "src/main" , "content" ).commit();
+		assertChanged( replaced , true );
+		assertEquals( 0 , detector.getEntryMode() );
+	}
+
+	@Test
+	public void testMergeWithSameContentOnBothParents() throws IOException
+	{
+		final RevCommit base = repo.commit().add( PATH , "base" ).commit();
+		final RevCommit left = repo.commit( base ).add( PATH , "changed" ).add( "left.txt" , "left" ).create();
+		final RevCommit right = repo.commit( base ).add( PATH , "changed" ).add( "right.txt" , "right" ).create();
+		final RevCommit merge = repo.commit( left , right ).add( "right.txt" , "right" ).create();
+
+		assertTrue( detector.isChanged( walk , walk.parseCommit( left ) ) );
+		assertFalse( detector.isChanged( walk , walk.parseCommit( merge ) ) );
+		assertFalse( detector.introducesChange( walk , walk.parseCommit( merge ) ) );
+	}
+
+	@Test
+	public void testMergeTakingOneSide() throws IOException
+	{
+		final RevCommit base = repo.commit().add( PATH , "base" ).commit();
+		final RevCommit left = repo.commit( base ).add( "left.txt" , "left" ).create();
+		final RevCommit right = repo.commit( base ).add( PATH , "right" ).create();
+		final RevCommit merge = repo.commit( left , right ).add( PATH , "right" ).create();
+
+		// changed compared to the first parent, but not introduced by the merge
+		assertTrue( detector.isChanged( walk , walk.parseCommit( merge ) ) );
+		assertFalse( detector.introducesChange( walk , walk.parseCommit( merge ) ) );
+		assertEquals( 1 , detector.getTreesameParent() );
+	}
+
+	@Test
+	public void testMergeResolvingConflict() throws IOException
+	{
+		final RevCommit base = repo.commit().add( PATH , "base" ).commit();
+		final RevCommit left = repo.commit( base ).add( PATH , "left" ).create();
+		final RevCommit right = repo.commit( base ).add( PATH , "right" ).create();
+		final RevCommit merge = repo.commit( left , right ).add( PATH , "resolved" ).create();
+
+		assertTrue( detector.introducesChange( walk , walk.parseCommit( merge ) ) );
+		assertEquals( -1 , detector.getTreesameParent() );
+		assertEquals( repo.insertBlob( "resolved" ) , detector.getEntryId().toObjectId() );
+	}
+
+	/*
+	 * Checks the detector and compares it with the full tree diff it replaces.
+	 */
+	private void assertChanged(RevCommit commit,boolean expected) throws IOException
+	{
+		final RevCommit parsed = walk.parseCommit( commit );
+		assertEquals( "full tree diff" , expected , helper.commitChangesFile( PATH , helper.createPathFilter( PATH ) , parsed ) );
+		assertEquals( "path-scoped" , expected , detector.isChanged( walk , parsed ) );
+	}
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PathIndexTest
+{
+	private ScratchRepository repo;
+	private File indexFile;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		repo = new ScratchRepository();
+		indexFile = new File( repo.getRepository().getDirectory() , "git-timelapse/path-index" );
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		repo.close();
+	}
+
+	@Test
+	public void testRootCommitIsNotRecorded() throws IOException
+	{
+		final RevCommit root = repo.commit().add( "a.txt" , "a" ).add( "b.txt" , "b" ).commit();
+		final RevCommit second = repo.commit().add( "a.txt" , "a2" ).commit();
+
+		final PathIndex index = new PathIndex( repo.getRepository() );
+		index.update( second );
+		assertEquals( Arrays.<ObjectId>asList( second ) , lookup( index , "a.txt" ) );
+		assertEquals( 0 , index.lookup( "b.txt" ).length );
+
+		final PathIndex.History history = index.getHistory( second , "a.txt" );
+		assertEquals( 2 , history.size() );
+		assertEquals( second , history.getCommit( history.getTip() ) );
+		assertEquals( 1 , history.getParentCount( history.getTip() ) );
+		final int rootNo = history.getParent( history.getTip() , 0 );
+		assertEquals( root , history.getCommit( rootNo ) );
+		assertEquals( 0 , history.getParentCount( rootNo ) );
+		assertTrue( history.isChanged( history.getTip() ) );
+		assertFalse( history.isChanged( rootNo ) );
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		repo.commit().add( "a.txt" , "a" ).commit();
+		final RevCommit second = repo.commit().add( "a.txt" , "a2" ).add( "dir/b.txt" , "b" ).commit();
+		final RevCommit third = repo.commit().add( "dir/b.txt" , "b2" ).commit();
+
+		final PathIndex index = new PathIndex( repo.getRepository() );
+		index.update( third );
+
+		final PathIndex loaded = new PathIndex( repo.getRepository() );
+		loaded.update( third );
+		assertEquals( Arrays.<ObjectId>asList( second ) , lookup( loaded , "a.txt" ) );
+		assertEquals( Arrays.<ObjectId>asList( second , third ) , lookup( loaded , "dir/b.txt" ) );
+		assertHistoryEquals( index.getHistory( third , "dir/b.txt" ) , loaded.getHistory( third , "dir/b.txt" ) );
+	}
+
+	@Test
+	public void testUpdateAppendsToFile() throws IOException
+	{
+		repo.commit().add( "a.txt" , "a" ).commit();
+		final RevCommit second = repo.commit().add( "a.txt" , "a2" ).commit();
+
+		final PathIndex index = new PathIndex( repo.getRepository() );
+		index.update( second );
+		final byte[] before = readIndexFile();
+
+		final RevCommit third = repo.commit().add( "a.txt" , "a3" ).commit();
+		index.update( third );
+		final byte[] after = readIndexFile();
+		assertTrue( after.length > before.length );
+		assertEquals( Arrays.toString( before ) , Arrays.toString( Arrays.copyOf( after , before.length ) ) );
+
+		final PathIndex loaded = new PathIndex( repo.getRepository() );
+		loaded.update( third );
+		assertEquals( Arrays.<ObjectId>asList( second , third ) , lookup( loaded , "a.txt" ) );
+	}
+
+	@Test
+	public void testPicksUpBlocksAppendedByOthers() throws IOException
+	{
+		repo.commit().add( "a.txt" , "a" ).commit();
+		final RevCommit second = repo.commit().add( "a.txt" , "a2" ).commit();
+
+		final PathIndex index = new PathIndex( repo.getRepository() );
+		index.update( second );
+		final PathIndex other = new PathIndex( repo.getRepository() );
+		other.update( second );
+
+		final RevCommit third = repo.commit().add( "a.txt" , "a3" ).commit();
+		other.update( third );
+		index.update( third );
+		assertEquals( Arrays.<ObjectId>asList( second , third ) , lookup( index , "a.txt" ) );
+		assertEquals( 3 , index.getHistory( third , "a.txt" ).size() );
+	}
+
+	@Test
+	public void testIncompleteBlockIsDiscarded() throws IOException
+	{
+		repo.commit().add( "a.txt" , "a" ).commit();
+		final RevCommit second = repo.commit().add( "a.txt" , "a2" ).commit();
+		new PathIndex( repo.getRepository() ).update( second );
+		final long validLength = indexFile.length();
+
+		final RevCommit third = repo.commit().add( "a.txt" , "a3" ).commit();
+		new PathIndex( repo.getRepository() ).update( third );
+		// process died while appending the last block
+		try ( RandomAccessFile file = new RandomAccessFile( indexFile , "rw" ) ) {
+			file.setLength( file.length() - 3 );
+		}
+
+		final PathIndex index = new PathIndex( repo.getRepository() );
+		index.update( third );
+		assertEquals( Arrays.<ObjectId>asList( second , third ) , lookup( index , "a.txt" ) );
+		assertTrue( indexFile.length() > validLength );
+
+		final PathIndex loaded = new PathIndex( repo.getRepository() );
+		loaded.update( third );
+		assertEquals( Arrays.<ObjectId>asList( second , third ) , lookup( loaded , "a.txt" ) );
+	}
+
+	@Test
+	public void testCorruptedHeaderRebuildsIndex() throws IOException
+	{
+		repo.commit().add( "a.txt" , "a" ).commit();
+		final RevCommit second = repo.commit().add( "a.txt" , "a2" ).commit();
+		new PathIndex( repo.getRepository() ).update( second );
+		try ( RandomAccessFile file = new RandomAccessFile( indexFile , "rw" ) ) {
+			file.setLength( 10 );
+		}
+
+		final PathIndex index = new PathIndex( repo.getRepository() );
+		index.update( second );
+		assertEquals( Arrays.<ObjectId>asList( second ) , lookup( index , "a.txt" ) );
+	}
+
+	@Test
+	public void testRewrittenHistoryRebuildsIndex() throws IOException
+	{
+		final RevCommit root = repo.commit().add( "a.txt" , "a" ).commit();
+		final RevCommit second = repo.commit().add( "a.txt" , "a2" ).commit();
+		final PathIndex index = new PathIndex( repo.getRepository() );
+		index.update( second );
+
+		final RevCommit amended = repo.commit( root ).add( "b.txt" , "b" ).commit();
+		index.update( amended );
+		assertEquals( 0 , index.lookup( "a.txt" ).length );
+		assertEquals( Arrays.<ObjectId>asList( amended ) , lookup( index , "b.txt" ) );
+
+		final PathIndex loaded = new PathIndex( repo.getRepository() );
+		loaded.update( amended );
+		assertEquals( Arrays.<ObjectId>asList( amended ) , lookup( loaded , "b.txt" ) );
+		assertEquals( 2 , loaded.getHistory( amended , "b.txt" ).size() );
+	}
+
+	private static List<ObjectId> lookup(PathIndex index,String path)
+	{
+		final List<ObjectId> result = new ArrayList<>();
+		for ( int commitNo : index.lookup( path ) ) {
+			result.add( index.getCommit( commitNo ) );
+		}
+		return result;
+	}
+
+	private static void assertHistoryEquals(PathIndex.History expected,PathIndex.History actual)
+	{
+		assertEquals( expected.size() , actual.size() );
+		assertEquals( expected.getTip() , actual.getTip() );
+		for ( int i = 0 ; i < expected.size() ; i++ )
+		{
+			assertEquals( expected.getCommit( i ) , actual.getCommit( i ) );
+			assertEquals( expected.isChanged( i ) , actual.isChanged( i ) );
+			assertEquals( expected.getParentCount( i ) , actual.getParentCount( i ) );
+			for ( int j = 0 ; j < expected.getParentCount( i ) ; j++ ) {
+				assertEquals( expected.getParent( i , j ) , actual.getParent( i , j ) );
+			}
+		}
+	}
+
+	private byte[] readIndexFile() throws IOException
+	{
+		try ( RandomAccessFile file = new RandomAccessFile( indexFile , "r" ) )
+		{
+			final byte[] result = new byte[ (int) file.length() ];
+			file.readFully( result );
+			return result;
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * Creates commits in a throw-away repository.
+ *
+ * <p>Every commit starts out with the files of its first parent, files are then
+ * added, modified or removed through a {@link CommitCreator}.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class ScratchRepository
+{
+	private final File workDir;
+	private final Repository repository;
+	private final Map<ObjectId,Map<String,Entry>> files = new HashMap<>();
+	private int time = 1400000000;
+
+	private static final class Entry
+	{
+		public final FileMode mode;
+		public final ObjectId blobId;
+
+		public Entry(FileMode mode, ObjectId blobId)
+		{
+			this.mode = mode;
+			this.blobId = blobId;
+		}
+	}
+
+	/**
+	 * Collects the changes of a commit.
+	 */
+	public final class CommitCreator
+	{
+		private final ObjectId[] parents;
+		private final Map<String,Entry> entries;
+		private int commitTime;
+
+		private CommitCreator(ObjectId[] parents)
+		{
+			this.parents = parents;
+			this.entries = parents.length > 0 ? new TreeMap<>( files.get( parents[0] ) ) : new TreeMap<String,Entry>();
+			this.commitTime = time += 60;
+		}
+
+		public CommitCreator add(String path,String content) throws IOException {
+			return add( path , FileMode.REGULAR_FILE , content );
+		}
+
+		public CommitCreator executable(String path,String content) throws IOException {
+			return add( path , FileMode.EXECUTABLE_FILE , content );
+		}
+
+		public CommitCreator symlink(String path,String target) throws IOException {
+			return add( path , FileMode.SYMLINK , target );
+		}
+
+		public CommitCreator add(String path,FileMode mode,String content) throws IOException
+		{
+			entries.put( path , new Entry( mode , insertBlob( content ) ) );
+			return this;
+		}
+
+		public CommitCreator delete(String path)
+		{
+			if ( entries.remove( path ) == null ) {
+				throw new IllegalArgumentException("No file "+path);
+			}
+			return this;
+		}
+
+		/**
+		 * Sets the commit time.
+		 *
+		 * @param commitTime seconds since the epoch
+		 */
+		public CommitCreator time(int commitTime)
+		{
+			this.commitTime = commitTime;
+			return this;
+		}
+
+		/**
+		 * Creates the commit, without moving <code>HEAD</code>.
+		 */
+		public RevCommit create() throws IOException
+		{
+			final ObjectInserter inserter = repository.newObjectInserter();
+			try
+			{
+				final DirCache index = DirCache.newInCore();
+				final DirCacheBuilder builder = index.builder();
+				for ( Map.Entry<String,Entry> e : entries.entrySet() )
+				{
+					final DirCacheEntry entry = new DirCacheEntry( e.getKey() );
+					entry.setFileMode( e.getValue().mode );
+					entry.setObjectId( e.getValue().blobId );
+					builder.add( entry );
+				}
+				builder.finish();
+
+				final PersonIdent ident = new PersonIdent( "Test" , "test@example.com" , commitTime * 1000L , 0 );
+				final CommitBuilder commit = new CommitBuilder();
+				commit.setTreeId( index.writeTree( inserter ) );
+				commit.setParentIds( parents );
+				commit.setAuthor( ident );
+				commit.setCommitter( ident );
+				commit.setMessage( "Commit at "+commitTime );
+				final ObjectId id = inserter.insert( commit );
+				inserter.flush();
+				files.put( id , entries );
+				return parse( id );
+			}
+			finally {
+				inserter.release();
+			}
+		}
+
+		/**
+		 * Creates the commit and points <code>HEAD</code> at it.
+		 */
+		public RevCommit commit() throws IOException
+		{
+			final RevCommit result = create();
+			setHead( result );
+			return result;
+		}
+	}
+
+	public ScratchRepository() throws IOException
+	{
+		workDir = File.createTempFile( "git-timelapse-test" , "" );
+		workDir.delete();
+		workDir.mkdirs();
+		repository = new FileRepositoryBuilder().setWorkTree( workDir ).build();
+		repository.create();
+	}
+
+	/**
+	 * Starts a commit whose parent is <code>HEAD</code> (no parent if there are no commits yet).
+	 */
+	public CommitCreator commit() throws IOException
+	{
+		final ObjectId head = repository.resolve( Constants.HEAD );
+		return head == null ? new CommitCreator( new ObjectId[0] ) : new CommitCreator( new ObjectId[] { head } );
+	}
+
+	/**
+	 * Starts a commit with the given parents.
+	 */
+	public CommitCreator commit(ObjectId... parents) {
+		return new CommitCreator( parents );
+	}
+
+	public void setHead(ObjectId commit) throws IOException
+	{
+		final RefUpdate update = repository.updateRef( Constants.HEAD );
+		update.setNewObjectId( commit );
+		update.forceUpdate();
+	}
+
+	public RevCommit parse(ObjectId commit) throws IOException
+	{
+		final RevWalk walk = new RevWalk( repository );
+		try {
+			return walk.parseCommit( commit );
+		} finally {
+			walk.release();
+		}
+	}
+
+	public ObjectId insertBlob(String content) throws IOException
+	{
+		final ObjectInserter inserter = repository.newObjectInserter();
+		try
+		{
+			final ObjectId id = inserter.insert( Constants.OBJ_BLOB , Constants.encode( content ) );
+			inserter.flush();
+			return id;
+		}
+		finally {
+			inserter.release();
+		}
+	}
+
+	public Repository getRepository() {
+		return repository;
+	}
+
+	/**
+	 * Returns the repository's working directory, it contains no files.
+	 */
+	public File getWorkDir() {
+		return workDir;
+	}
+
+	public void close() throws IOException
+	{
+		repository.close();
+		FileUtils.delete( workDir , FileUtils.RECURSIVE | FileUtils.RETRY );
+	}
+}
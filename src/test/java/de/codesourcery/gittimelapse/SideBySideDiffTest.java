@@ -0,0 +1,237 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.gittimelapse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.Constants;
+import org.junit.Test;
+
+import de.codesourcery.gittimelapse.SideBySideDiff.Pane;
+import de.codesourcery.gittimelapse.TextFile.ChangeType;
+
+public class SideBySideDiffTest
+{
+	@Test
+	public void testRegular()
+	{
+		final SideBySideDiff diff = create( "a\nb\nc\nd\n" , "a\nx\ny\nz\nd\n" , false , new Edit( 1 , 3 , 1 , 4 ) );
+		assertFalse( diff.isAligned() );
+
+		final Pane previous = diff.getPrevious();
+		assertEquals( 4 , previous.getRowCount() );
+		assertRows( previous , 0 , 1 , 2 , 3 );
+		assertTypes( previous , ChangeType.NO_CHANGE , ChangeType.DELETED , ChangeType.DELETED , ChangeType.NO_CHANGE );
+
+		final Pane current = diff.getCurrent();
+		assertEquals( 5 , current.getRowCount() );
+		assertRows( current , 0 , 1 , 2 , 3 , 4 );
+		assertTypes( current , ChangeType.NO_CHANGE , ChangeType.ADDED , ChangeType.ADDED , ChangeType.ADDED , ChangeType.NO_CHANGE );
+		assertEquals( 3 , current.getRow( 3 ) );
+	}
+
+	@Test
+	public void testAlignedReplacement()
+	{
+		final SideBySideDiff diff = create( "a\nb\nc\nd\n" , "a\nx\ny\nz\nd\n" , true , new Edit( 1 , 3 , 1 , 4 ) );
+		assertTrue( diff.isAligned() );
+
+		// deleted lines followed by one padding row per added line and vice versa
+		assertRows( diff.getPrevious() , 0 , 1 , 2 , -1 , -1 , -1 , 3 );
+		assertRows( diff.getCurrent() , 0 , 1 , 2 , 3 , -1 , -1 , 4 );
+		assertTypes( diff.getPrevious() , ChangeType.NO_CHANGE , ChangeType.DELETED , ChangeType.DELETED ,
+				ChangeType.ADDED , ChangeType.ADDED , ChangeType.ADDED , ChangeType.NO_CHANGE );
+		assertTypes( diff.getCurrent() , ChangeType.NO_CHANGE , ChangeType.ADDED , ChangeType.ADDED , ChangeType.ADDED ,
+				ChangeType.DELETED , ChangeType.DELETED , ChangeType.NO_CHANGE );
+		assertLinesToRows( diff.getPrevious() );
+		assertLinesToRows( diff.getCurrent() );
+		assertEquals( 6 , diff.getPrevious().getRow( 3 ) );
+		assertEquals( 6 , diff.getCurrent().getRow( 4 ) );
+	}
+
+	@Test
+	public void testAlignedInsertion()
+	{
+		final SideBySideDiff diff = create( "a\nb\n" , "a\nx\ny\nb\n" , true , new Edit( 1 , 1 , 1 , 3 ) );
+		assertRows( diff.getPrevious() , 0 , -1 , -1 , 1 );
+		assertRows( diff.getCurrent() , 0 , 1 , 2 , 3 );
+		assertTrue( diff.getPrevious().isPadding( 1 ) );
+		assertEquals( ChangeType.ADDED , diff.getPrevious().getRowType( 1 ) );
+		assertLinesToRows( diff.getPrevious() );
+		assertLinesToRows( diff.getCurrent() );
+	}
+
+	@Test
+	public void testAlignedDeletionAtEnd()
+	{
+		final SideBySideDiff diff = create( "a\nb\nc\n" , "a\n" , true , new Edit( 1 , 3 , 1 , 1 ) );
+		assertRows( diff.getPrevious() , 0 , 1 , 2 );
+		assertRows( diff.getCurrent() , 0 , -1 , -1 );
+		assertEquals( ChangeType.DELETED , diff.getCurrent().getRowType( 2 ) );
+		assertLinesToRows( diff.getPrevious() );
+		assertLinesToRows( diff.getCurrent() );
+	}
+
+	@Test
+	public void testAlignedSeveralEdits()
+	{
+		final SideBySideDiff diff = create( "a\nb\nc\nd\ne\n" , "x\na\nc\nd\ny\n" , true ,
+				new Edit( 0 , 0 , 0 , 1 ) , new Edit( 1 , 2 , 2 , 2 ) , new Edit( 4 , 5 , 4 , 5 ) );
+		assertRows( diff.getPrevious() , -1 , 0 , 1 , 2 , 3 , 4 , -1 );
+		assertRows( diff.getCurrent() , 0 , 1 , -1 , 2 , 3 , 4 , -1 );
+		assertLinesToRows( diff.getPrevious() );
+		assertLinesToRows( diff.getCurrent() );
+	}
+
+	@Test
+	public void testAlignedWithoutChanges()
+	{
+		final SideBySideDiff diff = create( "a\nb\n" , "a\nb\n" , true );
+		assertRows( diff.getPrevious() , 0 , 1 );
+		assertRows( diff.getCurrent() , 0 , 1 );
+		assertTypes( diff.getCurrent() , ChangeType.NO_CHANGE , ChangeType.NO_CHANGE );
+	}
+
+	@Test(expected=IndexOutOfBoundsException.class)
+	public void testInvalidRow() {
+		create( "a\n" , "b\n" , true , new Edit( 0 , 1 , 0 , 1 ) ).getPrevious().getLine( 2 );
+	}
+
+	@Test
+	public void testMapLinesAcrossReplacement()
+	{
+		final SideBySideDiff diff = create( "a\nb\nc\nd\n" , "a\nx\ny\nz\nd\n" , false , new Edit( 1 , 3 , 1 , 4 ) );
+		assertMapping( diff , true , 0 , 1 , 2 , 4 );
+		// extra added lines map to the last replaced line
+		assertMapping( diff , false , 0 , 1 , 2 , 2 , 3 );
+	}
+
+	@Test
+	public void testMapDeletedLines()
+	{
+		final SideBySideDiff diff = create( "a\nb\nc\nd\n" , "a\nd\n" , false , new Edit( 1 , 3 , 1 , 1 ) );
+		// deleted lines map to the line following the deletion
+		assertMapping( diff , true , 0 , 1 , 1 , 1 );
+		assertMapping( diff , false , 0 , 3 );
+	}
+
+	@Test
+	public void testMapToEmptyRevision()
+	{
+		final SideBySideDiff diff = create( "a\nb\n" , "" , false , new Edit( 0 , 2 , 0 , 0 ) );
+		assertMapping( diff , true , 0 , 0 );
+	}
+
+	@Test
+	public void testMapLinesBeyondEnd()
+	{
+		final SideBySideDiff diff = create( "a\nb\nc\n" , "a\n" , false , new Edit( 1 , 3 , 1 , 1 ) );
+		// nothing follows the deletion, clamped to the last line
+		assertMapping( diff , true , 0 , 0 , 0 );
+	}
+
+	@Test
+	public void testMapUnchangedLinesLikeAlignedRows()
+	{
+		// edits every 10 lines, so the binary search has something to do
+		final StringBuilder previous = new StringBuilder();
+		final StringBuilder current = new StringBuilder();
+		final EditList edits = new EditList();
+		int lineB = 0;
+		for ( int lineA = 0 ; lineA < 200 ; lineA++ )
+		{
+			previous.append( "line " ).append( lineA ).append( '\n' );
+			if ( lineA % 10 == 5 )
+			{
+				// replace one line by (lineA % 3) lines
+				final int added = lineA % 3;
+				edits.add( new Edit( lineA , lineA + 1 , lineB , lineB + added ) );
+				for ( int i = 0 ; i < added ; i++ , lineB++ ) {
+					current.append( "new " ).append( lineA ).append( '\n' );
+				}
+			} else {
+				current.append( "line " ).append( lineA ).append( '\n' );
+				lineB++;
+			}
+		}
+
+		final SideBySideDiff diff = SideBySideDiff.create( Constants.encode( previous.toString() ) , Constants.encode( current.toString() ) , edits , true );
+		final Pane left = diff.getPrevious();
+		final Pane right = diff.getCurrent();
+		for ( int line = 0 ; line < left.getText().getLineCount() ; line++ )
+		{
+			if ( left.getText().getChangeType( line ) == ChangeType.NO_CHANGE ) {
+				assertEquals( "previous line "+line , right.getLine( left.getRow( line ) ) , diff.toCurrentLine( line ) );
+			}
+		}
+		for ( int line = 0 ; line < right.getText().getLineCount() ; line++ )
+		{
+			if ( right.getText().getChangeType( line ) == ChangeType.NO_CHANGE ) {
+				assertEquals( "current line "+line , left.getLine( right.getRow( line ) ) , diff.toPreviousLine( line ) );
+			}
+		}
+	}
+
+	/*
+	 * Checks the line each line of one revision maps to.
+	 */
+	private static void assertMapping(SideBySideDiff diff,boolean toCurrent,int... expectedLines)
+	{
+		for ( int line = 0 ; line < expectedLines.length ; line++ )
+		{
+			final int actual = toCurrent ? diff.toCurrentLine( line ) : diff.toPreviousLine( line );
+			assertEquals( "line "+line , expectedLines[line] , actual );
+		}
+	}
+
+	protected static SideBySideDiff create(String previous,String current,boolean align,Edit... edits)
+	{
+		final EditList list = new EditList();
+		for ( Edit edit : edits ) {
+			list.add( edit );
+		}
+		return SideBySideDiff.create( Constants.encode( previous ) , Constants.encode( current ) , list , align );
+	}
+
+	private static void assertRows(Pane pane,int... expectedLines)
+	{
+		assertEquals( "row count" , expectedLines.length , pane.getRowCount() );
+		for ( int row = 0 ; row < expectedLines.length ; row++ ) {
+			assertEquals( "line in row "+row , expectedLines[row] , pane.getLine( row ) );
+		}
+	}
+
+	private static void assertTypes(Pane pane,ChangeType... expectedTypes)
+	{
+		for ( int row = 0 ; row < expectedTypes.length ; row++ ) {
+			assertEquals( "type of row "+row , expectedTypes[row] , pane.getRowType( row ) );
+		}
+	}
+
+	/*
+	 * Checks that mapping lines to rows is the inverse of mapping rows to lines.
+	 */
+	private static void assertLinesToRows(Pane pane)
+	{
+		for ( int line = 0 ; line < pane.getText().getLineCount() ; line++ ) {
+			assertEquals( "line "+line , line , pane.getLine( pane.getRow( line ) ) );
+		}
+	}
+}